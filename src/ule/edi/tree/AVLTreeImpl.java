@@ -0,0 +1,150 @@
+package ule.edi.tree;
+
+/**
+ * arbol binario de busqueda auto-equilibrado (AVL).
+ *
+ * Tiene la misma interfaz que {@link BinarySearchTreeImpl} (count de
+ * instancias, padre, etiquetas, caminos...), pero cada nodo guarda su altura
+ * y tras cada insercion o eliminacion de un nodo se recorre el camino hasta
+ * la raiz rotando donde las alturas de los hijos difieren en mas de 1.
+ *
+ * Asi la altura queda acotada por 1.44·log2(n) aunque los elementos lleguen
+ * ordenados, y insert, contains y remove son O(log n).
+ *
+ * Las rotaciones se hacen intercambiando contenido entre nodos (ver
+ * {@link BinarySearchTreeImpl#rotateRight()}), de modo que la raiz sigue
+ * siendo el mismo objeto.
+ *
+ * @param <T> tipo de la informacion en cada nodo, comparable.
+ */
+public class AVLTreeImpl<T extends Comparable<? super T>> extends BinarySearchTreeImpl<T> {
+
+	int height; // altura del nodo (1 para una hoja, 0 para el vacio)
+
+	/**
+	 * arbol AVL vacio
+	 */
+	public AVLTreeImpl() {
+		super();
+	}
+
+	public AVLTreeImpl(BinarySearchTreeImpl<T> father) {
+		super(father);
+	}
+
+	@Override
+	protected BinarySearchTreeImpl<T> emptyBST(BinarySearchTreeImpl<T> father) {
+		return new AVLTreeImpl<T>(father);
+	}
+
+	/**
+	 * Devuelve la altura del arbol (0 para el arbol vacio).
+	 *
+	 * @return altura del arbol
+	 */
+	public int getHeight() {
+		return height(this);
+	}
+
+	private static int height(BinarySearchTreeImpl<?> node) {
+		if (node == null || node.isEmpty()) {
+			return 0;
+		}
+		return ((AVLTreeImpl<?>) node).height;
+	}
+
+	@Override
+	protected void update() {
+		super.update();
+		height = isEmpty() ? 0 : 1 + Math.max(height(left()), height(right()));
+	}
+
+	private int balance() {
+		return height(left()) - height(right());
+	}
+
+	private AVLTreeImpl<T> left() {
+		return (AVLTreeImpl<T>) getLeftBST();
+	}
+
+	private AVLTreeImpl<T> right() {
+		return (AVLTreeImpl<T>) getRightBST();
+	}
+
+	@Override
+	protected boolean isSelfBalancing() {
+		return true;
+	}
+
+	@Override
+	protected void afterInsert(BinarySearchTreeImpl<T> node) {
+		rebalanceUp(node);
+	}
+
+	@Override
+	protected void afterRemove(BinarySearchTreeImpl<T> node) {
+		rebalanceUp(node);
+	}
+
+	/**
+	 * Union por alturas: si las de less y greater difieren en mas de 1, se
+	 * baja por el borde del mas alto hasta un subarbol de la altura del
+	 * otro (o uno mas), se pone alli mid con ese subarbol y el otro arbol
+	 * como hijos, y se equilibra el camino de subida. O(diferencia de
+	 * alturas).
+	 */
+	@Override
+	protected BinarySearchTreeImpl<T> link(BinarySearchTreeImpl<T> less, BinarySearchTreeImpl<T> mid, BinarySearchTreeImpl<T> greater) {
+		int hl = height(less);
+		int hg = height(greater);
+		if (hl > hg + 1) {
+			BinarySearchTreeImpl<T> p = less;
+			while (height(p.getRightBST()) > hg + 1) {
+				p = p.getRightBST();
+			}
+			p.setRightBST(super.link(p.getRightBST(), mid, greater));
+			mid.father = p;
+			rebalanceUp(p);
+			return less;
+		}
+		if (hg > hl + 1) {
+			BinarySearchTreeImpl<T> p = greater;
+			while (height(p.getLeftBST()) > hl + 1) {
+				p = p.getLeftBST();
+			}
+			p.setLeftBST(super.link(less, mid, p.getLeftBST()));
+			mid.father = p;
+			rebalanceUp(p);
+			return greater;
+		}
+		return super.link(less, mid, greater);
+	}
+
+	/**
+	 * Actualiza alturas y rota, desde node hasta la raiz.
+	 */
+	private void rebalanceUp(BinarySearchTreeImpl<T> node) {
+		while (node != null) {
+			if (!node.isEmpty()) {
+				((AVLTreeImpl<T>) node).rebalance();
+			}
+			node = node.father;
+		}
+	}
+
+	private void rebalance() {
+		update();
+		int b = balance();
+		if (b > 1) {
+			if (left().balance() < 0) {
+				left().rotateLeft();
+			}
+			rotateRight();
+		} else if (b < -1) {
+			if (right().balance() > 0) {
+				right().rotateRight();
+			}
+			rotateLeft();
+		}
+	}
+}
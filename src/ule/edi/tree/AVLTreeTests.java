@@ -0,0 +1,311 @@
+package ule.edi.tree;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AVLTreeTests {
+
+	private AVLTreeImpl<Integer> ejemplo = null;
+
+	@Before
+	public void setupAVL() {
+		ejemplo = new AVLTreeImpl<Integer>();
+		ejemplo.insert(10, 20, 5, 2, 15, 30);
+		Assert.assertEquals("{10, {5, {2, ∅, ∅}, ∅}, {20, {15, ∅, ∅}, {30, ∅, ∅}}}", ejemplo.toString());
+	}
+
+	/*
+	 * Comprueba la condicion AVL, las alturas guardadas y los padres.
+	 * Devuelve la altura.
+	 */
+	private int checkAVL(BinarySearchTreeImpl<Integer> node, BinarySearchTreeImpl<Integer> father) {
+		if (node == null || node.isEmpty()) {
+			return 0;
+		}
+		Assert.assertSame(father, node.father);
+		Assert.assertEquals(node.count + BinarySearchTreeImpl.instancesOf(node.getLeftBST()) + BinarySearchTreeImpl.instancesOf(node.getRightBST()), node.instances);
+		Assert.assertEquals(1 + BinarySearchTreeImpl.sizeOf(node.getLeftBST()) + BinarySearchTreeImpl.sizeOf(node.getRightBST()), node.size);
+		int hl = checkAVL(node.getLeftBST(), node);
+		int hr = checkAVL(node.getRightBST(), node);
+		Assert.assertTrue(Math.abs(hl - hr) <= 1);
+		int h = 1 + Math.max(hl, hr);
+		Assert.assertEquals(h, ((AVLTreeImpl<Integer>) node).height);
+		return h;
+	}
+
+	@Test
+	public void insertOrdenado_test() {
+		AVLTreeImpl<Integer> tree = new AVLTreeImpl<Integer>();
+		tree.insert(1, 2, 3);
+		Assert.assertEquals("{2, {1, ∅, ∅}, {3, ∅, ∅}}", tree.toString());
+		tree.insert(4, 5);
+		Assert.assertEquals("{2, {1, ∅, ∅}, {4, {3, ∅, ∅}, {5, ∅, ∅}}}", tree.toString());
+		checkAVL(tree, null);
+	}
+
+	@Test
+	public void rotacionDoble_test() {
+		AVLTreeImpl<Integer> tree = new AVLTreeImpl<Integer>();
+		tree.insert(30, 10, 20);
+		Assert.assertEquals("{20, {10, ∅, ∅}, {30, ∅, ∅}}", tree.toString());
+		checkAVL(tree, null);
+	}
+
+	@Test
+	public void alturaAcotada_test() {
+		AVLTreeImpl<Integer> tree = new AVLTreeImpl<Integer>();
+		int n = 100000;
+		for (int i = 0; i < n; i++) {
+			tree.insert(i);
+		}
+		Assert.assertTrue(tree.getHeight() <= 1.44 * Math.log(n + 2) / Math.log(2));
+		Assert.assertEquals(tree.getHeight(), checkAVL(tree, null));
+		for (int i = 0; i < n; i += 2) {
+			tree.remove(i);
+		}
+		Assert.assertTrue(tree.getHeight() <= 1.44 * Math.log(n / 2 + 2) / Math.log(2));
+		Assert.assertEquals(n / 2, tree.size());
+		checkAVL(tree, null);
+	}
+
+	@Test
+	public void cargaOrdenada_test() {
+		AVLTreeImpl<Integer> tree = new AVLTreeImpl<Integer>();
+		List<Integer> elements = new ArrayList<Integer>();
+		for (int i = 0; i < 1000; i++) {
+			elements.add(i);
+		}
+		Assert.assertEquals(1000, tree.insert(elements));
+		Assert.assertEquals(10, tree.getHeight());
+		Assert.assertEquals(10, checkAVL(tree, null));
+		for (int i = 0; i < 1000; i += 3) {
+			tree.remove(i);
+		}
+		checkAVL(tree, null);
+	}
+
+	@Test
+	public void insertBatch_test() {
+		AVLTreeImpl<Integer> tree = new AVLTreeImpl<Integer>();
+		tree.insert(5, 1, 9);
+		Random rnd = new Random(3);
+		List<Integer> batch = new ArrayList<Integer>();
+		for (int i = 0; i < 3000; i++) {
+			batch.add(rnd.nextInt(1000));
+		}
+		batch.add(5);
+		Assert.assertEquals(3001, tree.insertBatch(batch));
+		Assert.assertEquals(3004, tree.instancesCount());
+		checkAVL(tree, null);
+	}
+
+	@Test
+	public void splitJoin_test() {
+		BinarySearchTreeImpl<Integer> tree = new AVLTreeImpl<Integer>();
+		for (int i = 0; i < 500; i++) {
+			tree.insert(i % 250);
+		}
+		BinarySearchTreeImpl<Integer> greater = tree.split(100);
+		Assert.assertTrue(greater instanceof AVLTreeImpl);
+		checkAVL(tree, null);
+		checkAVL(greater, null);
+		Assert.assertEquals(100, tree.size());
+		Assert.assertEquals(300, greater.instancesCount());
+		BinarySearchTreeImpl.join(tree, greater);
+		checkAVL(tree, null);
+		Assert.assertEquals(500, tree.instancesCount());
+		Assert.assertTrue(greater.isEmpty());
+	}
+
+	@Test
+	public void conjuntos_test() {
+		Random rnd = new Random(21);
+		//	Tamanos muy distintos y parecidos, y un BST normal como operando
+		int[][] sizes = { { 0, 500 }, { 1, 20000 }, { 30, 20000 }, { 3000, 4000 } };
+		for (int[] size : sizes) {
+			int[] ca = new int[5000];
+			int[] cb = new int[ca.length];
+			BinarySearchTreeImpl<Integer> a = new AVLTreeImpl<Integer>();
+			BinarySearchTreeImpl<Integer> b = size[0] == 30 ? new BinarySearchTreeImpl<Integer>() : new AVLTreeImpl<Integer>();
+			for (int i = 0; i < size[0]; i++) {
+				int x = rnd.nextInt(ca.length);
+				a.insert(x);
+				ca[x]++;
+			}
+			for (int i = 0; i < size[1]; i++) {
+				int x = rnd.nextInt(cb.length);
+				b.insert(x);
+				cb[x]++;
+			}
+			String sa = a.toString();
+			String sb = b.toString();
+			List<BinarySearchTreeImpl<Integer>> results = Arrays.asList(a.union(b), b.union(a), a.intersection(b),
+					b.intersection(a), a.difference(b), b.difference(a), a.sumCounts(b));
+			for (int r = 0; r < results.size(); r++) {
+				//	Del tipo del arbol sobre el que se llama
+				BinarySearchTreeImpl<Integer> receiver = r % 2 == 1 && r < 6 ? b : a;
+				Assert.assertSame(receiver.getClass(), results.get(r).getClass());
+				if (receiver instanceof AVLTreeImpl) {
+					checkAVL(results.get(r), null);
+				}
+			}
+			for (int k = 0; k < ca.length; k++) {
+				int[] expected = { Math.max(ca[k], cb[k]), Math.max(ca[k], cb[k]), Math.min(ca[k], cb[k]), Math.min(ca[k], cb[k]),
+						Math.max(0, ca[k] - cb[k]), Math.max(0, cb[k] - ca[k]), ca[k] + cb[k] };
+				for (int r = 0; r < expected.length; r++) {
+					Assert.assertEquals(expected[r], results.get(r).rangeInstances(k, k));
+				}
+			}
+			Assert.assertEquals(sa, a.toString());
+			Assert.assertEquals(sb, b.toString());
+		}
+	}
+
+	@Test
+	public void splitJoinSinCopiar_test() {
+		Random rnd = new Random(9);
+		BinarySearchTreeImpl<Integer> tree = new AVLTreeImpl<Integer>();
+		for (int i = 0; i < 3000; i++) {
+			tree.insert(rnd.nextInt(5000));
+		}
+		long instances = tree.instancesCount();
+		//	Cortes en cualquier punto, tambien casi en los extremos, para
+		//	unir arboles de alturas muy distintas
+		for (int i = 0; i < 200; i++) {
+			int key = i % 4 == 0 ? rnd.nextInt(40) : i % 4 == 1 ? 4960 + rnd.nextInt(40) : rnd.nextInt(5000);
+			BinarySearchTreeImpl<Integer> greater = tree.split(key);
+			checkAVL(tree, null);
+			checkAVL(greater, null);
+			Assert.assertTrue(tree.isEmpty() || tree.iteratorInorder().next() < key);
+			Assert.assertEquals(instances, tree.instancesCount() + greater.instancesCount());
+			BinarySearchTreeImpl.join(tree, greater);
+			checkAVL(tree, null);
+			Assert.assertTrue(greater.isEmpty());
+		}
+		BinarySearchTreeImpl<Integer> range = tree.extractRange(1000, 1100);
+		checkAVL(tree, null);
+		checkAVL(range, null);
+		BinarySearchTreeImpl.join(range, tree.split(1101));
+		BinarySearchTreeImpl.join(tree, range);
+		checkAVL(tree, null);
+		Assert.assertEquals(instances, tree.instancesCount());
+
+		//	Se reutilizan los nodos: solo cambian de nodo los elementos de
+		//	los caminos que se recorren, unos pocos de los miles que hay
+		List<Integer> keys = new ArrayList<Integer>();
+		List<BinarySearchTreeImpl<Integer>> nodes = new ArrayList<BinarySearchTreeImpl<Integer>>();
+		for (Iterator<Integer> it = tree.iteratorInorder(); it.hasNext(); ) {
+			Integer k = it.next();
+			keys.add(k);
+			nodes.add(tree.find(k));
+		}
+		BinarySearchTreeImpl.join(tree, tree.split(2500));
+		int moved = 0;
+		for (int i = 0; i < keys.size(); i++) {
+			if (tree.find(keys.get(i)) != nodes.get(i)) {
+				moved++;
+			}
+		}
+		Assert.assertTrue(moved < 40);
+	}
+
+	@Test
+	public void count_test() {
+		ejemplo.insert(20, 20, 5);
+		Assert.assertEquals(9, ejemplo.instancesCount());
+		Assert.assertEquals(2, ejemplo.remove(20, 2));
+		Assert.assertEquals(2, ejemplo.removeAll(5));
+		Assert.assertEquals("{10, {2, ∅, ∅}, {20, {15, ∅, ∅}, {30, ∅, ∅}}}", ejemplo.toString());
+		checkAVL(ejemplo, null);
+	}
+
+	@Test
+	public void removeRebalancea_test() {
+		ejemplo.remove(15);
+		ejemplo.remove(30);
+		ejemplo.remove(20);
+		Assert.assertEquals("{5, {2, ∅, ∅}, {10, ∅, ∅}}", ejemplo.toString());
+		checkAVL(ejemplo, null);
+		Assert.assertSame(ejemplo, ejemplo.getSubtreeWithPath("1").father);
+	}
+
+	@Test
+	public void etiquetas_test() {
+		ejemplo.tagDescendent();
+		Assert.assertEquals("{10 [(descend, 4)], {5 [(descend, 5)], {2 [(descend, 6)], ∅, ∅}, ∅}, {20 [(descend, 2)], {15 [(descend, 3)], ∅, ∅}, {30 [(descend, 1)], ∅, ∅}}}", ejemplo.toString());
+	}
+
+	@Test
+	public void snapshot_test() throws IOException {
+		//	Guardado desde un BST degenerado, se carga equilibrado
+		BinarySearchTreeImpl<Integer> chain = new BinarySearchTreeImpl<Integer>();
+		for (int i = 1; i <= 100; i++) {
+			chain.insert(i);
+		}
+		chain.insert(7);
+		chain.getSubtreeWithPath("").setTag("primero", 1);
+		Path file = Files.createTempFile("bst", ".snap");
+		try {
+			chain.save(file, KeyCodec.INTEGER, true);
+			AVLTreeImpl<Integer> tree = BinarySearchTreeImpl.load(file, KeyCodec.INTEGER, AVLTreeImpl<Integer>::new);
+			checkAVL(tree, null);
+			Assert.assertEquals(100, tree.size());
+			Assert.assertEquals(101, tree.instancesCount());
+			Assert.assertEquals(2, tree.find(7).count);
+			Assert.assertEquals(1, tree.find(1).getTag("primero"));
+			Assert.assertTrue(tree.getSubtreeWithPath("0") instanceof AVLTreeImpl);
+			tree.insert(101);
+			tree.remove(50);
+			checkAVL(tree, null);
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void journal_test() throws IOException {
+		Path dir = Files.createTempDirectory("avl");
+		Path snap = dir.resolve("arbol.snap");
+		Path journal = dir.resolve("arbol.log");
+		try {
+			TreeJournal<Integer> log = TreeJournal.open(snap, journal, KeyCodec.INTEGER, 4, TreeJournal.Sync.NONE, AVLTreeImpl<Integer>::new);
+			for (int i = 1; i <= 50; i++) {
+				log.insert(i);
+			}
+			log.close();
+			//	Se repite el diario sobre un AVL
+			log = TreeJournal.open(snap, journal, KeyCodec.INTEGER, 4, TreeJournal.Sync.NONE, AVLTreeImpl<Integer>::new);
+			Assert.assertTrue(log.getTree() instanceof AVLTreeImpl);
+			checkAVL(log.getTree(), null);
+			log.checkpoint();
+			log.close();
+			//	Y se carga la instantanea como AVL
+			log = TreeJournal.open(snap, journal, KeyCodec.INTEGER, 4, TreeJournal.Sync.NONE, AVLTreeImpl<Integer>::new);
+			Assert.assertEquals(0, log.getReplayed());
+			Assert.assertTrue(log.getTree() instanceof AVLTreeImpl);
+			checkAVL(log.getTree(), null);
+			Assert.assertEquals(50, log.getTree().size());
+			log.close();
+		} finally {
+			Files.deleteIfExists(snap);
+			Files.deleteIfExists(journal);
+			Files.delete(dir);
+		}
+	}
+
+	@Test(expected = NoSuchElementException.class)
+	public void remove_NoSuch_test() {
+		ejemplo.remove(11);
+	}
+}
@@ -1,10 +1,15 @@
 package ule.edi.tree;
 
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.List;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
 
 
 /**
@@ -33,40 +38,260 @@ public abstract class AbstractTreeADT<T> implements TreeADT<T> {
 
 	protected T content;//	Información en el nodo raíz
 	
-	protected Map<String, Object> tags = new HashMap<>();
+	//	Etiquetas del nodo. La mayoria de los nodos no tienen ninguna, asi
+	//	que el mapa solo se crea al poner la primera (null hasta entonces).
+	protected Map<String, Object> tags;
+
+	//	Almacen por columnas de todo el arbol (opcional, ver useTagStore)
+	//	y posicion de este nodo en sus columnas (-1 si aun no tiene).
+	TagStore tagStore;
+	int ordinal = -1;
 	
 	@Override
 	public Map<String, Object> getTags() {
+		if (tagStore != null) {
+			return new StoreTags();
+		}
+		if (tags == null) {
+			tags = new TagMap();
+		}
 		return tags;
 	}
 	
 	@Override
 	public void setTag(String k, Object v) {
+		if (tagStore != null) {
+			if (v instanceof Integer) {
+				if (ordinal < 0) {
+					ordinal = tagStore.newOrdinal();
+				}
+				tagStore.set(ordinal, k, (Integer) v);
+				if (tags != null) {
+					tags.remove(k);
+				}
+				return;
+			}
+			if (ordinal >= 0) {
+				tagStore.remove(ordinal, k);
+			}
+			tagStore.spilled = true;
+		}
+		if (tags == null) {
+			tags = new TagMap();
+		}
 		tags.put(k, v);
 	}
 	
 	@Override
 	public Object getTag(String k) {
-		return tags.get(k);
+		if (tagStore != null && ordinal >= 0) {
+			Integer v = tagStore.get(ordinal, k);
+			if (v != null) {
+				return v;
+			}
+		}
+		return tags == null ? null : tags.get(k);
+	}
+
+	/**
+	 * Cierto si el nodo tiene alguna etiqueta (sin crear el mapa).
+	 * 
+	 * @return cierto si hay etiquetas
+	 */
+	protected boolean hasTags() {
+		if (tagStore != null && ordinal >= 0 && tagStore.hasAny(ordinal)) {
+			return true;
+		}
+		return tags != null && ! tags.isEmpty();
+	}
+
+	/**
+	 * Devuelve al almacen la posicion del nodo en las columnas cuando el
+	 * nodo sale del arbol, para que la use otro.
+	 */
+	void releaseOrdinal() {
+		if (tagStore != null && ordinal >= 0) {
+			tagStore.release(ordinal);
+			ordinal = -1;
+		}
+	}
+
+	/**
+	 * Pasa a guardar las etiquetas enteras de todo el arbol (desde este
+	 * nodo) en un almacen por columnas, con un int[] por clave en vez de un
+	 * Integer en el mapa de cada nodo. Las etiquetas ya puestas se pasan al
+	 * almacen; getTag, setTag, getTags y filterTags funcionan igual.
+	 * 
+	 * Los nodos que se creen despues comparten el almacen de su padre.
+	 */
+	public void useTagStore() {
+		if (tagStore != null) {
+			return;
+		}
+		TagStore store = new TagStore(this);
+		Deque<AbstractTreeADT<T>> pending = new ArrayDeque<AbstractTreeADT<T>>();
+		pending.push(this);
+		while (! pending.isEmpty()) {
+			AbstractTreeADT<T> node = pending.pop();
+			node.tagStore = store;
+			node.ordinal = -1;
+			if (node.tags != null) {
+				Map<String, Object> old = node.tags;
+				node.tags = null;
+				for (Map.Entry<String, Object> e : old.entrySet()) {
+					node.setTag(e.getKey(), e.getValue());
+				}
+			}
+			if (! node.isEmpty()) {
+				for (int i = 0; i < node.getMaxDegree(); i++) {
+					TreeADT<T> child = node.getSubtree(i);
+					if (child != null && ! child.isEmpty()) {
+						pending.push((AbstractTreeADT<T>) child);
+					}
+				}
+			}
+		}
 	}
 	
 	@Override
 	public void filterTags(String ... keep) {
+		if (tagStore != null && tagStore.isOwner(this) && ! tagStore.shared) {
+			//	Desde la raiz basta con vaciar columnas enteras
+			tagStore.retainAll(keep);
+			if (tagStore.spilled) {
+				//	Se ha recorrido todo el arbol: se sabe si queda algun mapa
+				tagStore.spilled = filterTags(keep, true);
+			}
+			return;
+		}
+		filterTags(keep, false);
+	}
+
+	/**
+	 * @return cierto si a algun nodo del subarbol le quedan etiquetas en su
+	 *         propio mapa
+	 */
+	private boolean filterTags(String[] keep, boolean columnsDone) {
+		
+		if (tagStore != null && ordinal >= 0 && ! columnsDone) {
+			tagStore.retain(ordinal, keep);
+		}
 		
-		if (! tags.isEmpty()) {
-			HashMap<String, Object> rx = new HashMap<>();
+		if (tags != null && ! tags.isEmpty()) {
+			Map<String, Object> rx = new TagMap();
 			for (int i = 0; i < keep.length; i++) {
 				if (tags.containsKey(keep[i])) {
 					rx.put(keep[i], tags.get(keep[i]));
 				}
 			}
-			this.tags = rx;
+			this.tags = rx.isEmpty() ? null : rx;
 		}
 		
+		boolean spilled = tags != null && ! tags.isEmpty();
 		if (! isEmpty()) {
 			for (int i = 0; i < getMaxDegree(); i++) {
-				getSubtree(i).filterTags(keep);
+				TreeADT<T> child = getSubtree(i);
+				if (child instanceof AbstractTreeADT) {
+					spilled |= ((AbstractTreeADT<T>) child).filterTags(keep, columnsDone);
+				} else {
+					child.filterTags(keep);
+					spilled = true;
+				}
+			}
+		}
+		return spilled;
+	}
+
+	/**
+	 * Vista como mapa de las etiquetas del nodo cuando se usa el almacen
+	 * por columnas: las enteras estan en el almacen y el resto en tags.
+	 */
+	private final class StoreTags extends AbstractMap<String, Object> {
+
+		@Override
+		public Object get(Object key) {
+			return (key == null || key instanceof String) ? getTag((String) key) : null;
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			if (! (key == null || key instanceof String)) {
+				return false;
+			}
+			if (ordinal >= 0 && tagStore.contains(ordinal, (String) key)) {
+				return true;
+			}
+			return tags != null && tags.containsKey(key);
+		}
+
+		@Override
+		public Object put(String key, Object value) {
+			Object old = get(key);
+			setTag(key, value);
+			return old;
+		}
+
+		@Override
+		public Object remove(Object key) {
+			if (! (key == null || key instanceof String)) {
+				return null;
+			}
+			Object old = ordinal >= 0 ? tagStore.remove(ordinal, (String) key) : null;
+			if (old == null && tags != null) {
+				old = tags.remove(key);
+			}
+			return old;
+		}
+
+		@Override
+		public Set<Map.Entry<String, Object>> entrySet() {
+			final Map<String, Object> snapshot = new TagMap();
+			if (ordinal >= 0) {
+				tagStore.copyTo(ordinal, snapshot);
 			}
+			if (tags != null) {
+				snapshot.putAll(tags);
+			}
+			return new AbstractSet<Map.Entry<String, Object>>() {
+				@Override
+				public int size() {
+					return snapshot.size();
+				}
+
+				@Override
+				public Iterator<Map.Entry<String, Object>> iterator() {
+					final Iterator<Map.Entry<String, Object>> it = snapshot.entrySet().iterator();
+					return new Iterator<Map.Entry<String, Object>>() {
+						private String last;
+
+						@Override
+						public boolean hasNext() {
+							return it.hasNext();
+						}
+
+						@Override
+						public Map.Entry<String, Object> next() {
+							final Map.Entry<String, Object> e = it.next();
+							last = e.getKey();
+							return new AbstractMap.SimpleEntry<String, Object>(e) {
+								private static final long serialVersionUID = 1L;
+
+								@Override
+								public Object setValue(Object value) {
+									setTag(getKey(), value);
+									return super.setValue(value);
+								}
+							};
+						}
+
+						@Override
+						public void remove() {
+							it.remove();
+							StoreTags.this.remove(last);
+						}
+					};
+				}
+			};
 		}
 	}
 
@@ -146,95 +371,159 @@ public abstract class AbstractTreeADT<T> implements TreeADT<T> {
 	 */
 	@Override
 	public String toString() {
-		if (! isEmpty()) {
-			//	Construye el resultado de forma eficiente
-			StringBuffer result = new StringBuffer();
-				
-			//	Raíz
-			result.append("{" + content.toString());
-			
-			if (! tags.isEmpty()) {
-				result.append(" [");
-				
-				List<String> sk = new LinkedList<String>(tags.keySet());
-				
-				Collections.sort(sk);
-				for (String k : sk) {
-					result.append("(" + k + ", " + tags.get(k) + "), ");
-				}
-				result.delete(result.length() - 2, result.length());
-				result.append("]");
+		StringBuilder result = new StringBuilder();
+		try {
+			writeTo(result);
+		} catch (IOException e) {
+			//	StringBuilder no lanza IOException
+			throw new UncheckedIOException(e);
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Escribe el árbol en out con el mismo formato que {@link #toString()},
+	 * según se recorre: no se construye el texto de cada sub-árbol por
+	 * separado, así que el coste es lineal en el tamaño de la salida. El
+	 * recorrido usa una pila propia, no la de llamadas, para no depender
+	 * de la altura del árbol.
+	 * 
+	 * @param out destino (por ejemplo un StringBuilder o un Writer)
+	 * @throws IOException si falla la escritura en out
+	 */
+	public void writeTo(Appendable out) throws IOException {
+		//	Pila de árboles pendientes y de textos que hay que escribir
+		//	entre ellos (", " y "}")
+		Deque<Object> pending = new ArrayDeque<Object>();
+		pending.push(this);
+		while (! pending.isEmpty()) {
+			Object next = pending.pop();
+			if (next instanceof String) {
+				out.append((String) next);
+				continue;
 			}
-			
-			//	Y cada sub-árbol
-			for (int i = 0; i < getMaxDegree(); i++) {
-				result.append(", " + getSubtree(i).toString());
+			AbstractTreeADT<?> t = (AbstractTreeADT<?>) next;
+			if (t.isEmpty()) {
+				out.append(EMPTY_TREE_MARK);
+				continue;
 			}
-			//	Cierra la "}" de este árbol
-			result.append("}");
-			
-			return result.toString();
+			out.append('{');
+			t.writeNode(out);
+			pending.push("}");
+			for (int i = t.getMaxDegree() - 1; i >= 0; i--) {
+				pushSubtree(pending, t.getSubtree(i));
+				pending.push(", ");
+			}
+		}
+	}
+
+	private static void pushSubtree(Deque<Object> pending, TreeADT<?> subtree) {
+		if (subtree == null) {
+			pending.push(EMPTY_TREE_MARK);
+		} else if (subtree instanceof AbstractTreeADT) {
+			pending.push(subtree);
 		} else {
-			return AbstractTreeADT.EMPTY_TREE_MARK;
+			pending.push(subtree.toString());
 		}
 	}
-	
+
 	/**
-	 * Implementación para mostrar un árbol con niveles.
+	 * Escribe la información de la raíz de este árbol, no vacío, tal como
+	 * aparece en {@link #toString()}: el contenido y sus etiquetas.
 	 * 
-	 * @param t (sub-)árbol a mostrar.
-	 * @param bx buffer donde acumular el resultado.
-	 * @param depth profundidad de t en el árbol total.
+	 * @param out destino
+	 * @throws IOException si falla la escritura en out
 	 */
-	private void render(TreeADT<T> t, StringBuffer bx, int depth) {
-		
-		//	Muestra el nodo raíz; tantos espacios como profundo sea
-		for (int i = 0; i < depth; i++) { bx.append("|  "); }
-		
-		//	Y después de los espacios, la información
-		if (! t.isEmpty()) {
-			bx.append(t.getContent());
-			
-			Map<String, Object> tags = t.getTags();
-			
-			if (! tags.isEmpty()) {
-				bx.append(" [");
-				
-				List<String> sk = new LinkedList<String>(tags.keySet());
-				
-				Collections.sort(sk);
-				for (String k : sk) {
-					bx.append("(" + k + ", " + tags.get(k) + "), ");
-				}
-				bx.delete(bx.length() - 2, bx.length());
-				bx.append("]");
+	protected void writeNode(Appendable out) throws IOException {
+		out.append(content.toString());
+		writeTags(out);
+	}
+
+	/**
+	 * Escribe las etiquetas del nodo, ordenadas por clave, como
+	 * " [(k1, v1), (k2, v2)]"; nada si no tiene.
+	 * 
+	 * @param out destino
+	 * @throws IOException si falla la escritura en out
+	 */
+	protected final void writeTags(Appendable out) throws IOException {
+		if (! hasTags()) {
+			return;
+		}
+		Map<String, Object> tags = getTags();
+		writeTags(tags, out);
+	}
+
+	private static void writeTags(Map<String, Object> tags, Appendable out) throws IOException {
+		if (tags == null || tags.isEmpty()) {
+			return;
+		}
+		String[] sk = tags.keySet().toArray(new String[tags.size()]);
+		Arrays.sort(sk);
+		out.append(" [");
+		for (int i = 0; i < sk.length; i++) {
+			if (i > 0) {
+				out.append(", ");
 			}
-			
-			bx.append("\n");
-			
-			//	Muestra sus sub-árboles (recursividad)
-			for (int i = 0; i < t.getMaxDegree(); i++) {
-				//	Que están a mayor profundidad que éste
-				render(t.getSubtree(i), bx, depth + 1);
-			}			
-		} else {
-			bx.append(AbstractTreeADT.EMPTY_TREE_MARK);
-			bx.append("\n");
+			out.append('(').append(sk[i]).append(", ").append(String.valueOf(tags.get(sk[i]))).append(')');
 		}
+		out.append(']');
 	}
-	
+
 	/**
 	 * Devuelve una representación en niveles del árbol.
 	 * 
 	 * @return cada nodo se muestra según su profundidad.
 	 */
 	public String render() {
-		//	Acumula el resultado
-		StringBuffer rx = new StringBuffer();
-		//	Genera usando recursividad
-		render(this, rx, 0);
-		//	
+		StringBuilder rx = new StringBuilder();
+		try {
+			render(rx);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
 		return rx.toString();
 	}
-	
+
+	/**
+	 * Escribe en out la representación en niveles del árbol, la misma que
+	 * {@link #render()}, en un solo recorrido y con una pila propia.
+	 * 
+	 * @param out destino (por ejemplo un StringBuilder o un Writer)
+	 * @throws IOException si falla la escritura en out
+	 */
+	public void render(Appendable out) throws IOException {
+		//	Los sub-árboles null se apilan como EMPTY_TREE_MARK
+		Deque<Object> pending = new ArrayDeque<Object>();
+		Deque<Integer> depths = new ArrayDeque<Integer>();
+		pending.push(this);
+		depths.push(0);
+		while (! pending.isEmpty()) {
+			Object next = pending.pop();
+			int depth = depths.pop();
+			//	Muestra el nodo raíz; tantos espacios como profundo sea
+			for (int i = 0; i < depth; i++) {
+				out.append("|  ");
+			}
+			if (next instanceof String || ((TreeADT<?>) next).isEmpty()) {
+				out.append(EMPTY_TREE_MARK).append('\n');
+				continue;
+			}
+			TreeADT<?> t = (TreeADT<?>) next;
+			out.append(String.valueOf(t.getContent()));
+			//	Sin crear mapas vacios en los nodos no etiquetados
+			if (t instanceof AbstractTreeADT) {
+				((AbstractTreeADT<?>) t).writeTags(out);
+			} else {
+				writeTags(t.getTags(), out);
+			}
+			out.append('\n');
+			//	Sus sub-árboles, que están a mayor profundidad que éste
+			for (int i = t.getMaxDegree() - 1; i >= 0; i--) {
+				TreeADT<?> child = t.getSubtree(i);
+				pending.push(child == null ? EMPTY_TREE_MARK : child);
+				depths.push(depth + 1);
+			}
+		}
+	}
 }
\ No newline at end of file
@@ -1,11 +1,33 @@
 package ule.edi.tree;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
-import java.util.Queue;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntBinaryOperator;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 
 /**
@@ -59,6 +81,109 @@ public class BinarySearchTreeImpl<T extends Comparable<? super T>> extends Abstr
 
 	BinarySearchTreeImpl<T> father; // referencia a su nodo padre)
 	int count;  // contador de instancias 
+	int size;  // nodos del subarbol que empieza en este nodo
+	long instances;  // suma de count en el subarbol que empieza en este nodo
+	int modCount;  // cambia con cada modificacion en el subarbol (iteradores)
+
+	//	Los hijos vacios no se guardan como nodos: left y right son null.
+	//	Hacia fuera (getSubtree) se muestran con este unico nodo vacio
+	//	compartido, que no se puede modificar.
+	@SuppressWarnings("rawtypes")
+	private static final BinarySearchTreeImpl EMPTY = new EmptyBST();
+
+	//	Por debajo de este numero de nodos se construye sin repartir tareas
+	private static final int PARALLEL_THRESHOLD = 1 << 13;
+
+	//	Todo lo que puede cambiar un nodo lanza UnsupportedOperationException:
+	//	las cargas en bloque escriben content e hijos directamente, y si
+	//	llegaran a este nodo lo verian todos los arboles.
+	@SuppressWarnings("rawtypes")
+	private static final class EmptyBST extends BinarySearchTreeImpl {
+
+		@SuppressWarnings("unchecked")
+		EmptyBST() {
+			this.tags = Collections.emptyMap();
+		}
+
+		private static UnsupportedOperationException immutable() {
+			return new UnsupportedOperationException("empty subtree is immutable");
+		}
+
+		@Override
+		public boolean insert(Comparable element) {
+			throw immutable();
+		}
+
+		@Override
+		public int insert(Collection elements) {
+			throw immutable();
+		}
+
+		@Override
+		public int insert(Comparable... elements) {
+			throw immutable();
+		}
+
+		@Override
+		public int insertParallel(Collection elements) {
+			throw immutable();
+		}
+
+		@Override
+		public int insertBatch(Collection elements) {
+			throw immutable();
+		}
+
+		@Override
+		public int insertBatch(Comparable... elements) {
+			throw immutable();
+		}
+
+		@Override
+		public void remove(Comparable element) {
+			throw immutable();
+		}
+
+		@Override
+		public int remove(Comparable element, int num) {
+			throw immutable();
+		}
+
+		@Override
+		public int removeAll(Comparable element) {
+			throw immutable();
+		}
+
+		@Override
+		public int remove(Comparable... elements) {
+			throw immutable();
+		}
+
+		@Override
+		public int removeAll(Collection elements) {
+			throw immutable();
+		}
+
+		@Override
+		public void setContent(Object content) {
+			throw immutable();
+		}
+
+		@Override
+		public void setTag(String k, Object v) {
+			throw immutable();
+		}
+
+		@Override
+		public void filterTags(String... keep) {
+			throw immutable();
+		}
+
+		@Override
+		public void useTagStore() {
+			throw immutable();
+		}
+	}
 
 	/**
 	 * Devuelve el arbol binario de busqueda izquierdo.
@@ -85,6 +210,19 @@ public class BinarySearchTreeImpl<T extends Comparable<? super T>> extends Abstr
 		this.right = right;
 	}
 
+	/**
+	 * Los hijos que no existen se devuelven como arbol vacio.
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public TreeADT<T> getSubtree(int n) {
+		TreeADT<T> subtree = super.getSubtree(n);
+		if (subtree == null && content != null) {
+			return EMPTY;
+		}
+		return subtree;
+	}
+
 	/**
 	 * arbol BST vaci­o
 	 */
@@ -106,14 +244,176 @@ public class BinarySearchTreeImpl<T extends Comparable<? super T>> extends Abstr
 		this.content = null;
 		this.count = 0;
 		this.father = father;
+		if (father != null) {
+			this.tagStore = father.tagStore;
+		}
 	
 	}
 
-	private BinarySearchTreeImpl<T> emptyBST(BinarySearchTreeImpl<T> father) {
+	/**
+	 * Devuelve un nodo vacio del mismo tipo que este arbol, para ocuparlo
+	 * a continuacion.
+	 * 
+	 * Las variantes equilibradas (AVL, rojinegro) lo redefinen para que
+	 * todos los nodos del arbol sean de su propia clase.
+	 * 
+	 * @param father nodo padre del nuevo nodo
+	 * @return nodo vacio
+	 */
+	protected BinarySearchTreeImpl<T> emptyBST(BinarySearchTreeImpl<T> father) {
 		//Devuelve un nodo vacío
 		return new BinarySearchTreeImpl<T>(father);
 	}
 
+	/**
+	 * Se invoca tras crear la hoja de un elemento nuevo (no al
+	 * incrementar count). En un BST sin equilibrar no hace nada.
+	 * 
+	 * @param node nodo recien ocupado
+	 */
+	protected void afterInsert(BinarySearchTreeImpl<T> node) {
+	}
+
+	/**
+	 * Se invoca tras eliminar fisicamente un nodo. En un BST sin equilibrar
+	 * no hace nada.
+	 * 
+	 * @param node nodo mas profundo cuya forma ha cambiado
+	 */
+	protected void afterRemove(BinarySearchTreeImpl<T> node) {
+	}
+
+	static int sizeOf(BinarySearchTreeImpl<?> node) {
+		return node == null ? 0 : node.size;
+	}
+
+	static long instancesOf(BinarySearchTreeImpl<?> node) {
+		return node == null ? 0 : node.instances;
+	}
+
+	/**
+	 * Recalcula los datos de este nodo que dependen de sus hijos (numero de
+	 * nodos y de instancias del subarbol). Las subclases le anaden los
+	 * suyos, p.ej. la altura.
+	 */
+	protected void update() {
+		modCount++;
+		if (content == null) {
+			size = 0;
+			instances = 0;
+		} else {
+			size = 1 + sizeOf(getLeftBST()) + sizeOf(getRightBST());
+			instances = count + instancesOf(getLeftBST()) + instancesOf(getRightBST());
+		}
+	}
+
+	/**
+	 * Recalcula desde node hasta la raiz, tras un cambio en la forma.
+	 */
+	protected static <T extends Comparable<? super T>> void updateUp(BinarySearchTreeImpl<T> node) {
+		while (node != null) {
+			node.update();
+			node = node.father;
+		}
+	}
+
+	/**
+	 * Suma delta instancias desde node hasta la raiz, tras cambiar el
+	 * count de node sin cambiar la forma.
+	 */
+	private static void addInstances(BinarySearchTreeImpl<?> node, long delta) {
+		while (node != null) {
+			node.instances += delta;
+			node.modCount++;
+			node = node.father;
+		}
+	}
+
+	/**
+	 * Cuenta una hoja nueva (con una instancia) desde ella hasta la raiz.
+	 */
+	private static void addLeaf(BinarySearchTreeImpl<?> node) {
+		while (node != null) {
+			node.size++;
+			node.instances++;
+			node.modCount++;
+			node = node.father;
+		}
+	}
+
+	/**
+	 * Rotacion a la derecha en la posicion de este nodo.
+	 * 
+	 * Para no cambiar la identidad de la raiz (el objeto que tiene el
+	 * usuario), en vez de enlazar de nuevo los nodos se intercambia el
+	 * contenido (elemento, count y etiquetas) entre este nodo y su hijo
+	 * izquierdo, que pasa a ser su hijo derecho.
+	 */
+	protected void rotateRight() {
+		BinarySearchTreeImpl<T> pivot = getLeftBST();
+		swapNodeData(pivot);
+		setLeftBST(pivot.getLeftBST());
+		pivot.setLeftBST(pivot.getRightBST());
+		pivot.setRightBST(getRightBST());
+		setRightBST(pivot);
+		if (getLeftBST() != null) {
+			getLeftBST().father = this;
+		}
+		if (pivot.getRightBST() != null) {
+			pivot.getRightBST().father = pivot;
+		}
+		pivot.update();
+		update();
+	}
+
+	/**
+	 * Rotacion a la izquierda en la posicion de este nodo.
+	 * 
+	 * Simetrica a {@link #rotateRight()}.
+	 */
+	protected void rotateLeft() {
+		BinarySearchTreeImpl<T> pivot = getRightBST();
+		swapNodeData(pivot);
+		setRightBST(pivot.getRightBST());
+		pivot.setRightBST(pivot.getLeftBST());
+		pivot.setLeftBST(getLeftBST());
+		setLeftBST(pivot);
+		if (getRightBST() != null) {
+			getRightBST().father = this;
+		}
+		if (pivot.getLeftBST() != null) {
+			pivot.getLeftBST().father = pivot;
+		}
+		pivot.update();
+		update();
+	}
+
+	/**
+	 * Intercambia elemento, count y etiquetas con otro nodo. Las
+	 * subclases lo amplian con sus propios datos de equilibrado.
+	 * 
+	 * @param other nodo con el que intercambiar
+	 */
+	protected void swapNodeData(BinarySearchTreeImpl<T> other) {
+		T c = content;
+		content = other.content;
+		other.content = c;
+		int n = count;
+		count = other.count;
+		other.count = n;
+		Map<String, Object> t = tags;
+		tags = other.tags;
+		other.tags = t;
+		//	El ordinal solo tiene sentido en su almacen, que tras un split o
+		//	un join puede no ser el del otro nodo
+		TagStore store = tagStore;
+		tagStore = other.tagStore;
+		other.tagStore = store;
+		int o = ordinal;
+		ordinal = other.ordinal;
+		other.ordinal = o;
+	}
+
 	
 	
 	/**
@@ -122,18 +422,16 @@ public class BinarySearchTreeImpl<T extends Comparable<? super T>> extends Abstr
 	 * 
 	 * No se permiten elementos null.
 	 * 
+	 * Si el arbol esta vacio y los elementos vienen ordenados (de menor a
+	 * mayor, con repetidos seguidos), se construye directamente un arbol
+	 * perfectamente equilibrado en O(n), con un nodo por elemento diferente.
+	 * Si no, se insertan uno a uno en el orden dado.
+	 * 
 	 * @param elements valores a insertar.
 	 * @return numero de elementos insertados en el arbol (elementos diferentes de null)
 	 */
 	public int insert(Collection<T> elements) {
-		int insertados = 0;
-		for(T element : elements) {
-			if(element != null) {
-				insert(element);
-				insertados++;
-			}
-		}
-		return insertados;
+		return insertAll(elements.toArray());
 	}
 
 	/**
@@ -147,10 +445,24 @@ public class BinarySearchTreeImpl<T extends Comparable<? super T>> extends Abstr
 	 */
 	@SuppressWarnings("unchecked")
 	public int insert(T... elements) {
+		return insertAll(elements);
+	}
+
+	@SuppressWarnings("unchecked")
+	private int insertAll(Object[] elements) {
+		if (isEmpty() && buildIfSorted(elements)) {
+			int insertados = 0;
+			for(Object element : elements) {
+				if(element != null) {
+					insertados++;
+				}
+			}
+			return insertados;
+		}
 		int insertados = 0;
-		for(T element : elements) {
+		for(Object element : elements) {
 			if(element != null) {
-				insert(element);
+				insert((T) element);
 				insertados++;
 			}
 		}
@@ -158,239 +470,2153 @@ public class BinarySearchTreeImpl<T extends Comparable<? super T>> extends Abstr
 	}
 
 	/**
-	 * Inserta (como hoja) un nuevo elemento en el arbol de busqueda.
-	 * 
-	 * Debe asignarse valor a su atributo father (referencia a su nodo padre o null
-	 * si es la rai­z)
+	 * Si los elementos (sin contar los null) estan ordenados, construye con
+	 * ellos este arbol, que tiene que estar vacio, agrupando los repetidos
+	 * en count.
 	 * 
-	 * No se permiten elementos null. Si element es null dispara excepcion:IllegalArgumentException 
-	 * Si el elemento ya existe en el arbol
-	 *  no inserta un nodo nuevo, sino que incrementa el atributo count del nodo que tiene igual contenido.
+	 * Primero se comprueba el orden y se cuentan los diferentes sin reservar
+	 * nada, para no crear los arrays cuando no estan ordenados.
 	 * 
-	 * @param element valor a insertar.
-	 * @return true si se insertó en un nuevo nodo (no existia ese elemento en el arbol),
-	 *         false en caso contrario
-	 * @throws IllegalArgumentException si element es null
+	 * @return false si no estaban ordenados (y el arbol sigue vacio)
 	 */
-	public boolean insert(T element) {
-		if(element == null) {
-			throw new IllegalArgumentException();
+	@SuppressWarnings("unchecked")
+	private boolean buildIfSorted(Object[] elements) {
+		int distinct = 0;
+		T previous = null;
+		for (Object e : elements) {
+			if (e == null) {
+				continue;
+			}
+			T element = (T) e;
+			if (previous != null) {
+				int comparison = element.compareTo(previous);
+				if (comparison < 0) {
+					return false;
+				}
+				if (comparison == 0) {
+					continue;
+				}
+			}
+			distinct++;
+			previous = element;
 		}
-		if(content == null) {
-			this.content = element;
-			this.count = 1;
-			setRightBST(new BinarySearchTreeImpl<>(this));
-			setLeftBST(new BinarySearchTreeImpl<>(this));
+		if (distinct == 0) {
 			return true;
 		}
-		int comparison = element.compareTo(this.content);
-		if(comparison == 0) {
-			this.count++;
-			return false;
-		} else if(comparison < 0) {
-			if(this.left == null) {
-				this.left = new BinarySearchTreeImpl<>(this);
+		Object[] keys = new Object[distinct];
+		int[] counts = new int[distinct];
+		int d = -1;
+		for (Object e : elements) {
+			if (e == null) {
+				continue;
 			}
-			return this.getLeftBST().insert(element);
-		} else {
-			if(this.right == null) {
-				this.right = new BinarySearchTreeImpl<>(this);
+			if (d >= 0 && ((T) e).compareTo((T) keys[d]) == 0) {
+				counts[d]++;
+			} else {
+				keys[++d] = e;
+				counts[d] = 1;
 			}
-			return this.getRightBST().insert(element);
 		}
+		build(this, keys, counts, 0, distinct - 1, 0, maxDepth(distinct));
+		updateUp(father);
+		return true;
 	}
 
 	/**
-	 * Busca el elemento en el arbol.
-	 * 
-	 * No se permiten elementos null.
-	 * 
-	 * @param element valor a buscar.
-	 * @return true si el elemento esta en el arbol, false en caso contrario
-	 * @throws IllegalArgumentException si element es null
-	 *
+	 * Profundidad de las hojas mas profundas de un arbol equilibrado de n
+	 * nodos construido con build.
 	 */
-	public boolean contains(T element) {
-		if(element == null) {
-			throw new IllegalArgumentException();
-		}
-		if(this.content == null) {
-			return false;
+	private static int maxDepth(int n) {
+		return 31 - Integer.numberOfLeadingZeros(n);
+	}
+
+	/**
+	 * Rellena node con el subarbol equilibrado de keys[lo..hi], tomando
+	 * como raiz el elemento central.
+	 */
+	@SuppressWarnings("unchecked")
+	private void build(BinarySearchTreeImpl<T> node, Object[] keys, int[] counts, int lo, int hi, int depth, int maxDepth) {
+		int mid = (lo + hi) >>> 1;
+		node.content = (T) keys[mid];
+		node.count = counts[mid];
+		if (lo < mid) {
+			BinarySearchTreeImpl<T> l = emptyBST(node);
+			node.setLeftBST(l);
+			build(l, keys, counts, lo, mid - 1, depth + 1, maxDepth);
 		}
-		int comparision = element.compareTo(this.content);
-		if(comparision == 0) {
-			return true;
-		} else if(comparision < 0 && this.left != null) {
-			return this.getLeftBST().contains(element);
-		} else if(comparision > 0 && this.right != null) {
-			return this.getRightBST().contains(element);
-		} else {
-			return false;
+		if (mid < hi) {
+			BinarySearchTreeImpl<T> r = emptyBST(node);
+			node.setRightBST(r);
+			build(r, keys, counts, mid + 1, hi, depth + 1, maxDepth);
 		}
+		node.update();
+		node.afterBuild(depth, maxDepth);
 	}
-	
+
 	/**
-	 *  devuelve la cadena formada por el contenido del árbol teniendo en cuenta que 
-	 *  si un nodo tiene su atributo count>1 pone entre paréntesis su valor justo detrás del atributo elem
-	 *  También debe mostrar las etiquetas que tenga el nodo (si las tiene)
-	 *  
-	 *  CONSEJO: REVISAR LA IMPLEMENTACIÓN DE TOSTRING DE LA CLASE AbstractTreeADT 
+	 * Inserta los elementos que no sean null de una coleccion grande y
+	 * desordenada usando todos los nucleos (ForkJoinPool comun).
 	 * 
-	 * Por ejemplo: {M, {E(2), ∅, ∅}, {K(5), ∅, ∅}}
+	 * Si el arbol esta vacio, los elementos se ordenan en paralelo, los
+	 * repetidos se agrupan en count y se construye un arbol equilibrado
+	 * repartiendo los dos hijos de cada nodo en tareas distintas. La forma
+	 * resultante es la misma que con {@link #insert(Collection)} sobre los
+	 * elementos ya ordenados, no la de insertarlos uno a uno.
 	 * 
-	 * @return cadena con el contenido del árbol incluyendo su atributo count entre paréntesis si elemento tiene más de 1 instancia
+	 * Si el arbol no esta vacio se comporta como {@link #insert(Collection)}.
+	 * 
+	 * @param elements valores a insertar.
+	 * @return numero de elementos insertados en el arbol (elementos diferentes de null)
 	 */
-	public String toString() {
-		if (! isEmpty()) {
-			//	Construye el resultado de forma eficiente
-			StringBuffer result = new StringBuffer();
-			//	Raíz
-			result.append("{" + content.toString());
-			if(this.count > 1) {
-				result.append("(" + this.count + ")");
-			}
-			if (! tags.isEmpty()) {
-				result.append(" [");
-				List<String> sk = new LinkedList<String>(tags.keySet());
-				Collections.sort(sk);
-				for (String k : sk) {
-					result.append("(" + k + ", " + tags.get(k) + "), ");
-				}
-				result.delete(result.length() - 2, result.length());
-				result.append("]");
-			}
-			//	Y cada sub-árbol
-			for (int i = 0; i < getMaxDegree(); i++) {
-				if (getSubtree(i) != null) {
-					result.append(", " + getSubtree(i).toString());
-				} else {
-					result.append(", ∅");
-				}
+	public int insertParallel(Collection<T> elements) {
+		if (!isEmpty()) {
+			return insert(elements);
+		}
+		Object[] all = elements.toArray();
+		int n = 0;
+		for (Object e : all) {
+			if (e != null) {
+				all[n++] = e;
 			}
-			//	Cierra la "}" de este árbol
-			result.append("}");
-			return result.toString();
-		} else {
-			return AbstractTreeADT.EMPTY_TREE_MARK;
 		}
+		if (n == 0) {
+			return 0;
+		}
+		@SuppressWarnings("unchecked")
+		T[] sorted = (T[]) new Comparable<?>[n];
+		System.arraycopy(all, 0, sorted, 0, n);
+		Arrays.parallelSort(sorted, Comparator.<T>naturalOrder());
+
+		//	Posicion en sorted donde empieza cada elemento diferente: se
+		//	marcan los cambios y se numeran con una suma prefija
+		int[] index = new int[n];
+		Arrays.parallelSetAll(index, i -> i == 0 || sorted[i - 1].compareTo(sorted[i]) != 0 ? 1 : 0);
+		Arrays.parallelPrefix(index, Integer::sum);
+		int distinct = index[n - 1];
+		int[] starts = new int[distinct + 1];
+		starts[distinct] = n;
+		IntStream.range(0, n).parallel().forEach(i -> {
+			if (i == 0 || index[i - 1] != index[i]) {
+				starts[index[i] - 1] = i;
+			}
+		});
+		Object[] keys = new Object[distinct];
+		int[] counts = new int[distinct];
+		Arrays.parallelSetAll(keys, d -> sorted[starts[d]]);
+		Arrays.parallelSetAll(counts, d -> starts[d + 1] - starts[d]);
+
+		new BuildTask(this, keys, counts, 0, distinct - 1, 0, maxDepth(distinct)).invoke();
+		updateUp(father);
+		return n;
 	}
 
+	/**
+	 * Lo mismo que build, pero construyendo los dos hijos en paralelo
+	 * mientras el subarbol sea grande.
+	 */
+	private final class BuildTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final BinarySearchTreeImpl<T> node;
+		private final Object[] keys;
+		private final int[] counts;
+		private final int lo, hi, depth, maxDepth;
+
+		BuildTask(BinarySearchTreeImpl<T> node, Object[] keys, int[] counts, int lo, int hi, int depth, int maxDepth) {
+			this.node = node;
+			this.keys = keys;
+			this.counts = counts;
+			this.lo = lo;
+			this.hi = hi;
+			this.depth = depth;
+			this.maxDepth = maxDepth;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		protected void compute() {
+			if (hi - lo < PARALLEL_THRESHOLD) {
+				build(node, keys, counts, lo, hi, depth, maxDepth);
+				return;
+			}
+			//	Con mas de PARALLEL_THRESHOLD nodos hay siempre dos hijos
+			int mid = (lo + hi) >>> 1;
+			node.content = (T) keys[mid];
+			node.count = counts[mid];
+			BinarySearchTreeImpl<T> l = emptyBST(node);
+			BinarySearchTreeImpl<T> r = emptyBST(node);
+			node.setLeftBST(l);
+			node.setRightBST(r);
+			invokeAll(new BuildTask(l, keys, counts, lo, mid - 1, depth + 1, maxDepth),
+					new BuildTask(r, keys, counts, mid + 1, hi, depth + 1, maxDepth));
+			node.update();
+			node.afterBuild(depth, maxDepth);
+		}
+	}
 
 	/**
-	 * Devuelve un iterador que recorre los elementos (sin tener en cuenta el número de instancias)del arbol por niveles segun
-	 * el recorrido en anchura
+	 * Inserta de una vez un lote de elementos (los null se ignoran) en un
+	 * arbol que ya puede tener muchos.
 	 * 
-	 * Por ejemplo, con el arbol
+	 * El lote se ordena y los repetidos se agrupan; despues se recorre el
+	 * arbol una sola vez repartiendo el lote entre los subarboles, en lugar
+	 * de bajar desde la raiz por cada elemento. Los elementos que ya estan
+	 * suman su count; los que caen en un hijo vacio se cuelgan alli como un
+	 * subarbol equilibrado.
 	 * 
-	 * {50, {30(2), {10, ∅, ∅}, {40, ∅, ∅}}, {80(2), {60, ∅, ∅}, ∅}}
+	 * En los arboles que se equilibran solos ({@link #isSelfBalancing()}) los
+	 * elementos nuevos se insertan despues uno a uno, ya ordenados.
 	 * 
-	 * y devolvera el iterador que recorrera los nodos en el orden: 50, 30, 80, 10, 40, 60
+	 * La forma resultante puede no ser la de insertarlos uno a uno.
 	 * 
+	 * @param elements valores a insertar.
+	 * @return numero de elementos insertados en el arbol (elementos diferentes de null)
+	 */
+	public int insertBatch(Collection<T> elements) {
+		return mergeBatch(elements.toArray());
+	}
+
+	/**
+	 * Lo mismo que {@link #insertBatch(Collection)} con un array.
 	 * 
+	 * @param elements elementos a insertar.
+	 * @return numero de elementos insertados en el arbol (elementos diferentes de null)
+	 */
+	@SuppressWarnings("unchecked")
+	public int insertBatch(T... elements) {
+		return mergeBatch(elements.clone());
+	}
+
+	/**
+	 * Ordena keys (que se puede modificar) y lo mezcla con el arbol.
+	 */
+	private int mergeBatch(Object[] keys) {
+		int[] counts = new int[keys.length];
+		int distinct = sortBatch(keys, counts);
+		if (distinct == 0) {
+			return 0;
+		}
+		int n = 0;
+		for (int i = 0; i < distinct; i++) {
+			n += counts[i];
+		}
+		if (isEmpty()) {
+			build(this, keys, counts, 0, distinct - 1, 0, maxDepth(distinct));
+			updateUp(father);
+		} else {
+			merge(keys, counts, distinct);
+		}
+		return n;
+	}
+
+	/**
+	 * Quita los null de keys, lo ordena y deja al principio los elementos
+	 * diferentes; si counts no es null, guarda en el cuantas veces estaba
+	 * cada uno.
 	 * 
-	 * @return iterador para el recorrido en anchura
+	 * @return numero de elementos diferentes
 	 */
-    public Iterator<T> iteratorWidth() {
-	 	List<T> elements = new LinkedList<>();
-		if (!isEmpty()) {
-			Queue<BinarySearchTreeImpl<T>> queue = new LinkedList<>();
-			queue.add(this);
-			while (!queue.isEmpty()) {
-				BinarySearchTreeImpl<T> current = queue.poll();
-				elements.add(current.getContent());
-				if (current.getLeftBST() != null) {
-					queue.add(current.getLeftBST());
+	@SuppressWarnings("unchecked")
+	private static <T extends Comparable<? super T>> int sortBatch(Object[] keys, int[] counts) {
+		int n = 0;
+		for (Object e : keys) {
+			if (e != null) {
+				keys[n++] = e;
+			}
+		}
+		Arrays.sort(keys, 0, n);
+		int distinct = 0;
+		for (int i = 0; i < n; i++) {
+			if (distinct > 0 && ((T) keys[i]).compareTo((T) keys[distinct - 1]) == 0) {
+				if (counts != null) {
+					counts[distinct - 1]++;
 				}
-				if (current.getRightBST() != null) {
-					queue.add(current.getRightBST());
+			} else {
+				keys[distinct] = keys[i];
+				if (counts != null) {
+					counts[distinct] = 1;
 				}
+				distinct++;
 			}
 		}
-		return elements.iterator();
+		return distinct;
 	}
 
 	/**
-	 * Devuelve un iterador que recorre los elementos (teniendo en cuenta el número de instancias)del arbol por niveles segun
-	 * el recorrido en anchura
-	 * 
-	 * Por ejemplo, con el arbol
-	 * 
-	 * {50, {30(2), {10, ∅, ∅}, {40, ∅, ∅}}, {80(2), {60, ∅, ∅}, ∅}}
-	 * 
-	 * y devolvera el iterador que recorrera los nodos en el orden: 50, 30, 30, 80, 80, 10, 40, 60
-	 *  
-	 * @return iterador para el recorrido en anchura
+	 * Trozo del lote, keys[lo..hi), que va al subarbol node.
 	 */
-     public Iterator<T> iteratorWidthInstances() {
-		List<T> elements = new LinkedList<>();
-		if (!isEmpty()) {
-			Queue<BinarySearchTreeImpl<T>> queue = new LinkedList<>();
-			queue.add(this);
-			while (!queue.isEmpty()) {
-				BinarySearchTreeImpl<T> current = queue.poll();
-				for (int i = 0; i < current.count; i++) {
-					elements.add(current.getContent());
+	private static final class MergeFrame<T extends Comparable<? super T>> {
+		final BinarySearchTreeImpl<T> node;
+		final int lo, hi;
+
+		MergeFrame(BinarySearchTreeImpl<T> node, int lo, int hi) {
+			this.node = node;
+			this.lo = lo;
+			this.hi = hi;
+		}
+	}
+
+	/**
+	 * Mezcla keys[0..distinct), ordenado y sin repetidos, con este arbol no
+	 * vacio. Se hace con una pila para no depender de la altura del arbol.
+	 */
+	@SuppressWarnings("unchecked")
+	private void merge(Object[] keys, int[] counts, int distinct) {
+		boolean attach = !isSelfBalancing();
+		int[] missing = attach ? null : new int[distinct];
+		int nMissing = 0;
+		//	Nodos visitados en preorden: al reves, los hijos van antes
+		List<BinarySearchTreeImpl<T>> touched = new ArrayList<BinarySearchTreeImpl<T>>();
+		Deque<MergeFrame<T>> stack = new ArrayDeque<MergeFrame<T>>();
+		stack.push(new MergeFrame<T>(this, 0, distinct));
+		while (!stack.isEmpty()) {
+			MergeFrame<T> f = stack.pop();
+			BinarySearchTreeImpl<T> node = f.node;
+			touched.add(node);
+			int p = lowerBound(keys, f.lo, f.hi, node.content);
+			int q = p;
+			if (p < f.hi && ((T) keys[p]).compareTo(node.content) == 0) {
+				node.count += counts[p];
+				q = p + 1;
+			}
+			if (f.lo < p) {
+				if (node.getLeftBST() != null) {
+					stack.push(new MergeFrame<T>(node.getLeftBST(), f.lo, p));
+				} else if (attach) {
+					node.setLeftBST(buildSubtree(node, keys, counts, f.lo, p));
+				} else {
+					for (int i = f.lo; i < p; i++) {
+						missing[nMissing++] = i;
+					}
 				}
-				if (current.getLeftBST() != null) {
-					queue.add(current.getLeftBST());
+			}
+			if (q < f.hi) {
+				if (node.getRightBST() != null) {
+					stack.push(new MergeFrame<T>(node.getRightBST(), q, f.hi));
+				} else if (attach) {
+					node.setRightBST(buildSubtree(node, keys, counts, q, f.hi));
+				} else {
+					for (int i = q; i < f.hi; i++) {
+						missing[nMissing++] = i;
+					}
+				}
+			}
+		}
+		for (int i = touched.size() - 1; i >= 0; i--) {
+			touched.get(i).update();
+		}
+		updateUp(father);
+
+		for (int i = 0; i < nMissing; i++) {
+			T element = (T) keys[missing[i]];
+			insert(element);
+			int more = counts[missing[i]] - 1;
+			if (more > 0) {
+				BinarySearchTreeImpl<T> node = find(element);
+				node.count += more;
+				addInstances(node, more);
+			}
+		}
+	}
+
+	/**
+	 * Primera posicion de keys[lo..hi) con un elemento mayor o igual que x.
+	 */
+	@SuppressWarnings("unchecked")
+	private int lowerBound(Object[] keys, int lo, int hi, T x) {
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (((T) keys[mid]).compareTo(x) < 0) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * Subarbol equilibrado, hijo de father, con keys[lo..hi).
+	 */
+	private BinarySearchTreeImpl<T> buildSubtree(BinarySearchTreeImpl<T> father, Object[] keys, int[] counts, int lo, int hi) {
+		BinarySearchTreeImpl<T> subtree = emptyBST(father);
+		build(subtree, keys, counts, lo, hi - 1, 0, maxDepth(hi - lo));
+		return subtree;
+	}
+
+	/**
+	 * Union de multiconjuntos: cada elemento aparece tantas veces como en el
+	 * arbol que mas veces lo tenga.
+	 * 
+	 * Ninguno de los dos arboles se modifica. El resultado es un arbol nuevo
+	 * del mismo tipo que este, equilibrado y sin etiquetas. Con m y n
+	 * elementos diferentes, m &lt;= n, cuesta O(m log(n/m + 1)) comparaciones
+	 * (ver combine).
+	 * 
+	 * @param other el otro arbol
+	 * @return arbol nuevo con la union
+	 */
+	public BinarySearchTreeImpl<T> union(BinarySearchTreeImpl<T> other) {
+		return combine(other, Math::max, true, true);
+	}
+
+	/**
+	 * Interseccion de multiconjuntos: cada elemento aparece tantas veces como
+	 * en el arbol que menos veces lo tenga (si no esta en los dos, no
+	 * aparece). Ver {@link #union(BinarySearchTreeImpl)}.
+	 * 
+	 * @param other el otro arbol
+	 * @return arbol nuevo con la interseccion
+	 */
+	public BinarySearchTreeImpl<T> intersection(BinarySearchTreeImpl<T> other) {
+		return combine(other, Math::min, false, false);
+	}
+
+	/**
+	 * Diferencia de multiconjuntos: a las instancias de cada elemento en este
+	 * arbol se restan las que tenga en other (si quedan 0 o menos, no
+	 * aparece). Ver {@link #union(BinarySearchTreeImpl)}.
+	 * 
+	 * @param other el otro arbol
+	 * @return arbol nuevo con la diferencia
+	 */
+	public BinarySearchTreeImpl<T> difference(BinarySearchTreeImpl<T> other) {
+		return combine(other, (a, b) -> Math.max(0, a - b), true, false);
+	}
+
+	/**
+	 * Suma de multiconjuntos: cada elemento aparece tantas veces como en los
+	 * dos arboles juntos. Ver {@link #union(BinarySearchTreeImpl)}.
+	 * 
+	 * Como count es un int, si la suma pasa de Integer.MAX_VALUE el elemento
+	 * se queda con Integer.MAX_VALUE instancias (no se lanza excepcion).
+	 * 
+	 * @param other el otro arbol
+	 * @return arbol nuevo con la suma
+	 */
+	public BinarySearchTreeImpl<T> sumCounts(BinarySearchTreeImpl<T> other) {
+		return combine(other, (a, b) -> (int) Math.min((long) a + b, Integer.MAX_VALUE), true, true);
+	}
+
+	/**
+	 * Combina los dos arboles elemento a elemento; op recibe los count de
+	 * cada arbol (0 si no esta) y da el del resultado.
+	 * 
+	 * Solo se recorre entero el menor (m elementos diferentes), que se pasa
+	 * a una secuencia ordenada; el mayor (n) no se modifica ni se copia
+	 * entero. Se parte la secuencia por su elemento central, se busca ese
+	 * elemento en el mayor y se combinan por separado, en paralelo, los
+	 * elementos menores y los mayores (ver {@link Combination}). Los
+	 * resultados se unen con {@link #link}, que en los arboles equilibrados
+	 * cuesta la diferencia de alturas. En total son O(m log(n/m + 1))
+	 * comparaciones, mas un nodo nuevo por elemento del resultado.
+	 * 
+	 * Un BST normal no se equilibra al unir, asi que al final se
+	 * reconstruye equilibrado.
+	 * 
+	 * @param keepsThis si op(a, 0) == a (los que solo estan en este siguen)
+	 * @param keepsOther si op(0, b) == b (los que solo estan en other siguen)
+	 */
+	private BinarySearchTreeImpl<T> combine(BinarySearchTreeImpl<T> other, IntBinaryOperator op, boolean keepsThis, boolean keepsOther) {
+		if (other == null) {
+			throw new IllegalArgumentException("other tree is null");
+		}
+		boolean thisSmall = size() <= other.size();
+		BinarySearchTreeImpl<T> small = thisSmall ? this : other;
+		BinarySearchTreeImpl<T> big = thisSmall ? other : this;
+		Combination combination = new Combination(small.runs(), op, thisSmall,
+				thisSmall ? keepsThis : keepsOther, thisSmall ? keepsOther : keepsThis);
+		BinarySearchTreeImpl<T> root = new CombineTask(combination, 0, combination.small.n, big.isEmpty() ? null : big).invoke();
+		BinarySearchTreeImpl<T> result = emptyBST(null);
+		result.attachRoot(root, null);
+		if (!isSelfBalancing()) {
+			result.rebuildBalanced();
+		}
+		return result;
+	}
+
+	private static int combined(int bigCount, int smallCount, boolean thisSmall, IntBinaryOperator op) {
+		return thisSmall ? op.applyAsInt(smallCount, bigCount) : op.applyAsInt(bigCount, smallCount);
+	}
+
+	/**
+	 * Datos de una combinacion (ver combine). Los elementos small[from..to)
+	 * se combinan con los del mayor entre small[from-1] y small[to], que
+	 * estan todos en el subarbol del primer nodo del mayor que cae en ese
+	 * intervalo: se baja a el y se busca desde alli. Los huecos entre
+	 * elementos del menor se copian del mayor si sus elementos siguen en
+	 * el resultado.
+	 */
+	private final class Combination {
+		final Runs small;
+		final IntBinaryOperator op;
+		final boolean thisSmall;
+		final boolean keepsSmall;
+		final boolean keepsBig;
+
+		Combination(Runs small, IntBinaryOperator op, boolean thisSmall, boolean keepsSmall, boolean keepsBig) {
+			this.small = small;
+			this.op = op;
+			this.thisSmall = thisSmall;
+			this.keepsSmall = keepsSmall;
+			this.keepsBig = keepsBig;
+		}
+
+		@SuppressWarnings("unchecked")
+		private T key(int i) {
+			return (T) small.keys[i];
+		}
+
+		/**
+		 * @param big primer nodo del mayor en el intervalo de
+		 *        small[from..to), o null si no tiene ninguno
+		 * @return raiz suelta del resultado, o null si esta vacio
+		 */
+		BinarySearchTreeImpl<T> combine(int from, int to, BinarySearchTreeImpl<T> big) {
+			T lo = from == 0 ? null : key(from - 1);
+			T hi = to == small.n ? null : key(to);
+			if (from == to) {
+				return keepsBig ? copyRange(big, lo, hi) : null;
+			}
+			if (big == null && !keepsSmall) {
+				return null;
+			}
+			int mid = (from + to) >>> 1;
+			T key = key(mid);
+			BinarySearchTreeImpl<T> match = big == null ? null : big.find(key);
+			int count = combined(match == null ? 0 : match.count, small.counts[mid], thisSmall, op);
+			BinarySearchTreeImpl<T> bigLess = region(big, lo, key);
+			BinarySearchTreeImpl<T> bigGreater = region(big, key, hi);
+			BinarySearchTreeImpl<T> l;
+			BinarySearchTreeImpl<T> r;
+			if (to - from > 1 && (to - from) + sizeOf(big) >= PARALLEL_THRESHOLD) {
+				CombineTask left = new CombineTask(this, from, mid, bigLess);
+				CombineTask right = new CombineTask(this, mid + 1, to, bigGreater);
+				ForkJoinTask.invokeAll(left, right);
+				l = left.join();
+				r = right.join();
+			} else {
+				l = combine(from, mid, bigLess);
+				r = combine(mid + 1, to, bigGreater);
+			}
+			if (count == 0) {
+				return concat(l, r);
+			}
+			return link(l, newNode(key, count), r);
+		}
+	}
+
+	/**
+	 * Combination.combine de un trozo, para repartir los dos lados de cada
+	 * elemento central en tareas distintas.
+	 */
+	private final class CombineTask extends RecursiveTask<BinarySearchTreeImpl<T>> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Combination combination;
+		private final int from, to;
+		private final BinarySearchTreeImpl<T> big;
+
+		CombineTask(Combination combination, int from, int to, BinarySearchTreeImpl<T> big) {
+			this.combination = combination;
+			this.from = from;
+			this.to = to;
+			this.big = big;
+		}
+
+		@Override
+		protected BinarySearchTreeImpl<T> compute() {
+			return combination.combine(from, to, big);
+		}
+	}
+
+	/**
+	 * Primer nodo, bajando desde node, cuyo elemento esta en (lo, hi); su
+	 * subarbol tiene todos los del intervalo. Un limite null no limita.
+	 */
+	private static <T extends Comparable<? super T>> BinarySearchTreeImpl<T> region(BinarySearchTreeImpl<T> node, T lo, T hi) {
+		while (node != null) {
+			if (lo != null && node.content.compareTo(lo) <= 0) {
+				node = node.getRightBST();
+			} else if (hi != null && node.content.compareTo(hi) >= 0) {
+				node = node.getLeftBST();
+			} else {
+				break;
+			}
+		}
+		return node;
+	}
+
+	/**
+	 * Copia suelta, del tipo de este arbol, de los elementos en (lo, hi)
+	 * del subarbol de node, que es su primer nodo en el intervalo (ver
+	 * region). Los subarboles que caen enteros en el intervalo se copian
+	 * equilibrados y se unen con link a los nodos de los dos caminos que
+	 * marcan los limites.
+	 */
+	private BinarySearchTreeImpl<T> copyRange(BinarySearchTreeImpl<T> node, T lo, T hi) {
+		if (node == null) {
+			return null;
+		}
+		//	Nodos de los caminos hacia lo y hacia hi que estan en el intervalo
+		List<BinarySearchTreeImpl<T>> above = new ArrayList<BinarySearchTreeImpl<T>>();
+		for (BinarySearchTreeImpl<T> n = node.getLeftBST(); n != null; ) {
+			if (lo != null && n.content.compareTo(lo) <= 0) {
+				n = n.getRightBST();
+			} else {
+				above.add(n);
+				n = lo == null ? null : n.getLeftBST();
+			}
+		}
+		List<BinarySearchTreeImpl<T>> below = new ArrayList<BinarySearchTreeImpl<T>>();
+		for (BinarySearchTreeImpl<T> n = node.getRightBST(); n != null; ) {
+			if (hi != null && n.content.compareTo(hi) >= 0) {
+				n = n.getLeftBST();
+			} else {
+				below.add(n);
+				n = hi == null ? null : n.getRightBST();
+			}
+		}
+		BinarySearchTreeImpl<T> l = null;
+		for (int i = above.size() - 1; i >= 0; i--) {
+			BinarySearchTreeImpl<T> n = above.get(i);
+			//	Sin limite, el primero es la raiz del hijo izquierdo entero
+			l = lo == null ? copyAll(n) : link(l, newNode(n.content, n.count), copyAll(n.getRightBST()));
+		}
+		BinarySearchTreeImpl<T> r = null;
+		for (int i = below.size() - 1; i >= 0; i--) {
+			BinarySearchTreeImpl<T> n = below.get(i);
+			r = hi == null ? copyAll(n) : link(copyAll(n.getLeftBST()), newNode(n.content, n.count), r);
+		}
+		return link(l, newNode(node.content, node.count), r);
+	}
+
+	/**
+	 * Copia suelta y equilibrada, del tipo de este arbol, del subarbol de
+	 * node, sin etiquetas.
+	 */
+	private BinarySearchTreeImpl<T> copyAll(BinarySearchTreeImpl<T> node) {
+		if (node == null) {
+			return null;
+		}
+		Runs runs = node.runs();
+		BinarySearchTreeImpl<T> copy = emptyBST(null);
+		new BuildTask(copy, runs.keys, runs.counts, 0, runs.n - 1, 0, maxDepth(runs.n)).invoke();
+		return copy;
+	}
+
+	private BinarySearchTreeImpl<T> newNode(T content, int count) {
+		BinarySearchTreeImpl<T> node = emptyBST(null);
+		node.content = content;
+		node.count = count;
+		return node;
+	}
+
+	/**
+	 * Une dos arboles sueltos sin nodo central: el mayor de less se separa
+	 * con cut y hace de nodo central de link.
+	 */
+	private BinarySearchTreeImpl<T> concat(BinarySearchTreeImpl<T> less, BinarySearchTreeImpl<T> greater) {
+		if (less == null) {
+			return greater;
+		}
+		if (greater == null) {
+			return less;
+		}
+		BinarySearchTreeImpl<T> max = less;
+		while (max.getRightBST() != null) {
+			max = max.getRightBST();
+		}
+		Cut<T> cut = cut(less, max.content, true);
+		return link(cut.less, cut.greater, greater);
+	}
+
+	/**
+	 * Elementos diferentes de un arbol, en orden, con sus count.
+	 */
+	private static final class Runs {
+		final Object[] keys;
+		final int[] counts;
+		final int n;
+		//	Etiquetas de cada elemento (null si no se han guardado): su
+		//	mapa, su almacen y su ordinal en el
+		final Object[] tags;
+		final TagStore[] stores;
+		final int[] ordinals;
+
+		Runs(Object[] keys, int[] counts, int n) {
+			this(keys, counts, n, null, null, null);
+		}
+
+		Runs(Object[] keys, int[] counts, int n, Object[] tags, TagStore[] stores, int[] ordinals) {
+			this.keys = keys;
+			this.counts = counts;
+			this.n = n;
+			this.tags = tags;
+			this.stores = stores;
+			this.ordinals = ordinals;
+		}
+
+		/**
+		 * Devuelve las etiquetas guardadas a los nodos del arbol root,
+		 * que tiene en orden los elementos desde from.
+		 */
+		@SuppressWarnings("unchecked")
+		void restoreTags(BinarySearchTreeImpl<?> root, int from) {
+			int i = from;
+			Deque<BinarySearchTreeImpl<?>> stack = new ArrayDeque<BinarySearchTreeImpl<?>>();
+			BinarySearchTreeImpl<?> node = root;
+			while (node != null || !stack.isEmpty()) {
+				while (node != null) {
+					stack.push(node);
+					node = node.getLeftBST();
+				}
+				node = stack.pop();
+				node.tags = (Map<String, Object>) tags[i];
+				node.tagStore = stores[i];
+				node.ordinal = ordinals[i++];
+				node = node.getRightBST();
+			}
+		}
+	}
+
+	private Runs runs() {
+		return runs(false);
+	}
+
+	/**
+	 * @param withTags si se guardan tambien las etiquetas de cada nodo
+	 */
+	private Runs runs(boolean withTags) {
+		Object[] keys = new Object[size()];
+		int[] counts = new int[keys.length];
+		Object[] tags = withTags ? new Object[keys.length] : null;
+		TagStore[] stores = withTags ? new TagStore[keys.length] : null;
+		int[] ordinals = withTags ? new int[keys.length] : null;
+		int n = 0;
+		Deque<BinarySearchTreeImpl<T>> stack = new ArrayDeque<BinarySearchTreeImpl<T>>();
+		BinarySearchTreeImpl<T> node = isEmpty() ? null : this;
+		while (node != null || !stack.isEmpty()) {
+			while (node != null) {
+				stack.push(node);
+				node = node.getLeftBST();
+			}
+			node = stack.pop();
+			if (withTags) {
+				tags[n] = node.tags;
+				stores[n] = node.tagStore;
+				ordinals[n] = node.ordinal;
+			}
+			keys[n] = node.content;
+			counts[n++] = node.count;
+			node = node.getRightBST();
+		}
+		return new Runs(keys, counts, n, tags, stores, ordinals);
+	}
+
+	/**
+	 * Parte el arbol por key: los elementos mayores o iguales que key se
+	 * quitan de este arbol y se devuelven en un arbol nuevo del mismo tipo;
+	 * en este quedan los menores. Se conservan count y padres.
+	 * 
+	 * No se copia ningun nodo: los nodos del camino de busqueda de key se
+	 * reparten entre los dos arboles (ver {@link #link}), y cada uno
+	 * conserva sus etiquetas. Es O(altura) en un BST normal y O(log n) en
+	 * los que se equilibran solos.
+	 * 
+	 * Por ejemplo, en {50, {30(2), {10, ∅, ∅}, {40, ∅, ∅}}, {80, ∅, ∅}}
+	 * split(40) deja {30(2), {10, ∅, ∅}, ∅} y devuelve {50, {40, ∅, ∅}, {80, ∅, ∅}}.
+	 * 
+	 * @param key clave por la que se parte
+	 * @return arbol con los elementos mayores o iguales que key
+	 * @throws IllegalArgumentException si key es null
+	 * @throws UnsupportedOperationException si este arbol es subarbol de otro
+	 */
+	public BinarySearchTreeImpl<T> split(T key) {
+		if (key == null) {
+			throw new IllegalArgumentException();
+		}
+		checkWholeTree(this);
+		return split(key, true);
+	}
+
+	/**
+	 * @param inclusive si key va al arbol devuelto o se queda en este
+	 */
+	private BinarySearchTreeImpl<T> split(T key, boolean inclusive) {
+		BinarySearchTreeImpl<T> result = emptyBST(null);
+		result.tagStore = tagStore;
+		if (tagStore != null) {
+			//	Los nodos que pasan a result siguen en el almacen de este
+			tagStore.shared = true;
+		}
+		if (isEmpty()) {
+			return result;
+		}
+		TagStore store = tagStore;
+		Cut<T> cut = cut(detachRoot(), key, inclusive);
+		attachRoot(cut.less, store);
+		result.attachRoot(cut.greater, store);
+		return result;
+	}
+
+	/**
+	 * Las dos partes de un arbol partido, como raices sueltas (sin padre),
+	 * null si estan vacias.
+	 */
+	private static final class Cut<T extends Comparable<? super T>> {
+		BinarySearchTreeImpl<T> less;
+		BinarySearchTreeImpl<T> greater;
+	}
+
+	/**
+	 * Parte el subarbol suelto root por key. Se baja por el camino de
+	 * busqueda de key y, de abajo arriba, cada nodo del camino se une con
+	 * link a su subarbol del otro lado y a lo que ya llevaba su parte. En
+	 * los arboles equilibrados cada link cuesta la diferencia de alturas,
+	 * y esas diferencias se compensan a lo largo del camino: O(log n) en
+	 * total.
+	 * 
+	 * @param inclusive si los iguales a key van a greater
+	 */
+	private Cut<T> cut(BinarySearchTreeImpl<T> root, T key, boolean inclusive) {
+		List<BinarySearchTreeImpl<T>> path = new ArrayList<BinarySearchTreeImpl<T>>();
+		BitSet toLess = new BitSet();
+		for (BinarySearchTreeImpl<T> node = root; node != null; ) {
+			int comparison = node.content.compareTo(key);
+			boolean less = comparison < 0 || (comparison == 0 && !inclusive);
+			toLess.set(path.size(), less);
+			path.add(node);
+			node = less ? node.getRightBST() : node.getLeftBST();
+		}
+		Cut<T> cut = new Cut<T>();
+		for (int i = path.size() - 1; i >= 0; i--) {
+			BinarySearchTreeImpl<T> node = path.get(i);
+			BinarySearchTreeImpl<T> l = node.getLeftBST();
+			BinarySearchTreeImpl<T> r = node.getRightBST();
+			node.father = null;
+			node.setLeftBST(null);
+			node.setRightBST(null);
+			//	El hijo por el que se bajo ya esta repartido
+			if (toLess.get(i)) {
+				if (l != null) {
+					l.father = null;
+				}
+				cut.less = link(l, node, cut.less);
+			} else {
+				if (r != null) {
+					r.father = null;
+				}
+				cut.greater = link(cut.greater, node, r);
+			}
+		}
+		return cut;
+	}
+
+	/**
+	 * Une los subarboles sueltos (sin padre) less y greater con el nodo
+	 * suelto y sin hijos mid, cuyo elemento es mayor que los de less y
+	 * menor que los de greater. Se usa para partir y unir arboles sin
+	 * copiar nodos.
+	 * 
+	 * En un BST normal mid queda como raiz, con less y greater como hijos.
+	 * Las variantes equilibradas lo redefinen para colgar mid y el menor de
+	 * los dos en el borde del mayor, y arreglar solo ese camino.
+	 * 
+	 * @param less subarbol con los menores, o null
+	 * @param mid nodo central
+	 * @param greater subarbol con los mayores, o null
+	 * @return raiz del resultado, sin padre
+	 */
+	protected BinarySearchTreeImpl<T> link(BinarySearchTreeImpl<T> less, BinarySearchTreeImpl<T> mid, BinarySearchTreeImpl<T> greater) {
+		mid.setLeftBST(less);
+		mid.setRightBST(greater);
+		if (less != null) {
+			less.father = mid;
+		}
+		if (greater != null) {
+			greater.father = mid;
+		}
+		mid.update();
+		return mid;
+	}
+
+	/**
+	 * Pasa la raiz a un nodo nuevo y deja este objeto vacio, para poder
+	 * reorganizar los nodos sin que el objeto del usuario acabe por debajo
+	 * de otro (ver {@link #attachRoot}).
+	 * 
+	 * @return la raiz suelta, o null si el arbol esta vacio
+	 */
+	private BinarySearchTreeImpl<T> detachRoot() {
+		if (isEmpty()) {
+			return null;
+		}
+		BinarySearchTreeImpl<T> root = emptyBST(null);
+		root.moveFrom(this);
+		root.update();
+		return root;
+	}
+
+	/**
+	 * Hace de este objeto, vacio, la raiz del arbol suelto root.
+	 * 
+	 * @param store almacen de etiquetas del arbol si queda vacio
+	 */
+	private void attachRoot(BinarySearchTreeImpl<T> root, TagStore store) {
+		if (root == null) {
+			content = null;
+			count = 0;
+			left = null;
+			right = null;
+			tags = null;
+			ordinal = -1;
+			tagStore = store;
+		} else {
+			moveFrom(root);
+		}
+		update();
+	}
+
+	/**
+	 * Une dos arboles: todos los elementos de right, que tienen que ser
+	 * mayores que los de left, pasan a left, y right queda vacio. Se
+	 * conservan count y padres.
+	 * 
+	 * En un BST normal right se cuelga entero a la derecha del mayor de
+	 * left, O(altura de left). En los arboles que se equilibran solos se
+	 * separa el mayor de left y se usa como nodo central de
+	 * {@link #link}, O(log n + log m). No se copia ningun nodo y cada
+	 * elemento conserva sus etiquetas.
+	 * 
+	 * @param left arbol con los menores, que recibe el resultado
+	 * @param right arbol con los mayores
+	 * @return left
+	 * @throws IllegalArgumentException si alguno es null o si algun
+	 *         elemento de left no es menor que todos los de right
+	 * @throws UnsupportedOperationException si alguno es subarbol de otro
+	 */
+	public static <T extends Comparable<? super T>> BinarySearchTreeImpl<T> join(BinarySearchTreeImpl<T> left, BinarySearchTreeImpl<T> right) {
+		if (left == null || right == null || left == right) {
+			throw new IllegalArgumentException();
+		}
+		checkWholeTree(left);
+		checkWholeTree(right);
+		if (right.isEmpty()) {
+			return left;
+		}
+		if (left.isEmpty()) {
+			left.moveFrom(right);
+			left.update();
+			right.update();
+			return left;
+		}
+		BinarySearchTreeImpl<T> max = left;
+		while (max.getRightBST() != null) {
+			max = max.getRightBST();
+		}
+		if (max.content.compareTo(right.mM().content) >= 0) {
+			throw new IllegalArgumentException("left and right overlap");
+		}
+		//	Los nodos de right se quedan en su almacen
+		share(left.tagStore);
+		share(right.tagStore);
+		if (left.isSelfBalancing()) {
+			TagStore leftStore = left.tagStore;
+			TagStore rightStore = right.tagStore;
+			T maxKey = max.content;
+			Cut<T> cut = left.cut(left.detachRoot(), maxKey, true);
+			//	cut.greater es el nodo del mayor, sin hijos
+			BinarySearchTreeImpl<T> joined = left.link(cut.less, cut.greater, right.detachRoot());
+			left.attachRoot(joined, leftStore);
+			right.attachRoot(null, rightStore);
+			return left;
+		}
+		BinarySearchTreeImpl<T> node = left.emptyBST(max);
+		node.moveFrom(right);
+		max.setRightBST(node);
+		node.update();
+		updateUp(max);
+		right.update();
+		return left;
+	}
+
+	/**
+	 * Quita del arbol todas las instancias de los elementos en [lo, hi].
+	 * 
+	 * Se hace partiendo el arbol por lo y por hi y uniendo los extremos
+	 * (ver {@link #split(Comparable)}), sin eliminar los elementos uno a uno:
+	 * O(altura) en un BST normal y O(log n) en los que se equilibran solos.
+	 * 
+	 * @param lo limite inferior (incluido)
+	 * @param hi limite superior (incluido)
+	 * @return numero de instancias eliminadas, 0 si lo > hi
+	 * @throws IllegalArgumentException si lo o hi son null
+	 * @throws UnsupportedOperationException si este arbol es subarbol de otro
+	 */
+	public long removeRange(T lo, T hi) {
+		return extractRange(lo, hi).instances;
+	}
+
+	/**
+	 * Quita del arbol los elementos en [lo, hi] y los devuelve, con sus
+	 * count, en un arbol nuevo del mismo tipo. Ver
+	 * {@link #removeRange(Comparable, Comparable)}.
+	 * 
+	 * @param lo limite inferior (incluido)
+	 * @param hi limite superior (incluido)
+	 * @return arbol con los elementos del rango (vacio si lo > hi)
+	 * @throws IllegalArgumentException si lo o hi son null
+	 * @throws UnsupportedOperationException si este arbol es subarbol de otro
+	 */
+	public BinarySearchTreeImpl<T> extractRange(T lo, T hi) {
+		if (lo == null || hi == null) {
+			throw new IllegalArgumentException();
+		}
+		checkWholeTree(this);
+		if (lo.compareTo(hi) > 0) {
+			return emptyBST(null);
+		}
+		BinarySearchTreeImpl<T> range = split(lo, true);
+		BinarySearchTreeImpl<T> greater = range.split(hi, false);
+		join(this, greater);
+		return range;
+	}
+
+	private static void share(TagStore store) {
+		if (store != null) {
+			store.shared = true;
+		}
+	}
+
+	private static void checkWholeTree(BinarySearchTreeImpl<?> tree) {
+		if (tree == EMPTY) {
+			throw new UnsupportedOperationException("empty subtree is immutable");
+		}
+		if (tree.father != null) {
+			throw new UnsupportedOperationException("not a whole tree");
+		}
+	}
+
+	/**
+	 * Pasa a este nodo el contenido, etiquetas e hijos de node, que queda
+	 * vacio y sin hijos. No actualiza los contadores.
+	 */
+	private void moveFrom(BinarySearchTreeImpl<T> node) {
+		swapNodeData(node);
+		left = node.left;
+		right = node.right;
+		if (getLeftBST() != null) {
+			getLeftBST().father = this;
+		}
+		if (getRightBST() != null) {
+			getRightBST().father = this;
+		}
+		node.content = null;
+		node.count = 0;
+		node.left = null;
+		node.right = null;
+	}
+
+	/**
+	 * Sustituye este arbol por uno equilibrado con los elementos
+	 * runs[from..to). Si runs trae etiquetas, cada elemento conserva las
+	 * suyas (y su ordinal, que no se libera).
+	 */
+	private void rebuild(Runs runs, int from, int to) {
+		content = null;
+		count = 0;
+		left = null;
+		right = null;
+		tags = null;
+		ordinal = -1;
+		if (from < to) {
+			build(this, runs.keys, runs.counts, from, to - 1, 0, maxDepth(to - from));
+			if (runs.stores != null) {
+				runs.restoreTags(this, from);
+			}
+		} else {
+			update();
+		}
+	}
+
+	/**
+	 * Reconstruye el arbol entero equilibrado (con afterBuild en cada
+	 * nodo), conservando count y etiquetas. Es para arboles cuya forma no
+	 * sale de sus propias inserciones, como los recien cargados.
+	 */
+	void rebuildBalanced() {
+		checkWholeTree(this);
+		if (!isEmpty()) {
+			rebuild(runs(true), 0, size());
+		}
+	}
+
+	/**
+	 * Cierto si el arbol reorganiza sus nodos tras cada insercion o
+	 * eliminacion para seguir equilibrado; entonces no se le pueden colgar
+	 * subarboles ya construidos sin mas. En un BST normal es falso.
+	 * 
+	 * @return si el arbol se equilibra solo
+	 */
+	protected boolean isSelfBalancing() {
+		return false;
+	}
+
+	/**
+	 * Se invoca en cada nodo de un arbol construido ya equilibrado (ver
+	 * {@link #insert(Collection)}), despues de sus hijos; puede hacerse
+	 * desde varios hilos a la vez en nodos distintos. Todas las hojas
+	 * estan a profundidad maxDepth o maxDepth-1. En un BST sin equilibrar
+	 * no hace nada.
+	 * 
+	 * @param depth profundidad del nodo
+	 * @param maxDepth profundidad de las hojas mas profundas
+	 */
+	protected void afterBuild(int depth, int maxDepth) {
+	}
+
+	/**
+	 * Inserta (como hoja) un nuevo elemento en el arbol de busqueda.
+	 * 
+	 * Debe asignarse valor a su atributo father (referencia a su nodo padre o null
+	 * si es la rai­z)
+	 * 
+	 * No se permiten elementos null. Si element es null dispara excepcion:IllegalArgumentException 
+	 * Si el elemento ya existe en el arbol
+	 *  no inserta un nodo nuevo, sino que incrementa el atributo count del nodo que tiene igual contenido.
+	 * 
+	 * @param element valor a insertar.
+	 * @return true si se insertó en un nuevo nodo (no existia ese elemento en el arbol),
+	 *         false en caso contrario
+	 * @throws IllegalArgumentException si element es null
+	 */
+	public boolean insert(T element) {
+		if(element == null) {
+			throw new IllegalArgumentException();
+		}
+		if(isEmpty()) {
+			this.content = element;
+			this.count = 1;
+			updateUp(this);
+			afterInsert(this);
+			return true;
+		}
+		//	Una sola bajada, con un compareTo por nivel
+		BinarySearchTreeImpl<T> node = this;
+		while(true) {
+			int comparison = element.compareTo(node.content);
+			if(comparison == 0) {
+				node.count++;
+				addInstances(node, 1);
+				return false;
+			}
+			BinarySearchTreeImpl<T> next = comparison < 0 ? node.getLeftBST() : node.getRightBST();
+			if(next == null) {
+				next = emptyBST(node);
+				next.content = element;
+				next.count = 1;
+				if(comparison < 0) {
+					node.setLeftBST(next);
+				} else {
+					node.setRightBST(next);
+				}
+				addLeaf(next);
+				afterInsert(next);
+				return true;
+			}
+			node = next;
+		}
+	}
+
+	/**
+	 * Busca el nodo (no vacio) que contiene el elemento, bajando desde
+	 * este nodo sin recursividad.
+	 * 
+	 * @param element valor a buscar, no null
+	 * @return el nodo que lo contiene o null si no esta
+	 */
+	protected BinarySearchTreeImpl<T> find(T element) {
+		BinarySearchTreeImpl<T> node = this;
+		while(node != null && !node.isEmpty()) {
+			int comparison = element.compareTo(node.content);
+			if(comparison == 0) {
+				return node;
+			}
+			node = comparison < 0 ? node.getLeftBST() : node.getRightBST();
+		}
+		return null;
+	}
+
+	/**
+	 * Busca el elemento en el arbol.
+	 * 
+	 * No se permiten elementos null.
+	 * 
+	 * @param element valor a buscar.
+	 * @return true si el elemento esta en el arbol, false en caso contrario
+	 * @throws IllegalArgumentException si element es null
+	 *
+	 */
+	public boolean contains(T element) {
+		if(element == null) {
+			throw new IllegalArgumentException();
+		}
+		return find(element) != null;
+	}
+	
+	/**
+	 *  devuelve la cadena formada por el contenido del árbol teniendo en cuenta que 
+	 *  si un nodo tiene su atributo count>1 pone entre paréntesis su valor justo detrás del atributo elem
+	 *  También debe mostrar las etiquetas que tenga el nodo (si las tiene)
+	 *  
+	 *  CONSEJO: REVISAR LA IMPLEMENTACIÓN DE TOSTRING DE LA CLASE AbstractTreeADT 
+	 * 
+	 * Por ejemplo: {M, {E(2), ∅, ∅}, {K(5), ∅, ∅}}
+	 * 
+	 * @return cadena con el contenido del árbol incluyendo su atributo count entre paréntesis si elemento tiene más de 1 instancia
+	 */
+	public String toString() {
+		return super.toString();
+	}
+
+	/**
+	 * Reconstruye un arbol a partir del texto que produce
+	 * {@link #toString()}, por ejemplo
+	 * 
+	 * {50, {30(2) [(descend, 2)], {10, ∅, ∅}, ∅}, ∅}
+	 * 
+	 * con la misma forma, los mismos count, las etiquetas y los padres. No
+	 * se compara ningun elemento: se lee el texto una vez, O(n), y solo se
+	 * guarda el camino desde la raiz hasta el nodo que se esta leyendo.
+	 * 
+	 * Cada contenido se convierte con parser. Las etiquetas cuyo valor es un
+	 * entero se restauran como Integer y el resto como String.
+	 * 
+	 * El texto no escapa nada, asi que la vuelta no es exacta en dos casos:
+	 * un contenido cuyo toString() contiene una coma no se puede leer
+	 * ("a,b" da IllegalArgumentException), y una etiqueta String que parece
+	 * un entero ("12") vuelve como Integer. Para esos arboles hay que usar
+	 * {@link #save(Path, KeyCodec, boolean)}.
+	 * 
+	 * @param in texto del arbol
+	 * @param parser convierte el texto de cada contenido en un elemento
+	 * @return arbol nuevo
+	 * @throws IOException si falla la lectura
+	 * @throws IllegalArgumentException si el texto no tiene el formato de
+	 *         toString(), o in o parser son null
+	 */
+	public static <T extends Comparable<? super T>> BinarySearchTreeImpl<T> parse(Reader in, Function<String, T> parser) throws IOException {
+		if (in == null || parser == null) {
+			throw new IllegalArgumentException();
+		}
+		return new TreeParser<T>(in, parser).parse();
+	}
+
+	/**
+	 * Guarda el arbol en un fichero binario compacto: la forma como 2 bits
+	 * por nodo, cada elemento con codec, count en varint y, si withTags,
+	 * las etiquetas (enteras o como cadena). Se escribe por un FileChannel
+	 * con buffers directos grandes, en un solo recorrido.
+	 * 
+	 * Se vuelve a cargar con {@link #load(Path, KeyCodec)} o, en un arbol
+	 * de otro tipo, con {@link #load(Path, KeyCodec, Supplier)}.
+	 * 
+	 * @param file fichero (se sobrescribe)
+	 * @param codec forma de escribir los elementos, por ejemplo {@link KeyCodec#INTEGER}
+	 * @param withTags si se guardan tambien las etiquetas
+	 * @throws IOException si falla la escritura
+	 */
+	public void save(Path file, KeyCodec<T> codec, boolean withTags) throws IOException {
+		if (file == null || codec == null) {
+			throw new IllegalArgumentException();
+		}
+		TreeSnapshot.save(this, file, codec, withTags);
+	}
+
+	/**
+	 * Carga un arbol guardado con {@link #save(Path, KeyCodec, boolean)},
+	 * con la misma forma, count, etiquetas y padres, sin comparar
+	 * elementos: O(n).
+	 * 
+	 * @param file fichero
+	 * @param codec el mismo con el que se guardo
+	 * @return arbol nuevo
+	 * @throws IOException si falla la lectura o el fichero no es valido
+	 */
+	public static <T extends Comparable<? super T>> BinarySearchTreeImpl<T> load(Path file, KeyCodec<T> codec) throws IOException {
+		return load(file, codec, BinarySearchTreeImpl<T>::new);
+	}
+
+	/**
+	 * Como {@link #load(Path, KeyCodec)}, pero en el arbol vacio que da
+	 * factory, por ejemplo AVLTreeImpl::new, con todos los nodos de su
+	 * tipo. Si el arbol se equilibra solo ({@link #isSelfBalancing()}), la
+	 * forma guardada no se conserva: despues de leerlo se reconstruye
+	 * equilibrado, O(n), con sus count y etiquetas.
+	 * 
+	 * @param file fichero
+	 * @param codec el mismo con el que se guardo
+	 * @param factory da el arbol vacio en el que se carga
+	 * @return el arbol de factory, ya cargado
+	 * @throws IOException si falla la lectura o el fichero no es valido
+	 * @throws IllegalArgumentException si algun parametro es null o el arbol
+	 *         de factory no esta vacio o es subarbol de otro
+	 */
+	public static <T extends Comparable<? super T>, B extends BinarySearchTreeImpl<T>> B load(Path file, KeyCodec<T> codec, Supplier<B> factory) throws IOException {
+		if (file == null || codec == null || factory == null) {
+			throw new IllegalArgumentException();
+		}
+		return TreeSnapshot.load(file, codec, factory);
+	}
+
+	/**
+	 * Lector del formato de toString() con un caracter de anticipacion.
+	 */
+	private static final class TreeParser<T extends Comparable<? super T>> {
+
+		private final Reader in;
+		private final Function<String, T> parser;
+		private final StringBuilder text = new StringBuilder();
+		private int next; // siguiente caracter sin consumir (-1 al final)
+		private long position;
+
+		TreeParser(Reader in, Function<String, T> parser) throws IOException {
+			this.in = in instanceof BufferedReader ? in : new BufferedReader(in);
+			this.parser = parser;
+			this.next = this.in.read();
+		}
+
+		private int read() throws IOException {
+			int c = next;
+			next = in.read();
+			position++;
+			return c;
+		}
+
+		private void expect(char c) throws IOException {
+			if (read() != c) {
+				throw error("'" + c + "' expected");
+			}
+		}
+
+		private IllegalArgumentException error(String message) {
+			return new IllegalArgumentException(message + " at position " + position);
+		}
+
+		BinarySearchTreeImpl<T> parse() throws IOException {
+			BinarySearchTreeImpl<T> root = readSubtree(null);
+			//	Nodos abiertos y cuantos hijos se han leido de cada uno
+			Deque<BinarySearchTreeImpl<T>> open = new ArrayDeque<BinarySearchTreeImpl<T>>();
+			Deque<Integer> children = new ArrayDeque<Integer>();
+			if (root == null) {
+				root = new BinarySearchTreeImpl<T>();
+			} else {
+				open.push(root);
+				children.push(0);
+			}
+			while (!open.isEmpty()) {
+				BinarySearchTreeImpl<T> node = open.peek();
+				int read = children.pop();
+				if (read == 2) {
+					expect('}');
+					node.update();
+					open.pop();
+					continue;
+				}
+				children.push(read + 1);
+				expect(',');
+				expect(' ');
+				BinarySearchTreeImpl<T> child = readSubtree(node);
+				if (child != null) {
+					if (read == 0) {
+						node.setLeftBST(child);
+					} else {
+						node.setRightBST(child);
+					}
+					open.push(child);
+					children.push(0);
+				}
+			}
+			while (next == '\n' || next == '\r' || next == ' ') {
+				read();
+			}
+			if (next != -1) {
+				throw error("end of input expected");
+			}
+			return root;
+		}
+
+		/**
+		 * Lee "∅" o el principio de un arbol no vacio, "{contenido(count)
+		 * [etiquetas]".
+		 * 
+		 * @return nodo nuevo, hijo de father, o null si era vacio
+		 */
+		private BinarySearchTreeImpl<T> readSubtree(BinarySearchTreeImpl<T> father) throws IOException {
+			int c = read();
+			if (c == EMPTY_TREE_MARK.charAt(0)) {
+				return null;
+			}
+			if (c != '{') {
+				throw error("'{' or '" + EMPTY_TREE_MARK + "' expected");
+			}
+			BinarySearchTreeImpl<T> node = new BinarySearchTreeImpl<T>(father);
+			text.setLength(0);
+			boolean tags = false;
+			while (next != ',') {
+				c = read();
+				if (c == -1) {
+					throw error("unexpected end of input");
+				}
+				if (c == ' ' && next == '[') {
+					read();
+					tags = true;
+					break;
+				}
+				text.append((char) c);
+			}
+			node.count = 1;
+			int end = text.length();
+			if (end > 0 && text.charAt(end - 1) == ')') {
+				int open = text.lastIndexOf("(");
+				if (open > 0 && end - open - 2 <= 9 && isInteger(text, open + 1, end - 1)) {
+					node.count = Integer.parseInt(text.substring(open + 1, end - 1));
+					text.setLength(open);
+				}
+			}
+			node.content = parser.apply(text.toString());
+			if (node.content == null) {
+				throw error("null content");
+			}
+			if (tags) {
+				readTags(node);
+			}
+			return node;
+		}
+
+		/**
+		 * Lee "(k, v), (k, v)]" ya pasado el "[".
+		 */
+		private void readTags(BinarySearchTreeImpl<T> node) throws IOException {
+			do {
+				expect('(');
+				text.setLength(0);
+				while (next != ',') {
+					if (next == -1) {
+						throw error("unexpected end of input");
+					}
+					text.append((char) read());
+				}
+				String key = text.toString();
+				expect(',');
+				expect(' ');
+				text.setLength(0);
+				//	El valor acaba en el ')' seguido de ", (" o de "]"
+				while (true) {
+					int c = read();
+					if (c == -1) {
+						throw error("unexpected end of input");
+					}
+					if (c == ')' && (next == ']' || next == ',')) {
+						break;
+					}
+					text.append((char) c);
+				}
+				String value = text.toString();
+				Object tag = value;
+				if (isInteger(text, 0, text.length())) {
+					long v = Long.parseLong(value);
+					if (v >= Integer.MIN_VALUE && v <= Integer.MAX_VALUE) {
+						tag = (int) v;
+					}
+				}
+				node.setTag(key, tag);
+				if (next == ',') {
+					expect(',');
+					expect(' ');
+				} else {
+					expect(']');
+					return;
+				}
+			} while (true);
+		}
+
+		private static boolean isInteger(CharSequence s, int from, int to) {
+			if (from < to && s.charAt(from) == '-') {
+				from++;
+			}
+			if (from >= to || to - from > 18) {
+				return false;
+			}
+			for (int i = from; i < to; i++) {
+				if (s.charAt(i) < '0' || s.charAt(i) > '9') {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Como en {@link AbstractTreeADT}, pero con count entre parentesis
+	 * detras del contenido si es mayor que 1.
+	 */
+	@Override
+	protected void writeNode(Appendable out) throws IOException {
+		out.append(content.toString());
+		if(this.count > 1) {
+			out.append('(').append(Integer.toString(this.count)).append(')');
+		}
+		writeTags(out);
+	}
+
+
+	/**
+	 * Devuelve un iterador que recorre los elementos (sin tener en cuenta el número de instancias)del arbol por niveles segun
+	 * el recorrido en anchura
+	 * 
+	 * Por ejemplo, con el arbol
+	 * 
+	 * {50, {30(2), {10, ∅, ∅}, {40, ∅, ∅}}, {80(2), {60, ∅, ∅}, ∅}}
+	 * 
+	 * y devolvera el iterador que recorrera los nodos en el orden: 50, 30, 80, 10, 40, 60
+	 * 
+	 * 
+	 * 
+	 * @return iterador para el recorrido en anchura
+	 */
+    public Iterator<T> iteratorWidth() {
+		return new WidthIterator(false);
+	}
+
+	/**
+	 * Devuelve un iterador que recorre los elementos (teniendo en cuenta el número de instancias)del arbol por niveles segun
+	 * el recorrido en anchura
+	 * 
+	 * Por ejemplo, con el arbol
+	 * 
+	 * {50, {30(2), {10, ∅, ∅}, {40, ∅, ∅}}, {80(2), {60, ∅, ∅}, ∅}}
+	 * 
+	 * y devolvera el iterador que recorrera los nodos en el orden: 50, 30, 30, 80, 80, 10, 40, 60
+	 *  
+	 * @return iterador para el recorrido en anchura
+	 */
+     public Iterator<T> iteratorWidthInstances() {
+		return new WidthIterator(true);
+	 }
+
+	/**
+	 * Recorrido en anchura perezoso: la cola solo tiene los nodos del
+	 * frente del recorrido, y cada elemento se devuelve count veces (si
+	 * instances) sin copiarlo.
+	 * 
+	 * Si el arbol cambia mientras se recorre, next() lanza
+	 * ConcurrentModificationException.
+	 */
+	private final class WidthIterator implements Iterator<T> {
+
+		private final Deque<BinarySearchTreeImpl<T>> queue = new ArrayDeque<BinarySearchTreeImpl<T>>();
+		private final boolean instances;
+		private final int expectedModCount = modCount;
+		private BinarySearchTreeImpl<T> current;
+		private int repeat; // veces que falta devolver current
+
+		WidthIterator(boolean instances) {
+			this.instances = instances;
+			if (!isEmpty()) {
+				queue.add(BinarySearchTreeImpl.this);
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return repeat > 0 || !queue.isEmpty();
+		}
+
+		@Override
+		public T next() {
+			if (modCount != expectedModCount) {
+				throw new ConcurrentModificationException();
+			}
+			if (repeat == 0) {
+				if (queue.isEmpty()) {
+					throw new NoSuchElementException();
+				}
+				current = queue.poll();
+				if (current.getLeftBST() != null) {
+					queue.add(current.getLeftBST());
 				}
 				if (current.getRightBST() != null) {
 					queue.add(current.getRightBST());
 				}
+				repeat = instances ? current.count : 1;
+			}
+			repeat--;
+			return current.content;
+		}
+	}
+	
+		
+	/**
+	 * Devuelve un iterador que recorre los elementos diferentes del arbol
+	 * en inorden, es decir, en orden creciente.
+	 * 
+	 * Con el arbol {50, {30(2), {10, ∅, ∅}, {40, ∅, ∅}}, {80(2), {60, ∅, ∅}, ∅}}
+	 * recorre 10, 30, 40, 50, 60, 80.
+	 * 
+	 * Es perezoso: guarda solo el camino desde la raiz (O(altura)).
+	 * 
+	 * @return iterador para el recorrido en inorden
+	 */
+	public Iterator<T> iteratorInorder() {
+		return new InorderIterator();
+	}
+
+	/**
+	 * Devuelve un iterador que recorre los elementos diferentes del arbol
+	 * en preorden (raiz, izquierdo, derecho).
+	 * 
+	 * Con el arbol {50, {30(2), {10, ∅, ∅}, {40, ∅, ∅}}, {80(2), {60, ∅, ∅}, ∅}}
+	 * recorre 50, 30, 10, 40, 80, 60.
+	 * 
+	 * @return iterador para el recorrido en preorden
+	 */
+	public Iterator<T> iteratorPreorder() {
+		return new PreorderIterator();
+	}
+
+	/**
+	 * Devuelve un iterador que recorre los elementos diferentes del arbol
+	 * en postorden (izquierdo, derecho, raiz).
+	 * 
+	 * Con el arbol {50, {30(2), {10, ∅, ∅}, {40, ∅, ∅}}, {80(2), {60, ∅, ∅}, ∅}}
+	 * recorre 10, 40, 30, 60, 80, 50.
+	 * 
+	 * @return iterador para el recorrido en postorden
+	 */
+	public Iterator<T> iteratorPostorder() {
+		return new PostorderIterator();
+	}
+
+	/**
+	 * Base de los recorridos en profundidad: una pila con parte del camino
+	 * y comprobacion de modificaciones concurrentes.
+	 */
+	private abstract class DepthIterator implements Iterator<T> {
+
+		protected final Deque<BinarySearchTreeImpl<T>> stack = new ArrayDeque<BinarySearchTreeImpl<T>>();
+		private final int expectedModCount = modCount;
+
+		@Override
+		public boolean hasNext() {
+			return !stack.isEmpty();
+		}
+
+		@Override
+		public T next() {
+			if (modCount != expectedModCount) {
+				throw new ConcurrentModificationException();
+			}
+			if (stack.isEmpty()) {
+				throw new NoSuchElementException();
+			}
+			return advance().content;
+		}
+
+		/**
+		 * Saca el siguiente nodo de la pila y deja la pila lista para el
+		 * que le sigue.
+		 */
+		protected abstract BinarySearchTreeImpl<T> advance();
+	}
+
+	private final class InorderIterator extends DepthIterator {
+
+		InorderIterator() {
+			pushLeft(isEmpty() ? null : BinarySearchTreeImpl.this);
+		}
+
+		private void pushLeft(BinarySearchTreeImpl<T> node) {
+			for (; node != null; node = node.getLeftBST()) {
+				stack.push(node);
+			}
+		}
+
+		@Override
+		protected BinarySearchTreeImpl<T> advance() {
+			BinarySearchTreeImpl<T> node = stack.pop();
+			pushLeft(node.getRightBST());
+			return node;
+		}
+	}
+
+	private final class PreorderIterator extends DepthIterator {
+
+		PreorderIterator() {
+			if (!isEmpty()) {
+				stack.push(BinarySearchTreeImpl.this);
+			}
+		}
+
+		@Override
+		protected BinarySearchTreeImpl<T> advance() {
+			BinarySearchTreeImpl<T> node = stack.pop();
+			if (node.getRightBST() != null) {
+				stack.push(node.getRightBST());
+			}
+			if (node.getLeftBST() != null) {
+				stack.push(node.getLeftBST());
+			}
+			return node;
+		}
+	}
+
+	private final class PostorderIterator extends DepthIterator {
+
+		PostorderIterator() {
+			pushFirstLeaf(isEmpty() ? null : BinarySearchTreeImpl.this);
+		}
+
+		//	Apila el camino hasta la primera hoja en postorden
+		private void pushFirstLeaf(BinarySearchTreeImpl<T> node) {
+			while (node != null) {
+				stack.push(node);
+				node = node.getLeftBST() != null ? node.getLeftBST() : node.getRightBST();
+			}
+		}
+
+		@Override
+		protected BinarySearchTreeImpl<T> advance() {
+			BinarySearchTreeImpl<T> node = stack.pop();
+			if (!stack.isEmpty()) {
+				BinarySearchTreeImpl<T> parent = stack.peek();
+				if (node == parent.getLeftBST()) {
+					pushFirstLeaf(parent.getRightBST());
+				}
+			}
+			return node;
+		}
+	}
+
+	/**
+	 * Devuelve un Spliterator sobre los elementos diferentes del arbol en
+	 * orden creciente.
+	 * 
+	 * Se divide por subarboles (el izquierdo de un nodo por un lado y el
+	 * nodo con su derecho por otro) y conoce el tamano exacto de cada parte
+	 * gracias al numero de nodos guardado en cada subarbol, asi que es
+	 * SIZED y SUBSIZED ademas de ORDERED, SORTED, DISTINCT y NONNULL.
+	 * 
+	 * @return Spliterator del arbol
+	 */
+	public Spliterator<T> spliterator() {
+		return new TreeSpliterator(isEmpty() ? null : this, true, true, modCount);
+	}
+
+	/**
+	 * Devuelve un Stream secuencial con los elementos diferentes del arbol,
+	 * en orden creciente.
+	 * 
+	 * @return Stream del arbol
+	 */
+	public Stream<T> stream() {
+		return StreamSupport.stream(spliterator(), false);
+	}
+
+	/**
+	 * Devuelve un Stream paralelo con los elementos diferentes del arbol,
+	 * en orden creciente. Se reparte por subarboles (ver
+	 * {@link #spliterator()}).
+	 * 
+	 * @return Stream paralelo del arbol
+	 */
+	public Stream<T> parallelStream() {
+		return StreamSupport.stream(spliterator(), true);
+	}
+
+	/**
+	 * Recorre en inorden el nodo node, su subarbol izquierdo si withLeft y
+	 * su subarbol derecho si withRight.
+	 */
+	private final class TreeSpliterator implements Spliterator<T> {
+
+		private BinarySearchTreeImpl<T> node;
+		private boolean withLeft;
+		private boolean withRight;
+		private final int expectedModCount;
+		private Deque<BinarySearchTreeImpl<T>> stack; // null hasta empezar
+
+		TreeSpliterator(BinarySearchTreeImpl<T> node, boolean withLeft, boolean withRight, int expectedModCount) {
+			this.node = node;
+			this.withLeft = withLeft;
+			this.withRight = withRight;
+			this.expectedModCount = expectedModCount;
+		}
+
+		@Override
+		public Spliterator<T> trySplit() {
+			if (stack != null || node == null) {
+				return null;
+			}
+			if (withLeft && node.getLeftBST() != null) {
+				//	Primero el subarbol izquierdo; queda el nodo y su derecho
+				Spliterator<T> prefix = new TreeSpliterator(node.getLeftBST(), true, true, expectedModCount);
+				withLeft = false;
+				return prefix;
+			}
+			if (withRight && node.getRightBST() != null) {
+				//	Primero el nodo solo; queda su subarbol derecho entero
+				Spliterator<T> prefix = new TreeSpliterator(node, false, false, expectedModCount);
+				node = node.getRightBST();
+				withLeft = true;
+				return prefix;
+			}
+			return null;
+		}
+
+		private void start() {
+			stack = new ArrayDeque<BinarySearchTreeImpl<T>>();
+			if (node == null) {
+				return;
+			}
+			if (withLeft) {
+				pushLeft(node);
+			} else {
+				stack.push(node);
+			}
+		}
+
+		private void pushLeft(BinarySearchTreeImpl<T> n) {
+			for (; n != null; n = n.getLeftBST()) {
+				stack.push(n);
+			}
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super T> action) {
+			if (action == null) {
+				throw new NullPointerException();
+			}
+			if (modCount != expectedModCount) {
+				throw new ConcurrentModificationException();
+			}
+			if (stack == null) {
+				start();
+			}
+			if (stack.isEmpty()) {
+				return false;
+			}
+			BinarySearchTreeImpl<T> current = stack.pop();
+			if (current != node || withRight) {
+				pushLeft(current.getRightBST());
+			}
+			action.accept(current.content);
+			return true;
+		}
+
+		@Override
+		public long estimateSize() {
+			if (stack != null) {
+				//	Ya empezado: cada nodo de la pila con su subarbol derecho
+				long remaining = 0;
+				for (BinarySearchTreeImpl<T> n : stack) {
+					remaining += 1 + ((n != node || withRight) ? sizeOf(n.getRightBST()) : 0);
+				}
+				return remaining;
+			}
+			if (node == null) {
+				return 0;
+			}
+			return 1 + (withLeft ? sizeOf(node.getLeftBST()) : 0) + (withRight ? sizeOf(node.getRightBST()) : 0);
+		}
+
+		@Override
+		public int characteristics() {
+			return ORDERED | SORTED | DISTINCT | SIZED | SUBSIZED | NONNULL;
+		}
+
+		@Override
+		public Comparator<? super T> getComparator() {
+			//	Orden natural
+			return null;
+		}
+	}
+
+	/**
+	 * Cuenta el número de elementos diferentes del arbol (no tiene en cuenta las instancias)
+	 * 
+	 * Por ejemplo, con el arbol
+	 * 
+	 * {50, {30(2), {10, ∅, ∅}, {40(4), ∅, ∅}}, {80(2), {60, ∅, ∅}, ∅}}
+	 * 
+	 * la llamada a ejemplo.instancesCount() devolvera 6
+	 * 
+	 * @return el numero de elementos diferentes del arbol 
+	 */
+    public int size() {
+		return size;
+	}
+	
+    /**
+	 * Cuenta el número de instancias de elementos diferentes del arbol 
+	 * 
+	 * Por ejemplo, con el arbol ejemplo=
+	 * 
+	 * {50, {30(2), {10, ∅, ∅}, {40(4), ∅, ∅}}, {80(2), {60, ∅, ∅}, ∅}}
+	 * 
+	 * la llamada a ejemplo.instancesCount() devolvera 11
+	 * 
+	 * El total se lleva como long; si pasa de Integer.MAX_VALUE se devuelve
+	 * Integer.MAX_VALUE (ver {@link #totalInstances()}).
+	 * 
+	 * @return el número de instancias de elementos del arbol 
+	 */
+	public int instancesCount() {
+		return (int) Math.min(instances, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Como {@link #instancesCount()}, sin limite: cada nodo puede tener
+	 * hasta Integer.MAX_VALUE instancias y el total no cabe en un int.
+	 * 
+	 * @return el número de instancias de elementos del arbol
+	 */
+	public long totalInstances() {
+		return instances;
+	}
+
+	/**
+	 * Devuelve la instancia k-esima (empezando en 0) en orden creciente,
+	 * contando cada elemento tantas veces como indique su count.
+	 * 
+	 * Por ejemplo, con el arbol
+	 * 
+	 * {50, {30(2), {10, ∅, ∅}, {40(4), ∅, ∅}}, {80(2), {60, ∅, ∅}, ∅}}
+	 * 
+	 * select(0) devuelve 10, select(2) devuelve 30 y select(3) devuelve 40.
+	 * 
+	 * Usa los contadores de cada subarbol, asi que baja una sola vez por el
+	 * arbol: O(altura).
+	 * 
+	 * @param k posicion de la instancia, entre 0 e instancesCount()-1
+	 * @return el elemento de esa instancia
+	 * @throws NoSuchElementException si k no esta en ese rango
+	 */
+	public T select(long k) {
+		if (k < 0 || k >= instances) {
+			throw new NoSuchElementException();
+		}
+		BinarySearchTreeImpl<T> node = this;
+		while (true) {
+			long leftInstances = instancesOf(node.getLeftBST());
+			if (k < leftInstances) {
+				node = node.getLeftBST();
+			} else if (k < leftInstances + node.count) {
+				return node.content;
+			} else {
+				k -= leftInstances + node.count;
+				node = node.getRightBST();
+			}
+		}
+	}
+
+	/**
+	 * Devuelve el elemento k-esimo (empezando en 0) en orden creciente, sin
+	 * tener en cuenta las instancias.
+	 * 
+	 * Con el arbol del ejemplo de {@link #select(long)}, selectDistinct(2)
+	 * devuelve 40.
+	 * 
+	 * @param k posicion del elemento, entre 0 y size()-1
+	 * @return el elemento en esa posicion
+	 * @throws NoSuchElementException si k no esta en ese rango
+	 */
+	public T selectDistinct(int k) {
+		if (k < 0 || k >= size) {
+			throw new NoSuchElementException();
+		}
+		BinarySearchTreeImpl<T> node = this;
+		while (true) {
+			int leftSize = sizeOf(node.getLeftBST());
+			if (k < leftSize) {
+				node = node.getLeftBST();
+			} else if (k == leftSize) {
+				return node.content;
+			} else {
+				k -= leftSize + 1;
+				node = node.getRightBST();
+			}
+		}
+	}
+
+	/**
+	 * Cuenta las instancias estrictamente menores que el elemento, que no
+	 * tiene por que estar en el arbol. Es la posicion que tendria su primera
+	 * instancia en {@link #select(long)}.
+	 * 
+	 * Con el arbol del ejemplo de {@link #select(long)}, rank(40) devuelve 3
+	 * y rank(45) devuelve 7.
+	 * 
+	 * @param element elemento a buscar
+	 * @return numero de instancias menores que element
+	 * @throws IllegalArgumentException si element es null
+	 */
+	public long rank(T element) {
+		if (element == null) {
+			throw new IllegalArgumentException();
+		}
+		return countBelow(element, false, false);
+	}
+
+	/**
+	 * Cuenta, en una sola bajada, los elementos menores que x (o menores o
+	 * iguales si inclusive), como nodos si distinct o como instancias.
+	 */
+	private long countBelow(T x, boolean inclusive, boolean distinct) {
+		long below = 0;
+		BinarySearchTreeImpl<T> node = isEmpty() ? null : this;
+		while (node != null) {
+			int comparison = x.compareTo(node.content);
+			BinarySearchTreeImpl<T> l = node.getLeftBST();
+			long here = distinct ? sizeOf(l) : instancesOf(l);
+			if (comparison == 0) {
+				return below + here + (inclusive ? (distinct ? 1 : node.count) : 0);
+			}
+			if (comparison < 0) {
+				node = l;
+			} else {
+				below += here + (distinct ? 1 : node.count);
+				node = node.getRightBST();
 			}
 		}
-		return elements.iterator();
-	 }
-	
-		
+		return below;
+	}
+
 	/**
-	 * Cuenta el número de elementos diferentes del arbol (no tiene en cuenta las instancias)
+	 * Cuenta los elementos diferentes del arbol que estan en [lo, hi].
 	 * 
 	 * Por ejemplo, con el arbol
 	 * 
 	 * {50, {30(2), {10, ∅, ∅}, {40(4), ∅, ∅}}, {80(2), {60, ∅, ∅}, ∅}}
 	 * 
-	 * la llamada a ejemplo.instancesCount() devolvera 6
+	 * rangeCount(20, 60) devuelve 4 (30, 40, 50 y 60).
 	 * 
-	 * @return el numero de elementos diferentes del arbol 
+	 * No recorre el arbol: baja dos veces usando los contadores de cada
+	 * subarbol, O(altura).
+	 * 
+	 * @param lo limite inferior (incluido)
+	 * @param hi limite superior (incluido)
+	 * @return numero de elementos en el rango, 0 si lo > hi
+	 * @throws IllegalArgumentException si lo o hi son null
 	 */
-    public int size() {
-		return sizeRecursive(this);
-	}
-
-	private int sizeRecursive(BinarySearchTreeImpl<T> tree) {
-		if(tree == null || tree.isEmpty()) {
+	public int rangeCount(T lo, T hi) {
+		if (lo == null || hi == null) {
+			throw new IllegalArgumentException();
+		}
+		if (lo.compareTo(hi) > 0) {
 			return 0;
 		}
-		int count = 1;
-		int leftCount = sizeRecursive(tree.getLeftBST());
-		int rightCount = sizeRecursive(tree.getRightBST());
-		return count + leftCount + rightCount;
+		return (int) (countBelow(hi, true, true) - countBelow(lo, false, true));
 	}
-	
-    /**
-	 * Cuenta el número de instancias de elementos diferentes del arbol 
+
+	/**
+	 * Cuenta las instancias del arbol que estan en [lo, hi].
 	 * 
-	 * Por ejemplo, con el arbol ejemplo=
+	 * Con el arbol del ejemplo de {@link #rangeCount(Comparable, Comparable)},
+	 * rangeInstances(20, 60) devuelve 8.
 	 * 
-	 * {50, {30(2), {10, ∅, ∅}, {40(4), ∅, ∅}}, {80(2), {60, ∅, ∅}, ∅}}
+	 * @param lo limite inferior (incluido)
+	 * @param hi limite superior (incluido)
+	 * @return numero de instancias en el rango, 0 si lo > hi
+	 * @throws IllegalArgumentException si lo o hi son null
+	 */
+	public long rangeInstances(T lo, T hi) {
+		if (lo == null || hi == null) {
+			throw new IllegalArgumentException();
+		}
+		if (lo.compareTo(hi) > 0) {
+			return 0;
+		}
+		return countBelow(hi, true, false) - countBelow(lo, false, false);
+	}
+
+	/**
+	 * Devuelve un iterador que recorre en orden creciente los elementos
+	 * diferentes del arbol que estan en [lo, hi].
 	 * 
-	 * la llamada a ejemplo.instancesCount() devolvera 11
+	 * Es perezoso: solo guarda el camino hasta el siguiente elemento, asi
+	 * que cuesta O(altura + k) para k elementos recorridos y no visita los
+	 * subarboles que quedan fuera del rango.
 	 * 
-	 * @return el número de instancias de elementos del arbol 
+	 * @param lo limite inferior (incluido)
+	 * @param hi limite superior (incluido)
+	 * @return iterador sobre el rango
+	 * @throws IllegalArgumentException si lo o hi son null
 	 */
-	public int instancesCount() {
-		return instancesCountRecursive(this);
+	public Iterator<T> rangeIterator(final T lo, final T hi) {
+		if (lo == null || hi == null) {
+			throw new IllegalArgumentException();
+		}
+		final Deque<BinarySearchTreeImpl<T>> path = new ArrayDeque<BinarySearchTreeImpl<T>>();
+		//	Camino hasta el primer elemento >= lo
+		BinarySearchTreeImpl<T> node = isEmpty() ? null : this;
+		while (node != null) {
+			if (node.content.compareTo(lo) >= 0) {
+				path.push(node);
+				node = node.getLeftBST();
+			} else {
+				node = node.getRightBST();
+			}
+		}
+		return new Iterator<T>() {
+			private final int expectedModCount = modCount;
+
+			@Override
+			public boolean hasNext() {
+				return !path.isEmpty() && path.peek().content.compareTo(hi) <= 0;
+			}
+
+			@Override
+			public T next() {
+				if (modCount != expectedModCount) {
+					throw new ConcurrentModificationException();
+				}
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				BinarySearchTreeImpl<T> current = path.pop();
+				for (BinarySearchTreeImpl<T> n = current.getRightBST(); n != null; n = n.getLeftBST()) {
+					path.push(n);
+				}
+				return current.content;
+			}
+		};
 	}
 
-	private int instancesCountRecursive(BinarySearchTreeImpl<T> tree) {
-		if(tree == null || tree.isEmpty()) {
-			return 0;
+	/**
+	 * Devuelve el percentil p de las instancias del arbol, por el metodo
+	 * del rango mas cercano: la instancia en la posicion ceil(p/100·N)
+	 * (contando desde 1), o la primera si p es 0.
+	 * 
+	 * percentile(50) es la mediana y percentile(100) el maximo.
+	 * 
+	 * @param p percentil, entre 0 y 100
+	 * @return el elemento de ese percentil
+	 * @throws IllegalArgumentException si p no esta entre 0 y 100
+	 * @throws NoSuchElementException si el arbol es vacio
+	 */
+	public T percentile(double p) {
+		if (!(p >= 0 && p <= 100)) {
+			throw new IllegalArgumentException();
+		}
+		if (isEmpty()) {
+			throw new NoSuchElementException();
 		}
-		int count = tree.count;
-		int leftCount = instancesCountRecursive(tree.getLeftBST());
-		int rightCount = instancesCountRecursive(tree.getRightBST());
-		return count + leftCount + rightCount;
+		long k = (long) Math.ceil(p / 100 * instances) - 1;
+		return select(Math.max(k, 0));
 	}
 	
 
@@ -406,14 +2632,98 @@ public class BinarySearchTreeImpl<T extends Comparable<? super T>> extends Abstr
 	public int  remove(T... elements) {
 		int removed = 0;
 		for(T element : elements) {
-			if(element != null && contains(element)) {
-				remove(element, 1);
+			if(element != null && removeInstances(element, 1, false) > 0) {
 				removed++;
 			}
 		}
 		return removed;
 	}
 
+	/**
+	 * Elimina todas las instancias de los elementos de una coleccion (los
+	 * null y los que no estan en el arbol se ignoran).
+	 * 
+	 * Los elementos se ordenan y se buscan todos en un solo recorrido del
+	 * arbol, repartiendolos entre los subarboles; cada nodo a eliminar se
+	 * quita al volver de sus hijos, como en {@link #removeAll(Comparable)}. En
+	 * los arboles que se equilibran solos se eliminan uno a uno, ya
+	 * ordenados.
+	 * 
+	 * @param elements elementos a eliminar
+	 * @return numero de instancias eliminadas
+	 */
+	@SuppressWarnings("unchecked")
+	public int removeAll(Collection<T> elements) {
+		Object[] keys = elements.toArray();
+		int distinct = sortBatch(keys, null);
+		if (distinct == 0 || isEmpty()) {
+			return 0;
+		}
+		if (isSelfBalancing()) {
+			int removed = 0;
+			for (int i = 0; i < distinct; i++) {
+				removed += removeInstances((T) keys[i], Integer.MAX_VALUE, false);
+			}
+			return removed;
+		}
+		int removed = 0;
+		Deque<RemoveFrame<T>> stack = new ArrayDeque<RemoveFrame<T>>();
+		stack.push(new RemoveFrame<T>(this, 0, distinct));
+		while (!stack.isEmpty()) {
+			RemoveFrame<T> f = stack.peek();
+			BinarySearchTreeImpl<T> node = f.node;
+			if (!f.expanded) {
+				f.expanded = true;
+				int p = lowerBound(keys, f.lo, f.hi, node.content);
+				int q = p;
+				if (p < f.hi && ((T) keys[p]).compareTo(node.content) == 0) {
+					f.found = true;
+					q = p + 1;
+				}
+				if (f.lo < p && node.getLeftBST() != null) {
+					stack.push(new RemoveFrame<T>(node.getLeftBST(), f.lo, p));
+				}
+				if (q < f.hi && node.getRightBST() != null) {
+					stack.push(new RemoveFrame<T>(node.getRightBST(), q, f.hi));
+				}
+				continue;
+			}
+			stack.pop();
+			if (f.found) {
+				//	Los hijos ya estan terminados: quitar el nodo solo
+				//	cambia su subarbol (o el enlace desde su padre)
+				removed += node.count;
+				node.count = 0;
+				BinarySearchTreeImpl<T> changed = node.removeNode();
+				while (changed != node.father) {
+					changed.update();
+					changed = changed.father;
+				}
+			} else {
+				node.update();
+			}
+		}
+		updateUp(father);
+		return removed;
+	}
+
+	/**
+	 * Nodo pendiente en removeAll(Collection), con el trozo keys[lo..hi)
+	 * del lote que cae en su subarbol.
+	 */
+	private static final class RemoveFrame<T extends Comparable<? super T>> {
+		final BinarySearchTreeImpl<T> node;
+		final int lo, hi;
+		boolean expanded; // ya se han apilado sus hijos
+		boolean found;    // su elemento esta en el lote
+
+		RemoveFrame(BinarySearchTreeImpl<T> node, int lo, int hi) {
+			this.node = node;
+			this.lo = lo;
+			this.hi = hi;
+		}
+	}
+
 	/**
 	 * Elimina un elemento del arbol. Si el atributo count del nodo que contiene el elemento es >1, simplemente se decrementará este valor en una unidad
 	 * 
@@ -425,68 +2735,103 @@ public class BinarySearchTreeImpl<T extends Comparable<? super T>> extends Abstr
      *
 	 */
 	public void remove(T element) {
-		if(element == null) {
+		removeInstances(element, 1, true);
+	}
+
+	/**
+	 * Busca el elemento bajando una sola vez desde este nodo y le quita num
+	 * instancias; si no le quedan, elimina el nodo desde ahi (ver
+	 * {@link #removeNode()}). Todas las eliminaciones pasan por aqui.
+	 * 
+	 * @param mustExist si hay que lanzar excepcion cuando no esta
+	 * @return numero de instancias eliminadas (0 si no estaba)
+	 * @throws NoSuchElementException si no esta y mustExist
+	 * @throws IllegalArgumentException si element es null
+	 */
+	private int removeInstances(T element, int num, boolean mustExist) {
+		if (element == null) {
 			throw new IllegalArgumentException();
 		}
-		if(!contains(element)) {
-			throw new NoSuchElementException();
+		BinarySearchTreeImpl<T> node = find(element);
+		if (node == null) {
+			if (mustExist) {
+				throw new NoSuchElementException();
+			}
+			return 0;
 		}
-		if(isEmpty()) {
-			throw new NoSuchElementException();
+		num = Math.min(node.count, num);
+		if (num == node.count) {
+			node.count = 0;
+			removeAndUpdate(node);
+		} else {
+			node.count -= num;
+			addInstances(node, -num);
 		}
-		removeRec(element);
+		return num;
+	}
 
+	private void removeAndUpdate(BinarySearchTreeImpl<T> node) {
+		BinarySearchTreeImpl<T> changed = node.removeNode();
+		updateUp(changed);
+		afterRemove(changed);
 	}
 
-	private void removeRec(T element) {
-		if(!isEmpty()) {
-			if (content.compareTo(element) == 0) {
-				if (count > 1) {
-					count--;
-				} else {
-					if (isLeaf()) {
-						this.content = null;
-						this.count = 0;
-						this.right = null;
-						this.left = null;
-					} else if (getRightBST().isEmpty()) {
-						copySubtree(getLeftBST());
-					} else if (getLeftBST().isEmpty()) {
-						copySubtree(getRightBST());
-					} else {
-						BinarySearchTreeImpl<T> aux = getRightBST().mM();
-						this.content = aux.content;
-						this.count = aux.count;
-						getRightBST().removeAll(aux.content);
-						if (this.getRightBST() != null && !this.getRightBST().isEmpty()) {
-							this.getRightBST().father = this;
-						}
-						if (this.getLeftBST() != null && !this.getLeftBST().isEmpty()) {
-							this.getLeftBST().father = this;
-						}
-					}
-				}
-			} else if (content.compareTo(element) > 0) {
-				if (getLeftBST() != null && !getLeftBST().isEmpty()) {
-					getLeftBST().removeRec(element);
-				}
-			} else {
-				if (getRightBST() != null && !getRightBST().isEmpty()) {
-					getRightBST().removeRec(element);
-				}
+	/**
+	 * Elimina fisicamente este nodo del arbol, sin tener en cuenta count.
+	 * 
+	 * Si tiene dos hijos se sustituye por el menor de sus mayores y se
+	 * elimina el nodo de este.
+	 * 
+	 * @return nodo mas profundo cuya forma ha cambiado
+	 */
+	protected BinarySearchTreeImpl<T> removeNode() {
+		if (isLeaf()) {
+			if (father == null) {
+				this.content = null;
+				this.count = 0;
+				return this;
 			}
+			father.replaceChild(this, null);
+			releaseOrdinal();
+			return father;
+		} else if (getRightBST() == null) {
+			copySubtree(getLeftBST());
+			return this;
+		} else if (getLeftBST() == null) {
+			copySubtree(getRightBST());
+			return this;
+		} else {
+			BinarySearchTreeImpl<T> aux = getRightBST().mM();
+			this.content = aux.content;
+			this.count = aux.count;
+			return aux.removeNode();
 		}
 	}
 
-	private BinarySearchTreeImpl<T> mM() {
-		if (getLeftBST().isEmpty()) {
-			return this;
+	protected BinarySearchTreeImpl<T> mM() {
+		BinarySearchTreeImpl<T> node = this;
+		while (node.getLeftBST() != null) {
+			node = node.getLeftBST();
+		}
+		return node;
+	}
+
+	/**
+	 * Sustituye el hijo child de este nodo por replacement (que puede ser
+	 * null), enlazando tambien su padre.
+	 */
+	protected void replaceChild(BinarySearchTreeImpl<T> child, BinarySearchTreeImpl<T> replacement) {
+		if (getLeftBST() == child) {
+			setLeftBST(replacement);
 		} else {
-			return getLeftBST().mM();
+			setRightBST(replacement);
+		}
+		if (replacement != null) {
+			replacement.father = this;
 		}
 	}
 
-	private void copySubtree(BinarySearchTreeImpl<T> subtree) {
+	protected void copySubtree(BinarySearchTreeImpl<T> subtree) {
 		if (subtree == null) {
 			this.content = null;
 			this.count = 0;
@@ -497,12 +2842,14 @@ public class BinarySearchTreeImpl<T extends Comparable<? super T>> extends Abstr
 			this.count = subtree.count;
 			this.left = subtree.left;
 			this.right = subtree.right;
+			//	El nodo subtree deja de estar en el arbol
+			subtree.releaseOrdinal();
 		}
 	
-		if (getLeftBST()!=null && !getLeftBST().isEmpty()) {
+		if (getLeftBST()!=null) {
 			getLeftBST().father = this;
 		}
-		if (getRightBST()!=null && !getRightBST().isEmpty()) {
+		if (getRightBST()!=null) {
 			getRightBST().father = this;
 		}
 	}
@@ -519,42 +2866,15 @@ public class BinarySearchTreeImpl<T extends Comparable<? super T>> extends Abstr
 	 * elemento por el menor de sus mayores y eliminar el menor de los mayores.
 	 * 
 	 * @throws NoSuchElementException si el elemento a eliminar no esta en el arbol	
-	 * @throws IllegalArgumentException si element es null
+	 * @throws IllegalArgumentException si element es null o num es negativo
 	 * @return numero de instancias eliminadas
 	 * 
 	 */
 	public int remove(T element, int num) {
-		if (element == null) {
+		if (num < 0) {
 			throw new IllegalArgumentException();
 		}
-		if (!contains(element)) {
-			throw new NoSuchElementException();
-		}
-		if(isEmpty()) {
-			throw new NoSuchElementException();
-		}
-
-		return removeRec(element, num);
-	}
-
-	private int removeRec(T element, int num) {
-		if (isEmpty()) {
-			return 0;
-		}
-		int deleted = 0;
-		if (content.compareTo(element) > 0) {
-			deleted = getLeftBST().removeRec(element, num);
-		} else if (content.compareTo(element) < 0) {
-			deleted = getRightBST().removeRec(element, num);
-		} else {
-			num = Math.min(count, num);
-			count -= num;
-			deleted = num;
-			if(count==0){
-				remove(element);
-			}
-		}
-		return deleted;
+		return removeInstances(element, num, true);
 	}
 	
 	/**
@@ -569,26 +2889,7 @@ public class BinarySearchTreeImpl<T extends Comparable<? super T>> extends Abstr
 	 * @throws IllegalArgumentException si element es null
 	 */
 	public int removeAll(T element) {
-		if (element == null) {
-			throw new IllegalArgumentException();
-		}
-		if (!contains(element)) {
-			throw new NoSuchElementException();
-		}
-		if(isEmpty()) {
-			throw new NoSuchElementException();
-		}
-		
-		int deleted = 0;
-		if (content.compareTo(element) > 0) {
-			deleted =  deleted + getLeftBST().removeAll(element);
-		} else if (content.compareTo(element) < 0) {
-			deleted =  deleted + getRightBST().removeAll(element);
-		} else {
-			deleted = count;
-			remove(element, count);
-		}
-		return deleted;
+		return removeInstances(element, Integer.MAX_VALUE, true);
 	}
 
 	/**
@@ -612,27 +2913,89 @@ public class BinarySearchTreeImpl<T extends Comparable<? super T>> extends Abstr
 		if(path == null) {
 			throw new IllegalArgumentException();
 		}
+		if(path.length() <= Long.SIZE) {
+			return getSubtreeWithPath(pathBits(path), path.length());
+		}
+		return getSubtreeWithPath(pathBitSet(path), path.length());
+	}
 
+	/**
+	 * Como {@link #getSubtreeWithPath(String)}, con el camino en los length
+	 * bits mas bajos de bits, empezando por el mas alto de ellos: el camino
+	 * "10" es (0b10, 2). No crea ningun objeto.
+	 * 
+	 * @param bits pasos del camino (0 izquierda, 1 derecha)
+	 * @param length numero de pasos, entre 0 y 64
+	 * @return el nodo que se alcanza con ese camino
+	 * @throws NoSuchElementException si el camino no alcanza un nodo no vacío en el árbol
+	 * @throws IllegalArgumentException si length no esta entre 0 y 64 o hay
+	 *         bits puestos por encima de length
+	 */
+	public BinarySearchTreeImpl<T> getSubtreeWithPath(long bits, int length) {
+		if(length < 0 || length > Long.SIZE || (length < Long.SIZE && bits >>> length != 0)) {
+			throw new IllegalArgumentException();
+		}
 		BinarySearchTreeImpl<T> current = this;
+		for(int i = length - 1; i >= 0; i--) {
+			current = (bits >>> i & 1) == 0 ? current.getLeftBST() : current.getRightBST();
+			if(current == null) {
+				throw new NoSuchElementException();
+			}
+		}
+		return current;
+	}
 
-		for(char c : path.toCharArray()) {
-			if(c == '0') {
-				if(current.getLeftBST() == null) {
-					throw new NoSuchElementException();
-				}
-				current = current.getLeftBST();
-			}else if(c == '1') {
-				if(current.getRightBST() == null) {
-					throw new NoSuchElementException();
-				}
-				current = current.getRightBST();
-			} else {
-				throw new IllegalArgumentException();
+	/**
+	 * Como {@link #getSubtreeWithPath(String)}, con el paso i del camino en
+	 * el bit i de path (para caminos de mas de 64 pasos).
+	 * 
+	 * @param path pasos del camino (0 izquierda, 1 derecha)
+	 * @param length numero de pasos
+	 * @return el nodo que se alcanza con ese camino
+	 * @throws NoSuchElementException si el camino no alcanza un nodo no vacío en el árbol
+	 * @throws IllegalArgumentException si path es null, length es negativo o
+	 *         hay bits puestos desde length
+	 */
+	public BinarySearchTreeImpl<T> getSubtreeWithPath(BitSet path, int length) {
+		if(path == null || length < 0 || path.length() > length) {
+			throw new IllegalArgumentException();
+		}
+		BinarySearchTreeImpl<T> current = this;
+		for(int i = 0; i < length; i++) {
+			current = path.get(i) ? current.getRightBST() : current.getLeftBST();
+			if(current == null) {
+				throw new NoSuchElementException();
 			}
 		}
 		return current;
 	}
 
+	private static long pathBits(String path) {
+		long bits = 0;
+		for(int i = 0; i < path.length(); i++) {
+			bits = bits << 1 | pathStep(path.charAt(i));
+		}
+		return bits;
+	}
+
+	private static BitSet pathBitSet(String path) {
+		BitSet bits = new BitSet(path.length());
+		for(int i = 0; i < path.length(); i++) {
+			if(pathStep(path.charAt(i)) == 1) {
+				bits.set(i);
+			}
+		}
+		return bits;
+	}
+
+	private static int pathStep(char c) {
+		if(c == '0') {
+			return 0;
+		} else if(c == '1') {
+			return 1;
+		}
+		throw new IllegalArgumentException();
+	}
 
 
 
@@ -661,32 +3024,42 @@ public class BinarySearchTreeImpl<T extends Comparable<? super T>> extends Abstr
  * @throws IllegalArgumentException si el camino no contiene sólamente 0s y 1s
 */
 	public T getContentWithPath(String path) {
-		if(path == null) {
-			throw new IllegalArgumentException();
-		}
+		return contentOf(getSubtreeWithPath(path));
+	}
 
-		BinarySearchTreeImpl<T> current = this;
+	/**
+	 * Como {@link #getContentWithPath(String)}, con el camino codificado como
+	 * en {@link #getSubtreeWithPath(long, int)}.
+	 * 
+	 * @param bits pasos del camino (0 izquierda, 1 derecha)
+	 * @param length numero de pasos, entre 0 y 64
+	 * @return contenido del nodo alcanzado.
+	 * @throws NoSuchElementException si el camino no alcanza un nodo no vacío en el árbol
+	 * @throws IllegalArgumentException si el camino no es valido
+	 */
+	public T getContentWithPath(long bits, int length) {
+		return contentOf(getSubtreeWithPath(bits, length));
+	}
 
-		for(char c : path.toCharArray()) {
-			if(c == '0') {
-				if(current.getLeftBST() == null) {
-					throw new NoSuchElementException();
-				}
-				current = current.getLeftBST();
-			}else if(c == '1') {
-				if(current.getRightBST() == null) {
-					throw new NoSuchElementException();
-				}
-				current = current.getRightBST();
-			} else {
-				throw new IllegalArgumentException();
-			}
-		}
+	/**
+	 * Como {@link #getContentWithPath(String)}, con el camino codificado como
+	 * en {@link #getSubtreeWithPath(BitSet, int)}.
+	 * 
+	 * @param path pasos del camino (0 izquierda, 1 derecha)
+	 * @param length numero de pasos
+	 * @return contenido del nodo alcanzado.
+	 * @throws NoSuchElementException si el camino no alcanza un nodo no vacío en el árbol
+	 * @throws IllegalArgumentException si el camino no es valido
+	 */
+	public T getContentWithPath(BitSet path, int length) {
+		return contentOf(getSubtreeWithPath(path, length));
+	}
 
-		if(current == null || current.isEmpty()) {
+	private static <T extends Comparable<? super T>> T contentOf(BinarySearchTreeImpl<T> node) {
+		if(node.isEmpty()) {
 			throw new NoSuchElementException();
 		}
-		return current.getContent();
+		return node.getContent();
 	}
 
 
@@ -848,40 +3221,78 @@ public class BinarySearchTreeImpl<T extends Comparable<? super T>> extends Abstr
 	*    no tiene el mismo nº de instancias)
 	*/
 	public boolean hasBrotherSameCount() {
-		BinarySearchTreeImpl<T> parent = getParent(father);
-		if(parent == null) {
-			return false;
-		}
-
-		BinarySearchTreeImpl<T> brother = null;
-		if(parent.getLeftBST() != null && parent.getLeftBST() != this) {
-			brother = parent.getLeftBST();
-		} else if(parent.getRightBST() != null && parent.getRightBST() != this) {
-			brother = parent.getRightBST();
-		}
-
+		BinarySearchTreeImpl<T> brother = getBrother();
 		if(brother == null) {
 			return false;
 		}
-
-		return this.instancesCount() == brother.instancesCount();
+		//	O(1): el hermano sale del padre y las instancias de cada
+		//	subarbol estan guardadas en su raiz
+		return this.instances == brother.instances;
 	}
 
-	private BinarySearchTreeImpl<T> getParent(BinarySearchTreeImpl<T> root) {
-		if(root == null || root.isEmpty() || root == this) {
+	/**
+	 * Devuelve el otro hijo del padre de este nodo, o null si es la raiz o
+	 * no tiene hermano.
+	 */
+	private BinarySearchTreeImpl<T> getBrother() {
+		if(father == null) {
 			return null;
 		}
+		return father.getLeftBST() == this ? father.getRightBST() : father.getLeftBST();
+	}
 
-		if(root.getLeftBST() == this || root.getRightBST() == this) {
-			return root;
-		}
+	/**
+	 * Cuenta, en un solo recorrido, los nodos de este subarbol (incluido
+	 * este) para los que {@link #hasBrotherSameCount()} es cierto.
+	 * 
+	 * Con el arbol del ejemplo de {@link #hasBrotherSameCount()} devuelve 2
+	 * (el 5 y el 20).
+	 * 
+	 * @return numero de nodos con un hermano con las mismas instancias
+	 */
+	public int countBrothersSameCount() {
+		return brothersSameCount(null);
+	}
 
-		BinarySearchTreeImpl<T> parent = getParent(root.getLeftBST());
-		if(parent != null) {
-			return parent;
-		}
+	/**
+	 * Devuelve, en preorden, los elementos de los nodos de este subarbol
+	 * (incluido este) para los que {@link #hasBrotherSameCount()} es cierto.
+	 * Se calcula en un solo recorrido.
+	 * 
+	 * Con el arbol del ejemplo de {@link #hasBrotherSameCount()} devuelve
+	 * [5, 20].
+	 * 
+	 * @return lista de elementos con un hermano con las mismas instancias
+	 */
+	public List<T> brothersSameCount() {
+		List<T> rx = new ArrayList<T>();
+		brothersSameCount(rx);
+		return rx;
+	}
 
-		return getParent(root.getRightBST());
+	private int brothersSameCount(List<T> rx) {
+		int n = 0;
+		if (isEmpty()) {
+			return n;
+		}
+		Deque<BinarySearchTreeImpl<T>> stack = new ArrayDeque<BinarySearchTreeImpl<T>>();
+		stack.push(this);
+		while (!stack.isEmpty()) {
+			BinarySearchTreeImpl<T> node = stack.pop();
+			if (node.hasBrotherSameCount()) {
+				n++;
+				if (rx != null) {
+					rx.add(node.content);
+				}
+			}
+			if (node.getRightBST() != null) {
+				stack.push(node.getRightBST());
+			}
+			if (node.getLeftBST() != null) {
+				stack.push(node.getLeftBST());
+			}
+		}
+		return n;
 	}
 	
 	/**
@@ -903,25 +3314,50 @@ public class BinarySearchTreeImpl<T extends Comparable<? super T>> extends Abstr
 	*    
 	*/
 	public String toStringSimetric() {
-		if(father ==null){
-			return "";
-		}
-		return toStringS("");
+		BinarySearchTreeImpl<T> simetric = getSimetric();
+		return simetric == null ? "" : simetric.toString();
 	}
-	private String toStringS(String ruta){
-		if(father == null){
-			try{
-				return getSubtreeWithPath(ruta).toString();
-			}catch(Exception e){
-				return "";
+
+	/**
+	 * Devuelve el nodo simetrico de este (el que se alcanza desde la raiz
+	 * cambiando cada paso a la izquierda por uno a la derecha y al reves), o
+	 * null si es la raiz o no existe.
+	 * 
+	 * Sube hasta la raiz formando el camino simetrico en un long (o en un
+	 * BitSet, si hay mas de 64 niveles) y baja por el, O(profundidad).
+	 * 
+	 * @return el nodo simetrico o null
+	 */
+	public BinarySearchTreeImpl<T> getSimetric() {
+		if(father == null) {
+			return null;
+		}
+		int depth = 0;
+		BinarySearchTreeImpl<T> root = this;
+		long bits = 0;
+		while(root.father != null) {
+			if(depth < Long.SIZE && root.father.getLeftBST() == root) {
+				bits |= 1L << depth;
 			}
+			depth++;
+			root = root.father;
 		}
-		if(father.content.compareTo(content) > 0){
-			return father.toStringS("1" + ruta);
-		}else{
-			return father.toStringS("0" + ruta);
+		try {
+			if(depth <= Long.SIZE) {
+				return root.getSubtreeWithPath(bits, depth);
+			}
+			BitSet path = new BitSet(depth);
+			int i = depth;
+			for(BinarySearchTreeImpl<T> node = this; node.father != null; node = node.father) {
+				i--;
+				if(node.father.getLeftBST() == node) {
+					path.set(i);
+				}
+			}
+			return root.getSubtreeWithPath(path, depth);
+		} catch(NoSuchElementException e) {
+			return null;
 		}
-		
 	}
 	
 	/**
@@ -947,16 +3383,10 @@ public class BinarySearchTreeImpl<T extends Comparable<? super T>> extends Abstr
 		if (elem == null) {
 			throw new IllegalArgumentException("El elemento no puede ser nulo");
 		}
-		if(isEmpty()) {
+		BinarySearchTreeImpl<T> aux = find(elem);
+		if(aux == null) {
 			throw new NoSuchElementException();
 		}
-		if(content.compareTo(elem) > 0) {
-			return getLeftBST().getRoadUpRight(elem, up, right);
-		}
-		if(content.compareTo(elem) < 0) {
-			return getRightBST().getRoadUpRight(elem, up, right);
-		}
-		BinarySearchTreeImpl<T> aux = this;
 		int pos = 1;
 		while(up > 0) {
 			if(aux.father == null) {
@@ -968,15 +3398,15 @@ public class BinarySearchTreeImpl<T extends Comparable<? super T>> extends Abstr
 		}
 
 		while(right > 0) {
-			if(aux.isEmpty()) {
+			if(aux == null) {
 				throw new NoSuchElementException();
 			}
 			aux.setTag("road", pos++);
 			aux = aux.getRightBST();
 			right--;
 		}
-		if(aux.isEmpty()) {
-			aux.setTag("road", pos++);
+		if(aux == null) {
+			return null;
 		}
 		return aux.content; 
 	}
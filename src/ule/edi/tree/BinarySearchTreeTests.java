@@ -3,12 +3,30 @@ package ule.edi.tree;
 
 import static org.junit.Assert.assertEquals;
 
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.io.UncheckedIOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.text.CollationElementIterator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
 
 import org.junit.Assert;
 import org.junit.Before;
@@ -82,6 +100,303 @@ public class BinarySearchTreeTests {
 		Assert.assertEquals("{10, {5, {2, ∅, {3, ∅, ∅}}, {7, ∅, ∅}}, {20, {15, ∅, {17, ∅, ∅}}, {30, ∅, ∅}}}", ejemplo.toString());
 	}
 
+	@Test
+	public void insertOrdenado_test() {
+		BinarySearchTreeImpl<Integer> tree = new BinarySearchTreeImpl<Integer>();
+		Assert.assertEquals(8, tree.insert(1, 2, 2, null, 3, 4, 5, 5, 5));
+		Assert.assertEquals("{3, {1, ∅, {2(2), ∅, ∅}}, {4, ∅, {5(3), ∅, ∅}}}", tree.toString());
+		Assert.assertEquals(5, tree.size());
+		Assert.assertEquals(8, tree.instancesCount());
+		Assert.assertSame(tree, tree.getSubtreeWithPath("1").father);
+		Assert.assertSame(tree.getSubtreeWithPath("1"), tree.getSubtreeWithPath("11").father);
+		Assert.assertTrue(tree.insert(6));
+		Assert.assertEquals("{3, {1, ∅, {2(2), ∅, ∅}}, {4, ∅, {5(3), ∅, {6, ∅, ∅}}}}", tree.toString());
+		//	Con el arbol ya no vacio se inserta uno a uno
+		Assert.assertEquals(2, tree.insert(7, 8));
+		Assert.assertEquals(Integer.valueOf(8), tree.getContentWithPath("11111"));
+	}
+
+	@Test
+	public void insertParallel_test() {
+		BinarySearchTreeImpl<Integer> tree = new BinarySearchTreeImpl<Integer>();
+		Random rnd = new Random(13);
+		List<Integer> elements = new ArrayList<Integer>();
+		int[] counts = new int[50000];
+		for (int i = 0; i < 200000; i++) {
+			int k = rnd.nextInt(counts.length);
+			elements.add(k);
+			counts[k]++;
+		}
+		elements.add(null);
+		Assert.assertEquals(200000, tree.insertParallel(elements));
+		Assert.assertEquals(200000, tree.instancesCount());
+		List<Integer> expected = new ArrayList<Integer>();
+		for (int k = 0; k < counts.length; k++) {
+			if (counts[k] > 0) {
+				expected.add(k);
+			}
+		}
+		Assert.assertEquals(expected.size(), tree.size());
+		Assert.assertEquals(expected, toList(tree.iteratorInorder()));
+		Assert.assertEquals(counts[777], tree.rangeInstances(777, 777));
+		//	Equilibrado: el mismo arbol que con la coleccion ya ordenada
+		Collections.sort(expected);
+		BinarySearchTreeImpl<Integer> other = new BinarySearchTreeImpl<Integer>();
+		other.insert(expected);
+		Assert.assertEquals(toList(other.iteratorPreorder()), toList(tree.iteratorPreorder()));
+		BinarySearchTreeImpl<Integer> node = tree;
+		while (node.getRightBST() != null) {
+			Assert.assertSame(node, node.getRightBST().father);
+			node = node.getRightBST();
+		}
+		//	Sobre un arbol no vacio se inserta uno a uno
+		Assert.assertEquals(2, tree.insertParallel(Arrays.asList(-1, 777)));
+		Assert.assertEquals(counts[777] + 1, tree.rangeInstances(777, 777));
+	}
+
+	@Test
+	public void insertBatch_test() {
+		BinarySearchTreeImpl<Integer> tree = new BinarySearchTreeImpl<Integer>();
+		tree.insert(50, 30, 80);
+		Assert.assertEquals(7, tree.insertBatch(80, 10, null, 30, 20, 90, 85, 60));
+		Assert.assertEquals("{50, {30(2), {10, ∅, {20, ∅, ∅}}, ∅}, {80(2), {60, ∅, ∅}, {85, ∅, {90, ∅, ∅}}}}", tree.toString());
+		Assert.assertEquals(8, tree.size());
+		Assert.assertEquals(10, tree.instancesCount());
+		Assert.assertSame(tree.getSubtreeWithPath("00"), tree.getSubtreeWithPath("001").father);
+		Assert.assertEquals(3, tree.getSubtreeWithPath("0").size());
+		Assert.assertEquals(0, tree.insertBatch(new ArrayList<Integer>()));
+
+		//	Mismo contenido que insertando uno a uno
+		Random rnd = new Random(14);
+		BinarySearchTreeImpl<Integer> a = new BinarySearchTreeImpl<Integer>();
+		BinarySearchTreeImpl<Integer> b = new BinarySearchTreeImpl<Integer>();
+		for (int round = 0; round < 5; round++) {
+			List<Integer> batch = new ArrayList<Integer>();
+			for (int i = 0; i < 2000; i++) {
+				batch.add(rnd.nextInt(5000));
+			}
+			a.insertBatch(batch);
+			for (Integer x : batch) {
+				b.insert(x);
+			}
+		}
+		Assert.assertEquals(b.size(), a.size());
+		Assert.assertEquals(b.instancesCount(), a.instancesCount());
+		Assert.assertEquals(toList(b.iteratorInorder()), toList(a.iteratorInorder()));
+		Assert.assertEquals(b.rangeInstances(100, 200), a.rangeInstances(100, 200));
+	}
+
+	@Test
+	public void conjuntos_test() {
+		BinarySearchTreeImpl<Integer> a = new BinarySearchTreeImpl<Integer>();
+		BinarySearchTreeImpl<Integer> b = new BinarySearchTreeImpl<Integer>();
+		a.insert(10, 20, 20, 30, 40, 40, 40);
+		b.insert(20, 40, 40, 50);
+		Assert.assertEquals("{30, {10, ∅, {20(2), ∅, ∅}}, {40(3), ∅, {50, ∅, ∅}}}", a.union(b).toString());
+		Assert.assertEquals("{20, ∅, {40(2), ∅, ∅}}", a.intersection(b).toString());
+		Assert.assertEquals("{20, {10, ∅, ∅}, {30, ∅, {40, ∅, ∅}}}", a.difference(b).toString());
+		Assert.assertEquals("{50, ∅, ∅}", b.difference(a).toString());
+		Assert.assertEquals("{30, {10, ∅, {20(3), ∅, ∅}}, {40(5), ∅, {50, ∅, ∅}}}", a.sumCounts(b).toString());
+		Assert.assertEquals(7, a.instancesCount());
+		Assert.assertEquals("∅", a.intersection(new BinarySearchTreeImpl<Integer>()).toString());
+		Assert.assertNull(a.intersection(b).father);
+	}
+
+	@Test
+	public void conjuntosGrandes_test() {
+		Random rnd = new Random(15);
+		int[] ca = new int[30000];
+		int[] cb = new int[30000];
+		BinarySearchTreeImpl<Integer> a = new AVLTreeImpl<Integer>();
+		BinarySearchTreeImpl<Integer> b = new BinarySearchTreeImpl<Integer>();
+		for (int i = 0; i < 40000; i++) {
+			int x = rnd.nextInt(ca.length);
+			int y = rnd.nextInt(cb.length);
+			a.insert(x);
+			b.insert(y);
+			ca[x]++;
+			cb[y]++;
+		}
+		BinarySearchTreeImpl<Integer> u = a.union(b);
+		BinarySearchTreeImpl<Integer> d = a.difference(b);
+		BinarySearchTreeImpl<Integer> s = a.sumCounts(b);
+		Assert.assertTrue(u instanceof AVLTreeImpl);
+		long iu = 0, id = 0;
+		for (int k = 0; k < ca.length; k++) {
+			Assert.assertEquals(Math.max(ca[k], cb[k]), u.rangeInstances(k, k));
+			Assert.assertEquals(Math.max(0, ca[k] - cb[k]), d.rangeInstances(k, k));
+			iu += Math.max(ca[k], cb[k]);
+			id += Math.max(0, ca[k] - cb[k]);
+		}
+		Assert.assertEquals(iu, u.instancesCount());
+		Assert.assertEquals(id, d.instancesCount());
+		Assert.assertEquals(80000, s.instancesCount());
+		Assert.assertEquals(toList(u.iteratorInorder()), toList(s.iteratorInorder()));
+	}
+
+	@Test
+	public void conjuntosPequenos_test() {
+		Random rnd = new Random(17);
+		int[] cb = new int[2000];
+		BinarySearchTreeImpl<Integer> big = new RedBlackTreeImpl<Integer>();
+		for (int i = 0; i < 3000; i++) {
+			int x = rnd.nextInt(cb.length);
+			big.insert(x);
+			cb[x]++;
+		}
+		int[] cs = new int[cb.length];
+		BinarySearchTreeImpl<Integer> small = new BinarySearchTreeImpl<Integer>();
+		for (int x : new int[] {3, 3, 500, 1999, 1999, 1999, 1000}) {
+			small.insert(x);
+			cs[x]++;
+		}
+		//	Uno a cada lado de cada operacion
+		List<BinarySearchTreeImpl<Integer>> results = Arrays.asList(small.union(big), big.union(small),
+				small.intersection(big), big.intersection(small), small.difference(big), big.difference(small),
+				small.sumCounts(big), big.sumCounts(small));
+		for (int k = 0; k < cb.length; k++) {
+			int[] expected = {Math.max(cs[k], cb[k]), Math.max(cs[k], cb[k]), Math.min(cs[k], cb[k]), Math.min(cs[k], cb[k]),
+					Math.max(0, cs[k] - cb[k]), Math.max(0, cb[k] - cs[k]), cs[k] + cb[k], cs[k] + cb[k]};
+			for (int r = 0; r < expected.length; r++) {
+				Assert.assertEquals(expected[r], results.get(r).rangeInstances(k, k));
+			}
+		}
+		for (BinarySearchTreeImpl<Integer> r : results) {
+			Assert.assertNull(r.father);
+			checkNodes(r, null);
+		}
+		Assert.assertTrue(results.get(1) instanceof RedBlackTreeImpl);
+
+		//	La suma se queda en Integer.MAX_VALUE
+		small.find(3).count = Integer.MAX_VALUE - 1;
+		BinarySearchTreeImpl<Integer> other = new BinarySearchTreeImpl<Integer>();
+		other.insert(3, 3);
+		Assert.assertEquals(Integer.MAX_VALUE, small.sumCounts(other).find(3).count);
+		other.insert(500, 1000, 1999);
+		Assert.assertEquals(Integer.MAX_VALUE, small.sumCounts(other).find(3).count);
+	}
+
+	@Test
+	public void removeAllColeccion_test() {
+		BinarySearchTreeImpl<Integer> tree = new BinarySearchTreeImpl<Integer>();
+		tree.insert(50, 30, 80, 10, 40, 60, 90, 30, 90, 90, 55);
+		Assert.assertEquals(6, tree.removeAll(Arrays.asList(90, 30, null, 50, 7, 30)));
+		Assert.assertEquals("{55, {40, {10, ∅, ∅}, ∅}, {80, {60, ∅, ∅}, ∅}}", tree.toString());
+		Assert.assertEquals(5, tree.size());
+		Assert.assertEquals(5, tree.instancesCount());
+		Assert.assertSame(tree, tree.getSubtreeWithPath("0").father);
+		Assert.assertSame(tree.getSubtreeWithPath("0"), tree.getSubtreeWithPath("00").father);
+		Assert.assertEquals(5, tree.removeAll(Arrays.asList(10, 40, 55, 60, 80)));
+		Assert.assertTrue(tree.isEmpty());
+		Assert.assertEquals(0, tree.removeAll(Arrays.asList(1)));
+
+		Random rnd = new Random(16);
+		for (BinarySearchTreeImpl<Integer> a : Arrays.asList(new BinarySearchTreeImpl<Integer>(), new AVLTreeImpl<Integer>())) {
+			BinarySearchTreeImpl<Integer> b = new BinarySearchTreeImpl<Integer>();
+			for (int i = 0; i < 5000; i++) {
+				int x = rnd.nextInt(2000);
+				a.insert(x);
+				b.insert(x);
+			}
+			List<Integer> batch = new ArrayList<Integer>();
+			int removed = 0;
+			for (int i = 0; i < 800; i++) {
+				int x = rnd.nextInt(2500);
+				batch.add(x);
+				if (b.contains(x)) {
+					removed += b.removeAll(x);
+				}
+			}
+			Assert.assertEquals(removed, a.removeAll(batch));
+			Assert.assertEquals(b.size(), a.size());
+			Assert.assertEquals(b.instancesCount(), a.instancesCount());
+			Assert.assertEquals(toList(b.iteratorInorder()), toList(a.iteratorInorder()));
+		}
+	}
+
+	/*
+	 * Comprueba padres y contadores de todo el arbol.
+	 */
+	private void checkNodes(BinarySearchTreeImpl<Integer> node, BinarySearchTreeImpl<Integer> father) {
+		if (node == null || node.isEmpty()) {
+			return;
+		}
+		Assert.assertSame(father, node.father);
+		checkNodes(node.getLeftBST(), node);
+		checkNodes(node.getRightBST(), node);
+		Assert.assertEquals(1 + BinarySearchTreeImpl.sizeOf(node.getLeftBST()) + BinarySearchTreeImpl.sizeOf(node.getRightBST()), node.size);
+		Assert.assertEquals(node.count + BinarySearchTreeImpl.instancesOf(node.getLeftBST()) + BinarySearchTreeImpl.instancesOf(node.getRightBST()), node.instances);
+	}
+
+	@Test
+	public void splitJoin_test() {
+		BinarySearchTreeImpl<Integer> tree = new BinarySearchTreeImpl<Integer>();
+		tree.insert(50, 30, 30, 10, 40, 80);
+		BinarySearchTreeImpl<Integer> greater = tree.split(40);
+		Assert.assertEquals("{30(2), {10, ∅, ∅}, ∅}", tree.toString());
+		Assert.assertEquals("{50, {40, ∅, ∅}, {80, ∅, ∅}}", greater.toString());
+		checkNodes(tree, null);
+		checkNodes(greater, null);
+		Assert.assertEquals(3, greater.instancesCount());
+
+		Assert.assertSame(tree, BinarySearchTreeImpl.join(tree, greater));
+		Assert.assertEquals("{30(2), {10, ∅, ∅}, {50, {40, ∅, ∅}, {80, ∅, ∅}}}", tree.toString());
+		Assert.assertTrue(greater.isEmpty());
+		checkNodes(tree, null);
+		Assert.assertEquals(6, tree.instancesCount());
+
+		//	Todo a un lado
+		Assert.assertTrue(tree.split(90).isEmpty());
+		BinarySearchTreeImpl<Integer> all = tree.split(0);
+		Assert.assertTrue(tree.isEmpty());
+		Assert.assertEquals(6, all.instancesCount());
+		BinarySearchTreeImpl.join(tree, all);
+		Assert.assertEquals(5, tree.size());
+		checkNodes(tree, null);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void join_exception_test() {
+		BinarySearchTreeImpl<Integer> a = new BinarySearchTreeImpl<Integer>();
+		BinarySearchTreeImpl<Integer> b = new BinarySearchTreeImpl<Integer>();
+		a.insert(1, 5);
+		b.insert(5, 9);
+		BinarySearchTreeImpl.join(a, b);
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void split_subarbol_test() {
+		ejemplo.getSubtreeWithPath("0").split(20);
+	}
+
+	@Test
+	public void removeRange_test() {
+		Random rnd = new Random(17);
+		for (BinarySearchTreeImpl<Integer> tree : Arrays.asList(new BinarySearchTreeImpl<Integer>(), new AVLTreeImpl<Integer>(), new RedBlackTreeImpl<Integer>())) {
+			int[] counts = new int[1000];
+			for (int i = 0; i < 3000; i++) {
+				int x = rnd.nextInt(counts.length);
+				tree.insert(x);
+				counts[x]++;
+			}
+			long expected = 0;
+			for (int k = 200; k <= 450; k++) {
+				expected += counts[k];
+			}
+			BinarySearchTreeImpl<Integer> range = tree.extractRange(200, 450);
+			Assert.assertEquals(expected, range.instancesCount());
+			Assert.assertEquals(3000 - expected, tree.instancesCount());
+			Assert.assertEquals(0, tree.rangeCount(200, 450));
+			Assert.assertEquals(Integer.valueOf(200), range.iteratorInorder().next());
+			checkNodes(tree, null);
+			checkNodes(range, null);
+			Assert.assertEquals(tree.rangeInstances(0, 199), tree.removeRange(-5, 199));
+			Assert.assertEquals(Integer.valueOf(451), tree.iteratorInorder().next());
+			Assert.assertEquals(0, tree.removeRange(5, 4));
+			checkNodes(tree, null);
+		}
+	}
+
 	@Test
 	public void insert_T_test() {
 		Assert.assertEquals(4, ejemplo.insert(1, 6, null, 4, 13));
@@ -94,6 +409,25 @@ public class BinarySearchTreeTests {
 		Assert.assertFalse(ejemplo.insert(20));
 	}
 	
+	@Test
+	public void insertOrdenadoProfundo_test() {
+		//	Arbol degenerado: con la version recursiva desbordaba la pila
+		BinarySearchTreeImpl<Integer> tree = new BinarySearchTreeImpl<Integer>();
+		int n = 30000;
+		for (int i = 0; i < n; i++) {
+			Assert.assertTrue(tree.insert(i));
+		}
+		Assert.assertFalse(tree.insert(n - 1));
+		Assert.assertTrue(tree.contains(n - 1));
+		Assert.assertFalse(tree.contains(n));
+		Assert.assertEquals(2, tree.removeAll(n - 1));
+		Assert.assertEquals(1, tree.remove(n - 2, 5));
+		tree.remove(0);
+		Assert.assertFalse(tree.contains(n - 2));
+		Assert.assertEquals(Integer.valueOf(1), tree.getContent());
+		Assert.assertEquals(Integer.valueOf(n - 3), tree.getRoadUpRight(n - 3, 0, 0));
+	}
+
 	@Test
 	public void contains_test() {
 		Assert.assertTrue(ejemplo.insert(7));
@@ -105,6 +439,23 @@ public class BinarySearchTreeTests {
 		ejemplo.contains(null);
 	}
 
+	@Test
+	public void instancesCountGrande_test() {
+		BinarySearchTreeImpl<Integer> tree = new BinarySearchTreeImpl<Integer>();
+		tree.insert(1, 2);
+		tree.find(1).count = Integer.MAX_VALUE;
+		tree.find(2).count = Integer.MAX_VALUE;
+		tree.find(2).update();
+		tree.update();
+		Assert.assertEquals(Integer.MAX_VALUE, tree.instancesCount());
+		Assert.assertEquals(2L * Integer.MAX_VALUE, tree.totalInstances());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void removeNegativo_exception_test() {
+		ejemplo.remove(5, -1);
+	}
+
 	@Test
 	public void size_test() {
 		Assert.assertEquals(6, ejemplo.size());
@@ -119,6 +470,105 @@ public class BinarySearchTreeTests {
 		Assert.assertEquals(9, ejemplo.instancesCount());
 	}
 
+	@Test
+	public void sizeSubarbol_test() {
+		ejemplo.insert(15, 15, 17, 30);
+		Assert.assertEquals(4, ejemplo.getSubtreeWithPath("1").size());
+		Assert.assertEquals(7, ejemplo.getSubtreeWithPath("1").instancesCount());
+		Assert.assertEquals(4, ejemplo.getSubtreeWithPath("10").instancesCount());
+		Assert.assertEquals(2, ejemplo.remove(15, 2));
+		ejemplo.remove(20);
+		Assert.assertEquals(2, ejemplo.removeAll(30));
+		Assert.assertEquals("{10, {5, {2, ∅, ∅}, ∅}, {15, ∅, {17, ∅, ∅}}}", ejemplo.toString());
+		Assert.assertEquals(2, ejemplo.getSubtreeWithPath("1").size());
+		Assert.assertEquals(2, ejemplo.getSubtreeWithPath("1").instancesCount());
+		Assert.assertEquals(5, ejemplo.size());
+		Assert.assertEquals(5, ejemplo.instancesCount());
+		ejemplo.remove(10);
+		Assert.assertEquals(4, ejemplo.size());
+		Assert.assertEquals(2, ejemplo.getSubtreeWithPath("0").size());
+		Assert.assertEquals(1, ejemplo.getSubtreeWithPath("1").size());
+		for (Integer i : new Integer[] {2, 5, 15, 17}) {
+			ejemplo.remove(i);
+		}
+		Assert.assertEquals(0, ejemplo.size());
+		Assert.assertEquals(0, ejemplo.instancesCount());
+	}
+
+	@Test
+	public void select_test() {
+		BinarySearchTreeImpl<Integer> tree = new BinarySearchTreeImpl<Integer>();
+		tree.insert(50, 30, 30, 10, 40, 40, 40, 40, 80, 80, 60);
+		Assert.assertEquals(Integer.valueOf(10), tree.select(0));
+		Assert.assertEquals(Integer.valueOf(30), tree.select(2));
+		Assert.assertEquals(Integer.valueOf(40), tree.select(3));
+		Assert.assertEquals(Integer.valueOf(80), tree.select(10));
+		Assert.assertEquals(Integer.valueOf(40), tree.selectDistinct(2));
+		Assert.assertEquals(Integer.valueOf(80), tree.selectDistinct(5));
+		Assert.assertEquals(3, tree.rank(40));
+		Assert.assertEquals(7, tree.rank(45));
+		Assert.assertEquals(0, tree.rank(1));
+		Assert.assertEquals(11, tree.rank(99));
+		Assert.assertEquals(Integer.valueOf(10), tree.percentile(0));
+		Assert.assertEquals(Integer.valueOf(40), tree.percentile(50));
+		Assert.assertEquals(Integer.valueOf(80), tree.percentile(100));
+		Assert.assertEquals(Integer.valueOf(40), tree.getSubtreeWithPath("0").select(4));
+	}
+
+	@Test
+	public void selectComoIterador_test() {
+		//	Mismo resultado que recorrer las instancias ordenadas
+		BinarySearchTreeImpl<Integer> tree = new RedBlackTreeImpl<Integer>();
+		Random rnd = new Random(3);
+		List<Integer> all = new ArrayList<Integer>();
+		for (int i = 0; i < 2000; i++) {
+			int k = rnd.nextInt(300);
+			tree.insert(k);
+			all.add(k);
+		}
+		Collections.sort(all);
+		for (int i = 0; i < all.size(); i++) {
+			Assert.assertEquals(all.get(i), tree.select(i));
+			Assert.assertEquals(all.indexOf(all.get(i)), tree.rank(all.get(i)));
+		}
+	}
+
+	@Test(expected = NoSuchElementException.class)
+	public void select_NoSuch_test() {
+		ejemplo.select(6);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void percentile_exception_test() {
+		ejemplo.percentile(101);
+	}
+
+	@Test
+	public void range_test() {
+		BinarySearchTreeImpl<Integer> tree = new BinarySearchTreeImpl<Integer>();
+		tree.insert(50, 30, 30, 10, 40, 40, 40, 40, 80, 80, 60);
+		Assert.assertEquals(4, tree.rangeCount(20, 60));
+		Assert.assertEquals(8, tree.rangeInstances(20, 60));
+		Assert.assertEquals(6, tree.rangeCount(10, 80));
+		Assert.assertEquals(11, tree.rangeInstances(0, 100));
+		Assert.assertEquals(1, tree.rangeCount(40, 40));
+		Assert.assertEquals(0, tree.rangeCount(41, 49));
+		Assert.assertEquals(0, tree.rangeInstances(60, 50));
+		List<Integer> found = new LinkedList<Integer>();
+		Iterator<Integer> it = tree.rangeIterator(20, 60);
+		while (it.hasNext()) {
+			found.add(it.next());
+		}
+		Assert.assertEquals("[30, 40, 50, 60]", found.toString());
+		Assert.assertFalse(tree.rangeIterator(81, 90).hasNext());
+		Assert.assertFalse(new BinarySearchTreeImpl<Integer>().rangeIterator(1, 2).hasNext());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void range_exception_test() {
+		ejemplo.rangeCount(null, 3);
+	}
+
 	@Test
 	public void iteratorWidth_test() {
 		Assert.assertTrue(ejemplo.iteratorWidth().hasNext());
@@ -144,6 +594,74 @@ public class BinarySearchTreeTests {
 		Assert.assertFalse(tree.iteratorWidthInstances().hasNext());
 	}
 
+	@Test
+	public void iteratorWidthOrden_test() {
+		BinarySearchTreeImpl<Integer> tree = new BinarySearchTreeImpl<Integer>();
+		tree.insert(50, 30, 30, 10, 40, 80, 80, 60);
+		List<Integer> width = new LinkedList<Integer>();
+		for (Iterator<Integer> it = tree.iteratorWidth(); it.hasNext(); ) {
+			width.add(it.next());
+		}
+		Assert.assertEquals("[50, 30, 80, 10, 40, 60]", width.toString());
+		List<Integer> instances = new LinkedList<Integer>();
+		for (Iterator<Integer> it = tree.iteratorWidthInstances(); it.hasNext(); ) {
+			instances.add(it.next());
+		}
+		Assert.assertEquals("[50, 30, 30, 80, 80, 10, 40, 60]", instances.toString());
+	}
+
+	@Test(expected = ConcurrentModificationException.class)
+	public void iteratorWidthModificado_test() {
+		Iterator<Integer> it = ejemplo.iteratorWidthInstances();
+		it.next();
+		ejemplo.getSubtreeWithPath("1").insert(20);
+		it.next();
+	}
+
+	@Test(expected = NoSuchElementException.class)
+	public void iteratorWidthFin_test() {
+		Iterator<Integer> it = ejemplo.getSubtreeWithPath("00").iteratorWidth();
+		it.next();
+		it.next();
+	}
+
+	private <E> List<E> toList(Iterator<E> it) {
+		List<E> rx = new LinkedList<E>();
+		while (it.hasNext()) {
+			rx.add(it.next());
+		}
+		return rx;
+	}
+
+	@Test
+	public void iteratorProfundidad_test() {
+		BinarySearchTreeImpl<Integer> tree = new BinarySearchTreeImpl<Integer>();
+		tree.insert(50, 30, 30, 10, 40, 80, 80, 60);
+		Assert.assertEquals("[10, 30, 40, 50, 60, 80]", toList(tree.iteratorInorder()).toString());
+		Assert.assertEquals("[50, 30, 10, 40, 80, 60]", toList(tree.iteratorPreorder()).toString());
+		Assert.assertEquals("[10, 40, 30, 60, 80, 50]", toList(tree.iteratorPostorder()).toString());
+		Assert.assertEquals("[60, 80]", toList(tree.getSubtreeWithPath("1").iteratorPostorder()).toString());
+		Assert.assertFalse(new BinarySearchTreeImpl<Integer>().iteratorInorder().hasNext());
+		Assert.assertFalse(new BinarySearchTreeImpl<Integer>().iteratorPostorder().hasNext());
+	}
+
+	@Test
+	public void stream_test() {
+		BinarySearchTreeImpl<Integer> tree = new AVLTreeImpl<Integer>();
+		List<Integer> expected = new ArrayList<Integer>();
+		for (int i = 0; i < 5000; i++) {
+			tree.insert(i * 7 % 5000);
+			expected.add(i);
+		}
+		Assert.assertEquals(expected, toList(tree.iteratorInorder()));
+		Assert.assertEquals(expected, tree.stream().collect(Collectors.toList()));
+		Assert.assertEquals(expected, tree.parallelStream().collect(Collectors.toList()));
+		Assert.assertEquals(5000L * 4999 / 2, tree.parallelStream().mapToLong(Integer::longValue).sum());
+		Assert.assertEquals(5000, tree.spliterator().estimateSize());
+		Assert.assertTrue(tree.spliterator().hasCharacteristics(Spliterator.SORTED | Spliterator.DISTINCT | Spliterator.SIZED));
+		Assert.assertEquals(0, new BinarySearchTreeImpl<Integer>().stream().count());
+	}
+
 	@Test
 	public void remove_T_test() {
 		ejemplo.remove(15);
@@ -286,12 +804,397 @@ public class BinarySearchTreeTests {
 		Assert.assertTrue(ejemplo.getSubtreeWithPath("10").hasBrotherSameCount());
 	}
 
+	@Test
+	public void brothersSameCount_test() {
+		BinarySearchTreeImpl<Integer> tree = new BinarySearchTreeImpl<Integer>();
+		tree.insert(10, 5, 2, 20, 30);
+		Assert.assertEquals(2, tree.countBrothersSameCount());
+		Assert.assertEquals("[5, 20]", tree.brothersSameCount().toString());
+		Assert.assertEquals("[5]", tree.getSubtreeWithPath("0").brothersSameCount().toString());
+		tree.insert(30);
+		Assert.assertFalse(tree.getSubtreeWithPath("0").hasBrotherSameCount());
+		Assert.assertEquals(0, tree.countBrothersSameCount());
+		Assert.assertEquals(0, new BinarySearchTreeImpl<Integer>().countBrothersSameCount());
+	}
+
 	@Test
 	public void toStringSimetric_test() {
 		Assert.assertEquals("", ejemplo.toStringSimetric());
 		Assert.assertEquals("{30, ∅, ∅}", ejemplo.getSubtreeWithPath("10").toStringSimetric());
 	}
 
+	@Test
+	public void caminoBits_test() {
+		Assert.assertSame(ejemplo.getSubtreeWithPath("10"), ejemplo.getSubtreeWithPath(0b10, 2));
+		Assert.assertSame(ejemplo, ejemplo.getSubtreeWithPath(0, 0));
+		Assert.assertEquals(Integer.valueOf(2), ejemplo.getContentWithPath(0b00, 2));
+		BitSet path = new BitSet();
+		path.set(0);
+		path.set(1);
+		Assert.assertEquals(Integer.valueOf(30), ejemplo.getContentWithPath(path, 2));
+		Assert.assertSame(ejemplo.getSubtreeWithPath("11"), ejemplo.getSubtreeWithPath(path, 2));
+		Assert.assertSame(ejemplo.getSubtreeWithPath("11"), ejemplo.getSubtreeWithPath("00").getSimetric());
+		Assert.assertNull(ejemplo.getSimetric());
+		Assert.assertNull(ejemplo.getSubtreeWithPath("10").getSimetric());
+	}
+
+	@Test
+	public void caminoLargo_test() {
+		BinarySearchTreeImpl<Integer> tree = new BinarySearchTreeImpl<Integer>();
+		tree.insert(0);
+		for (int i = 1; i <= 100; i++) {
+			tree.insert(i);
+			tree.insert(-i);
+		}
+		StringBuilder right = new StringBuilder();
+		StringBuilder left = new StringBuilder();
+		for (int i = 0; i < 100; i++) {
+			right.append('1');
+			left.append('0');
+		}
+		Assert.assertEquals(Integer.valueOf(100), tree.getContentWithPath(right.toString()));
+		Assert.assertEquals("{-100, ∅, ∅}", tree.getSubtreeWithPath(right.toString()).toStringSimetric());
+		Assert.assertSame(tree.getSubtreeWithPath(left.toString()), tree.getSubtreeWithPath(right.toString()).getSimetric());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void caminoBits_exception_test() {
+		ejemplo.getSubtreeWithPath(0b100, 2);
+	}
+
+	@Test(expected = NoSuchElementException.class)
+	public void caminoBits_Nosuch_test() {
+		ejemplo.getContentWithPath(0b011, 3);
+	}
+
+	@Test
+	public void writeTo_test() throws IOException {
+		ejemplo.insert(20);
+		ejemplo.getSubtreeWithPath("0").setTag("b", 1);
+		ejemplo.getSubtreeWithPath("0").setTag("a", "x");
+		StringWriter out = new StringWriter();
+		ejemplo.writeTo(out);
+		Assert.assertEquals("{10, {5 [(a, x), (b, 1)], {2, ∅, ∅}, ∅}, {20(2), {15, ∅, ∅}, {30, ∅, ∅}}}", out.toString());
+		Assert.assertEquals(out.toString(), ejemplo.toString());
+		StringBuilder rendered = new StringBuilder();
+		ejemplo.render(rendered);
+		Assert.assertEquals(ejemplo.render(), rendered.toString());
+		Assert.assertTrue(rendered.toString().startsWith("10\n|  5 [(a, x), (b, 1)]\n|  |  2\n|  |  |  ∅\n|  |  |  ∅\n|  |  ∅\n"));
+	}
+
+	@Test
+	public void toStringProfundo_test() {
+		BinarySearchTreeImpl<Integer> tree = new BinarySearchTreeImpl<Integer>();
+		for (int i = 0; i < 10000; i++) {
+			tree.insert(i);
+		}
+		String s = tree.toString();
+		Assert.assertTrue(s.startsWith("{0, ∅, {1, ∅, {2, ∅, "));
+		Assert.assertTrue(s.endsWith("{9999, ∅, ∅}" + new String(new char[9999]).replace("\0", "}")));
+		//	render repite la sangria en cada linea: cuadratico en la altura
+		tree.split(2000);
+		String indent = new String(new char[2000]).replace("\0", "|  ");
+		Assert.assertTrue(tree.render().endsWith("1999\n" + indent + "∅\n" + indent + "∅\n"));
+	}
+
+	@Test
+	public void parse_test() throws IOException {
+		String text = "{50, {30(2) [(descend, 2), (nombre, a b)], {10, ∅, ∅}, ∅}, {80, ∅, {90(12), ∅, ∅}}}";
+		BinarySearchTreeImpl<Integer> tree = BinarySearchTreeImpl.parse(new StringReader(text), Integer::valueOf);
+		Assert.assertEquals(text, tree.toString());
+		Assert.assertEquals(5, tree.size());
+		Assert.assertEquals(17, tree.instancesCount());
+		Assert.assertEquals(Integer.valueOf(2), tree.getSubtreeWithPath("0").getTag("descend"));
+		Assert.assertEquals("a b", tree.getSubtreeWithPath("0").getTag("nombre"));
+		Assert.assertSame(tree.getSubtreeWithPath("1"), tree.getSubtreeWithPath("11").father);
+		Assert.assertTrue(tree.contains(90));
+		Assert.assertTrue(BinarySearchTreeImpl.parse(new StringReader("∅"), Integer::valueOf).isEmpty());
+
+		//	Misma forma aunque no sea la de insertar los elementos en orden
+		ejemplo.tagDescendent();
+		BinarySearchTreeImpl<String> strings = BinarySearchTreeImpl.parse(new StringReader(ejemplo.toString()), String::valueOf);
+		Assert.assertEquals(ejemplo.toString(), strings.toString());
+		Assert.assertEquals(ejemplo.render(), strings.render());
+
+		//	Limitaciones documentadas: etiqueta "12" vuelve como Integer y
+		//	un contenido con coma no se puede leer
+		BinarySearchTreeImpl<String> coma = new BinarySearchTreeImpl<String>();
+		coma.insert("a,b");
+		coma.setTag("n", "12");
+		try {
+			BinarySearchTreeImpl.parse(new StringReader(coma.toString()), String::valueOf);
+			Assert.fail();
+		} catch (IllegalArgumentException e) {
+		}
+		coma = BinarySearchTreeImpl.parse(new StringReader("{ab [(n, 12)], ∅, ∅}"), String::valueOf);
+		Assert.assertEquals(Integer.valueOf(12), coma.getTag("n"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void parse_exception_test() throws IOException {
+		BinarySearchTreeImpl.parse(new StringReader("{50, ∅}"), Integer::valueOf);
+	}
+
+	/**
+	 * Instantanea de un solo nodo, sin etiquetas, con los bytes del nodo
+	 * dados.
+	 */
+	private static void writeOneNodeSnapshot(Path file, byte... node) throws IOException {
+		ByteBuffer b = ByteBuffer.allocate(14 + node.length);
+		b.put(new byte[] { 'B', 'S', 'T', '1', 0 }).putLong(1).put((byte) 0).put(node);
+		Files.write(file, b.array());
+	}
+
+	@Test
+	public void snapshotCorrupto_test() throws IOException {
+		Path file = Files.createTempFile("bst", ".snap");
+		try {
+			writeOneNodeSnapshot(file, (byte) 2, (byte) 3);
+			Assert.assertEquals("{1(3), ∅, ∅}", BinarySearchTreeImpl.load(file, KeyCodec.INTEGER).toString());
+			byte[][] bad = {
+					{ 2, 0 },                                  // count 0
+					{ 2, -128, -128, -128, -128, 16 },         // count 2^32
+					{ -128, -128, -128, -128, -128, 1, 1 },    // clave de 2^34 en un int
+			};
+			for (byte[] node : bad) {
+				writeOneNodeSnapshot(file, node);
+				try {
+					BinarySearchTreeImpl.load(file, KeyCodec.INTEGER);
+					Assert.fail();
+				} catch (StreamCorruptedException e) {
+				}
+			}
+			//	Longitudes de cadena negativa (mas de 63 bits) y mayor que el fichero
+			byte[][] strings = {
+					{ -1, -1, -1, -1, -1, -1, -1, -1, -1, 1, 1 },
+					{ -1, -1, -1, -1, 7, 1 },
+			};
+			for (byte[] node : strings) {
+				writeOneNodeSnapshot(file, node);
+				try {
+					BinarySearchTreeImpl.load(file, KeyCodec.STRING);
+					Assert.fail();
+				} catch (StreamCorruptedException e) {
+				}
+			}
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void snapshot_test() throws IOException {
+		Path file = Files.createTempFile("bst", ".snap");
+		try {
+			ejemplo.insert(30, 30);
+			ejemplo.tagDescendent();
+			ejemplo.getSubtreeWithPath("0").setTag("nombre", "cinco");
+			ejemplo.save(file, KeyCodec.INTEGER, true);
+			BinarySearchTreeImpl<Integer> tree = BinarySearchTreeImpl.load(file, KeyCodec.INTEGER);
+			Assert.assertEquals(ejemplo.toString(), tree.toString());
+			Assert.assertEquals(8, tree.instancesCount());
+			Assert.assertSame(tree.getSubtreeWithPath("1"), tree.getSubtreeWithPath("11").father);
+
+			ejemplo.save(file, KeyCodec.INTEGER, false);
+			ejemplo.filterTags();
+			Assert.assertEquals(ejemplo.toString(), BinarySearchTreeImpl.load(file, KeyCodec.INTEGER).toString());
+
+			new BinarySearchTreeImpl<Integer>().save(file, KeyCodec.INTEGER, true);
+			Assert.assertTrue(BinarySearchTreeImpl.load(file, KeyCodec.INTEGER).isEmpty());
+
+			//	Mas nodos que el buffer y claves de varios tamanos
+			Random rnd = new Random(22);
+			BinarySearchTreeImpl<Long> longs = new BinarySearchTreeImpl<Long>();
+			BinarySearchTreeImpl<String> strings = new BinarySearchTreeImpl<String>();
+			for (int i = 0; i < 100000; i++) {
+				long x = rnd.nextLong() >> rnd.nextInt(64);
+				longs.insert(x);
+				if (i % 20 == 0) {
+					strings.insert("clave " + x + " ñ");
+				}
+			}
+			longs.save(file, KeyCodec.LONG, false);
+			BinarySearchTreeImpl<Long> loaded = BinarySearchTreeImpl.load(file, KeyCodec.LONG);
+			Assert.assertEquals(longs.size(), loaded.size());
+			Assert.assertEquals(toList(longs.iteratorPreorder()), toList(loaded.iteratorPreorder()));
+			strings.save(file, KeyCodec.STRING, false);
+			Assert.assertEquals(strings.toString(), BinarySearchTreeImpl.load(file, KeyCodec.STRING).toString());
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void mappedSnapshot_test() throws IOException {
+		Path file = Files.createTempFile("bst", ".map");
+		try {
+			ejemplo.insert(30, 30, 5);
+			MappedTreeSnapshot.write(ejemplo, file, Integer::longValue);
+			MappedTreeSnapshot mapped = MappedTreeSnapshot.open(file);
+			Assert.assertEquals(6, mapped.size());
+			Assert.assertEquals(9, mapped.instancesCount());
+			Assert.assertTrue(mapped.contains(15));
+			Assert.assertFalse(mapped.contains(16));
+			Assert.assertEquals(3, mapped.count(30));
+			Assert.assertEquals(2, mapped.count(5));
+			Assert.assertEquals(0, mapped.count(7));
+			Assert.assertEquals(ejemplo.rank(20), mapped.rank(20));
+			Assert.assertEquals(ejemplo.rank(25), mapped.rank(25));
+			Assert.assertEquals(4, mapped.rangeCount(3, 20));
+			Assert.assertEquals(5, mapped.rangeInstances(3, 20));
+			Assert.assertEquals(0, mapped.rangeCount(20, 3));
+			Assert.assertEquals(Arrays.asList(2L, 5L, 10L, 15L, 20L, 30L), toList(mapped.iterator()));
+			Assert.assertEquals(Arrays.asList(10L, 15L), toList(mapped.rangeIterator(6, 19)));
+			Assert.assertFalse(mapped.rangeIterator(31, 40).hasNext());
+
+			MappedTreeSnapshot.write(new BinarySearchTreeImpl<Integer>(), file, Integer::longValue);
+			mapped = MappedTreeSnapshot.open(file);
+			Assert.assertEquals(0, mapped.size());
+			Assert.assertFalse(mapped.contains(0));
+			Assert.assertFalse(mapped.iterator().hasNext());
+
+			Random rnd = new Random(23);
+			BinarySearchTreeImpl<Long> longs = new BinarySearchTreeImpl<Long>();
+			for (int i = 0; i < 50000; i++) {
+				longs.insert(rnd.nextLong() >> rnd.nextInt(64));
+			}
+			MappedTreeSnapshot.write(longs, file, Long::longValue);
+			mapped = MappedTreeSnapshot.open(file);
+			Assert.assertEquals(longs.size(), mapped.size());
+			Assert.assertEquals(toList(longs.iteratorInorder()), toList(mapped.iterator()));
+			for (int i = 0; i < 1000; i++) {
+				long a = rnd.nextLong() >> rnd.nextInt(64);
+				long b = rnd.nextLong() >> rnd.nextInt(64);
+				long lo = Math.min(a, b);
+				long hi = Math.max(a, b);
+				Assert.assertEquals(longs.contains(a), mapped.contains(a));
+				Assert.assertEquals(longs.rank(a), mapped.rank(a));
+				Assert.assertEquals(longs.rangeInstances(lo, hi), mapped.rangeInstances(lo, hi));
+				Assert.assertEquals(toList(longs.rangeIterator(lo, hi)), toList(mapped.rangeIterator(lo, hi)));
+			}
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void journal_test() throws IOException {
+		Path dir = Files.createTempDirectory("bst");
+		Path snap = dir.resolve("arbol.snap");
+		Path journal = dir.resolve("arbol.log");
+		try {
+			TreeJournal<Integer> log = TreeJournal.open(snap, journal, KeyCodec.INTEGER, 3, TreeJournal.Sync.COMMIT);
+			Assert.assertTrue(log.getTree().isEmpty());
+			Assert.assertTrue(log.insert(10));
+			log.insert(20);
+			Assert.assertFalse(log.insert(20));
+			log.insert(30);
+			log.insert(5);
+			log.remove(20);
+			Assert.assertEquals(1, log.remove(30, 5));
+			Assert.assertEquals(1, log.removeAll(5));
+			try {
+				log.remove(99);
+				Assert.fail();
+			} catch (NoSuchElementException e) {
+			}
+			String expected = log.getTree().toString();
+			Assert.assertEquals("{10, ∅, {20, ∅, ∅}}", expected);
+			log.close();
+
+			//	Una escritura cortada al final se descarta
+			long size = Files.size(journal);
+			try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.WRITE)) {
+				channel.write(ByteBuffer.wrap(new byte[] { 0, 0, 0, 40, 0, 0, 0, 2, 0, 0, 0, 0, 1 }), size);
+			}
+			log = TreeJournal.open(snap, journal, KeyCodec.INTEGER, 3, TreeJournal.Sync.NONE);
+			Assert.assertEquals(8, log.getReplayed());
+			Assert.assertEquals(expected, log.getTree().toString());
+			Assert.assertEquals(size, Files.size(journal));
+
+			log.checkpoint();
+			log.insert(40);
+			log.close();
+			log = TreeJournal.open(snap, journal, KeyCodec.INTEGER, 3, TreeJournal.Sync.NONE);
+			Assert.assertEquals(1, log.getReplayed());
+			Assert.assertEquals("{10, ∅, {20, ∅, {40, ∅, ∅}}}", log.getTree().toString());
+			log.close();
+
+			//	Caida en un checkpoint con la instantanea ya cambiada: el
+			//	diario no se repite
+			BinarySearchTreeImpl<Integer> other = new BinarySearchTreeImpl<Integer>();
+			other.insert(7);
+			TreeSnapshot.save(other, snap, KeyCodec.INTEGER, false, 2);
+			log = TreeJournal.open(snap, journal, KeyCodec.INTEGER, 1, TreeJournal.Sync.COMMIT);
+			Assert.assertEquals(0, log.getReplayed());
+			Assert.assertEquals("{7, ∅, ∅}", log.getTree().toString());
+			log.close();
+			Assert.assertEquals(Integer.valueOf(7), BinarySearchTreeImpl.load(snap, KeyCodec.INTEGER).getContentWithPath(""));
+
+			//	Si no se puede escribir, la operacion no llega al arbol y el
+			//	diario ya no admite mas
+			log = TreeJournal.open(snap, journal, KeyCodec.INTEGER, 1, TreeJournal.Sync.COMMIT);
+			log.close();
+			try {
+				log.insert(8);
+				Assert.fail();
+			} catch (IOException e) {
+			}
+			Assert.assertEquals("{7, ∅, ∅}", log.getTree().toString());
+			try {
+				log.remove(7);
+				Assert.fail();
+			} catch (IllegalStateException e) {
+			}
+			Assert.assertEquals("{7, ∅, ∅}", log.getTree().toString());
+			log = TreeJournal.open(snap, journal, KeyCodec.INTEGER, 1, TreeJournal.Sync.COMMIT);
+			Assert.assertEquals("{7, ∅, ∅}", log.getTree().toString());
+			log.close();
+		} finally {
+			Files.deleteIfExists(snap);
+			Files.deleteIfExists(journal);
+			Files.delete(dir);
+		}
+	}
+
+	@Test
+	public void mappedSnapshot_exception_test() throws IOException {
+		Path file = Files.createTempFile("bst", ".map");
+		try {
+			ejemplo.save(file, KeyCodec.INTEGER, false);
+			try {
+				MappedTreeSnapshot.open(file);
+				Assert.fail();
+			} catch (StreamCorruptedException e) {
+			}
+
+			//	Una funcion que no respeta el orden no se puede guardar
+			BinarySearchTreeImpl<String> strings = new BinarySearchTreeImpl<String>();
+			strings.insert("a", "b", "c", "Aa", "BB");
+			try {
+				MappedTreeSnapshot.write(strings, file, String::hashCode);
+				Assert.fail();
+			} catch (IllegalArgumentException e) {
+			}
+
+			//	Hijo derecho de la raiz (nodo 0) apuntando a si misma
+			MappedTreeSnapshot.write(ejemplo, file, Integer::longValue);
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+				channel.write(ByteBuffer.wrap(new byte[] { 0, 0, 0, 0 }), MappedTreeSnapshot.NODE + 16);
+			}
+			MappedTreeSnapshot mapped = MappedTreeSnapshot.open(file);
+			Assert.assertTrue(mapped.contains(5));
+			try {
+				mapped.contains(30);
+				Assert.fail();
+			} catch (UncheckedIOException e) {
+				Assert.assertTrue(e.getCause() instanceof StreamCorruptedException);
+			}
+		} finally {
+			Files.delete(file);
+		}
+	}
+
 	@Test
 	public void getRoadUpRight_test() {
 		Assert.assertEquals(Integer.valueOf(20), ejemplo.getRoadUpRight(2, 2, 1));
@@ -308,6 +1211,155 @@ public class BinarySearchTreeTests {
 		ejemplo.getRoadUpRight(35, 3, 5);
 	}
 
+	@Test
+	public void tags_test() {
+		Assert.assertNull(ejemplo.getTag("a"));
+		Assert.assertTrue(ejemplo.getTags().isEmpty());
+		ejemplo.setTag("c", 3);
+		ejemplo.setTag("a", 1);
+		ejemplo.getTags().put("b", 2);
+		ejemplo.setTag("a", 4);
+		Assert.assertEquals(3, ejemplo.getTags().size());
+		Assert.assertEquals(Integer.valueOf(4), ejemplo.getTag("a"));
+		ejemplo.getSubtreeWithPath("0").setTag("a", 5);
+		Assert.assertEquals("{10 [(a, 4), (b, 2), (c, 3)], {5 [(a, 5)], {2, ∅, ∅}, ∅}, {20, {15, ∅, ∅}, {30, ∅, ∅}}}", ejemplo.toString());
+		ejemplo.filterTags("b", "d");
+		Assert.assertEquals("{10 [(b, 2)], {5, {2, ∅, ∅}, ∅}, {20, {15, ∅, ∅}, {30, ∅, ∅}}}", ejemplo.toString());
+		ejemplo.getTags().remove("b");
+		Assert.assertEquals("10\n|  5\n|  |  2\n|  |  |  ∅\n|  |  |  ∅\n|  |  ∅\n|  20\n|  |  15\n|  |  |  ∅\n|  |  |  ∅\n|  |  30\n|  |  |  ∅\n|  |  |  ∅\n", ejemplo.render());
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void tagsSubarbolVacio_test() {
+		ejemplo.getSubtreeWithPath("0").getSubtree(1).setTag("a", 1);
+	}
+
+	@Test
+	public void subarbolVacioInmutable_test() {
+		BinarySearchTreeImpl<Integer> vacio = (BinarySearchTreeImpl<Integer>) ejemplo.getSubtreeWithPath("0").getSubtree(1);
+		List<Runnable> cambios = Arrays.asList(
+				() -> vacio.insert(Arrays.asList(1, 2, 3)),
+				() -> vacio.insert(1, 2, 3),
+				() -> vacio.insertParallel(Arrays.asList(1, 2, 3)),
+				() -> vacio.insertBatch(Arrays.asList(1, 2, 3)),
+				() -> vacio.insertBatch(1, 2, 3),
+				() -> vacio.remove(1),
+				() -> vacio.remove(1, 2),
+				() -> vacio.removeAll(1),
+				() -> vacio.remove(1, 2, 3),
+				() -> vacio.removeAll(Arrays.asList(1, 2)),
+				() -> vacio.filterTags());
+		for (Runnable cambio : cambios) {
+			try {
+				cambio.run();
+				Assert.fail();
+			} catch (UnsupportedOperationException e) {
+			}
+		}
+		Assert.assertTrue(vacio.isEmpty());
+		Assert.assertSame(vacio, other.getSubtreeWithPath("0").getSubtree(1));
+		Assert.assertEquals("{10, {5, {2, ∅, ∅}, ∅}, {20, {15, {12, ∅, ∅}, ∅}, ∅}}", other.toString());
+	}
+
+	@Test
+	public void tagStore_test() {
+		ejemplo.setTag("nombre", "raiz");
+		ejemplo.setTag("a", 1);
+		ejemplo.useTagStore();
+		ejemplo.insert(12);
+		ejemplo.tagDescendent();
+		ejemplo.parentChildPairsTagPreorder();
+		Assert.assertEquals(Integer.valueOf(7), ejemplo.getSubtreeWithPath("00").getTag("descend"));
+		Assert.assertEquals("{10 [(a, 1), (descend, 5), (nombre, raiz), (preorder, 1)], {5 [(descend, 6), (preorder, 2)], {2 [(descend, 7), (preorder, 3)], ∅, ∅}, ∅}, {20 [(descend, 2), (preorder, 4)], {15 [(descend, 3), (preorder, 5)], {12 [(descend, 4), (preorder, 6)], ∅, ∅}, ∅}, {30 [(descend, 1), (preorder, 7)], ∅, ∅}}}", ejemplo.toString());
+		ejemplo.getSubtreeWithPath("1").filterTags("preorder");
+		Assert.assertEquals("{20 [(preorder, 4)], {15 [(preorder, 5)], {12 [(preorder, 6)], ∅, ∅}, ∅}, {30 [(preorder, 7)], ∅, ∅}}", ejemplo.getSubtreeWithPath("1").toString());
+		ejemplo.filterTags("descend", "nombre");
+		Assert.assertEquals("{10 [(descend, 5), (nombre, raiz)], {5 [(descend, 6)], {2 [(descend, 7)], ∅, ∅}, ∅}, {20, {15, {12, ∅, ∅}, ∅}, {30, ∅, ∅}}}", ejemplo.toString());
+		ejemplo.getTags().remove("descend");
+		ejemplo.getTags().put("descend", "x");
+		Assert.assertEquals("x", ejemplo.getTag("descend"));
+		Assert.assertEquals(2, ejemplo.getTags().size());
+	}
+
+	@Test
+	public void tagStoreRotaciones_test() {
+		AVLTreeImpl<Integer> tree = new AVLTreeImpl<Integer>();
+		tree.useTagStore();
+		tree.insert(1, 2);
+		tree.setTag("k", 1);
+		tree.getSubtreeWithPath("1").setTag("k", 2);
+		tree.insert(3);
+		Assert.assertEquals("{2 [(k, 2)], {1 [(k, 1)], ∅, ∅}, {3, ∅, ∅}}", tree.toString());
+	}
+
+	@Test
+	public void tagStoreOrdinales_test() {
+		ejemplo.useTagStore();
+		BinarySearchTreeImpl<Integer> hoja = ejemplo.getSubtreeWithPath("00");
+		hoja.setTag("k", 1);
+		int ordinal = hoja.ordinal;
+		//	Al salir del arbol se liberan su ordinal y sus etiquetas
+		ejemplo.remove(2);
+		Assert.assertEquals(-1, hoja.ordinal);
+		ejemplo.insert(7);
+		BinarySearchTreeImpl<Integer> nuevo = ejemplo.getSubtreeWithPath("01");
+		nuevo.setTag("j", 2);
+		Assert.assertEquals(ordinal, nuevo.ordinal);
+		Assert.assertNull(nuevo.getTag("k"));
+		//	Tambien el hijo que sube al eliminar un nodo con un solo hijo
+		ejemplo.getSubtreeWithPath("0").setTag("k", 3);
+		ejemplo.remove(5);
+		Assert.assertEquals(-1, nuevo.ordinal);
+		Assert.assertEquals("{10, {7 [(k, 3)], ∅, ∅}, {20, {15, ∅, ∅}, {30, ∅, ∅}}}", ejemplo.toString());
+
+		ejemplo.getSubtreeWithPath("1").setTag("nombre", "x");
+		Assert.assertTrue(ejemplo.tagStore.spilled);
+		ejemplo.filterTags("k");
+		Assert.assertFalse(ejemplo.tagStore.spilled);
+	}
+
+	@Test
+	public void tagStoreSplitJoin_test() {
+		ejemplo.useTagStore();
+		ejemplo.setTag("x", 1);
+		BinarySearchTreeImpl<Integer> mayores = ejemplo.split(15);
+		mayores.setTag("y", 5);
+		//	Los nodos de mayores siguen en el almacen de ejemplo
+		ejemplo.filterTags();
+		Assert.assertNull(ejemplo.getTag("x"));
+		Assert.assertEquals(Integer.valueOf(5), mayores.getTag("y"));
+
+		mayores.getSubtreeWithPath("1").setTag("z", 2);
+		ejemplo.getSubtreeWithPath("0").setTag("z", 3);
+		BinarySearchTreeImpl.join(ejemplo, mayores);
+		Assert.assertEquals("{10, {5 [(z, 3)], {2, ∅, ∅}, ∅}, {20 [(y, 5)], {15, ∅, ∅}, {30 [(z, 2)], ∅, ∅}}}", ejemplo.toString());
+		mayores.insert(40);
+		mayores.setTag("z", 9);
+		mayores.filterTags();
+		Assert.assertEquals("{40, ∅, ∅}", mayores.toString());
+		Assert.assertEquals("{10, {5 [(z, 3)], {2, ∅, ∅}, ∅}, {20 [(y, 5)], {15, ∅, ∅}, {30 [(z, 2)], ∅, ∅}}}", ejemplo.toString());
+		//	Tambien se filtran los nodos que vinieron de mayores
+		ejemplo.filterTags("y");
+		Assert.assertEquals("{10, {5, {2, ∅, ∅}, ∅}, {20 [(y, 5)], {15, ∅, ∅}, {30, ∅, ∅}}}", ejemplo.toString());
+	}
+
+	@Test
+	public void tagsSplitJoinEquilibrado_test() {
+		AVLTreeImpl<Integer> tree = new AVLTreeImpl<Integer>();
+		tree.insert(10, 20, 30, 40, 50, 60, 70);
+		tree.useTagStore();
+		tree.getSubtreeWithPath("00").setTag("k", 1);
+		tree.getSubtreeWithPath("1").setTag("nombre", "seis");
+		tree.setTag("k", 4);
+		BinarySearchTreeImpl<Integer> mayores = tree.split(35);
+		Assert.assertEquals("{20, {10 [(k, 1)], ∅, ∅}, {30, ∅, ∅}}", tree.toString());
+		Assert.assertEquals("{60 [(nombre, seis)], {40 [(k, 4)], ∅, {50, ∅, ∅}}, {70, ∅, ∅}}", mayores.toString());
+		BinarySearchTreeImpl.join(tree, mayores);
+		Assert.assertEquals("{30, {20, {10 [(k, 1)], ∅, ∅}, ∅}, {60 [(nombre, seis)], {40 [(k, 4)], ∅, {50, ∅, ∅}}, {70, ∅, ∅}}}", tree.toString());
+		tree.filterTags("nombre");
+		Assert.assertEquals("{30, {20, {10, ∅, ∅}, ∅}, {60 [(nombre, seis)], {40, ∅, {50, ∅, ∅}}, {70, ∅, ∅}}}", tree.toString());
+	}
+
 	@Test
 	public void tagOnlySonPreorder_test() {
 		Assert.assertEquals(0, ejemplo.tagOnlySonPreorder());
@@ -0,0 +1,168 @@
+package ule.edi.tree;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * Arbol binario de busqueda de enteros con repeticiones, sin objetos por
+ * nodo ni boxing: cada nodo es una posicion en arrays paralelos (elemento,
+ * count, hijos y padre).
+ *
+ * Tiene las mismas operaciones y criterios que un
+ * {@link BinarySearchTreeImpl} de Integer sin etiquetas, y el mismo
+ * toString(). Por ejemplo, insertando 10, 20, 5, 2, 15, 30 y 5 queda
+ *
+ * {10, {5(2), {2, ∅, ∅}, ∅}, {20, {15, ∅, ∅}, {30, ∅, ∅}}}
+ *
+ * Cada nodo ocupa 20 bytes repartidos en los arrays, en vez de la cabecera
+ * del nodo, sus referencias y el Integer del elemento.
+ */
+public final class IntBinarySearchTree extends PrimitiveBinarySearchTree {
+
+	private int[] keys = new int[count.length];
+
+	@Override
+	void growKeys(int capacity) {
+		keys = Arrays.copyOf(keys, capacity);
+	}
+
+	@Override
+	long keyAt(int node) {
+		return keys[node];
+	}
+
+	@Override
+	void setKey(int node, long key) {
+		keys[node] = (int) key;
+	}
+
+	/**
+	 * Ver {@link BinarySearchTreeImpl#insert(Comparable)}.
+	 *
+	 * @return true si se inserto en un nodo nuevo, false si ya estaba y se
+	 *         incremento su count
+	 */
+	public boolean insert(int element) {
+		return insertKey(element);
+	}
+
+	/**
+	 * Si el arbol esta vacio y los elementos estan ordenados, lo construye
+	 * equilibrado de una vez, como
+	 * {@link BinarySearchTreeImpl#insert(Comparable...)}; si no, los
+	 * inserta uno a uno.
+	 *
+	 * @return numero de instancias insertadas
+	 */
+	public int insert(int... elements) {
+		if (isEmpty() && buildIfSorted(elements.length, i -> elements[i])) {
+			return elements.length;
+		}
+		for (int element : elements) {
+			insertKey(element);
+		}
+		return elements.length;
+	}
+
+	public boolean contains(int element) {
+		return find(element) != NIL;
+	}
+
+	/**
+	 * @return instancias del elemento, 0 si no esta
+	 */
+	public int count(int element) {
+		return countOf(element);
+	}
+
+	/**
+	 * Ver {@link BinarySearchTreeImpl#remove(Comparable)}.
+	 *
+	 * @throws NoSuchElementException si el elemento no esta en el arbol
+	 */
+	public void remove(int element) {
+		removeInstances(find(element), 1);
+	}
+
+	/**
+	 * Ver {@link BinarySearchTreeImpl#remove(Comparable, int)}.
+	 *
+	 * @return numero de instancias eliminadas
+	 * @throws NoSuchElementException si el elemento no esta en el arbol
+	 * @throws IllegalArgumentException si num es negativo
+	 */
+	public int remove(int element, int num) {
+		return removeInstances(find(element), num);
+	}
+
+	/**
+	 * Ver {@link BinarySearchTreeImpl#removeAll(Comparable)}.
+	 *
+	 * @return numero de instancias eliminadas
+	 * @throws NoSuchElementException si el elemento no esta en el arbol
+	 */
+	public int removeAll(int element) {
+		return removeInstances(find(element), Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Ver {@link BinarySearchTreeImpl#getContentWithPath(String)}.
+	 */
+	public int getContentWithPath(String path) {
+		return keys[nodeWithPath(path)];
+	}
+
+	/**
+	 * Ver {@link BinarySearchTreeImpl#getContentWithPath(long, int)}.
+	 */
+	public int getContentWithPath(long bits, int length) {
+		return keys[nodeWithPath(bits, length)];
+	}
+
+	/**
+	 * Ver {@link BinarySearchTreeImpl#getContentWithPath(BitSet, int)}.
+	 */
+	public int getContentWithPath(BitSet path, int length) {
+		return keys[nodeWithPath(path, length)];
+	}
+
+	/**
+	 * Elementos diferentes en orden creciente.
+	 */
+	public PrimitiveIterator.OfInt iteratorInorder() {
+		return new Keys(new InorderNodes());
+	}
+
+	public PrimitiveIterator.OfInt iteratorPreorder() {
+		return new Keys(new PreorderNodes());
+	}
+
+	public PrimitiveIterator.OfInt iteratorPostorder() {
+		return new Keys(new PostorderNodes());
+	}
+
+	public PrimitiveIterator.OfInt iteratorWidth() {
+		return new Keys(new WidthNodes());
+	}
+
+	private final class Keys implements PrimitiveIterator.OfInt {
+
+		private final NodeIterator nodes;
+
+		Keys(NodeIterator nodes) {
+			this.nodes = nodes;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return nodes.hasNext();
+		}
+
+		@Override
+		public int nextInt() {
+			return keys[nodes.nextNode()];
+		}
+	}
+}
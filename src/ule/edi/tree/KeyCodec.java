@@ -0,0 +1,79 @@
+package ule.edi.tree;
+
+import java.io.IOException;
+
+/**
+ * Forma de guardar los elementos de un arbol en una instantanea binaria
+ * (ver {@link BinarySearchTreeImpl#save(java.nio.file.Path, KeyCodec, boolean)}).
+ *
+ * Hay codecs ya hechos para Integer, Long y String; para otros tipos basta
+ * con escribir y leer el elemento con los metodos de
+ * {@link SnapshotOutput} y {@link SnapshotInput}.
+ *
+ * @param <T> tipo de los elementos
+ */
+public interface KeyCodec<T> {
+
+	/**
+	 * Escribe el elemento.
+	 *
+	 * @param key elemento, no null
+	 * @param out destino
+	 * @throws IOException si falla la escritura
+	 */
+	void write(T key, SnapshotOutput out) throws IOException;
+
+	/**
+	 * Lee un elemento escrito con {@link #write(Object, SnapshotOutput)}.
+	 *
+	 * @param in origen
+	 * @return el elemento
+	 * @throws IOException si falla la lectura
+	 */
+	T read(SnapshotInput in) throws IOException;
+
+	/**
+	 * Enteros en zigzag y varint: de 1 a 5 bytes.
+	 */
+	KeyCodec<Integer> INTEGER = new KeyCodec<Integer>() {
+		@Override
+		public void write(Integer key, SnapshotOutput out) throws IOException {
+			out.writeSignedVarLong(key);
+		}
+
+		@Override
+		public Integer read(SnapshotInput in) throws IOException {
+			return in.readSignedVarInt();
+		}
+	};
+
+	/**
+	 * Enteros largos en zigzag y varint: de 1 a 10 bytes.
+	 */
+	KeyCodec<Long> LONG = new KeyCodec<Long>() {
+		@Override
+		public void write(Long key, SnapshotOutput out) throws IOException {
+			out.writeSignedVarLong(key);
+		}
+
+		@Override
+		public Long read(SnapshotInput in) throws IOException {
+			return in.readSignedVarLong();
+		}
+	};
+
+	/**
+	 * Cadenas en UTF-8 precedidas de su longitud.
+	 */
+	KeyCodec<String> STRING = new KeyCodec<String>() {
+		@Override
+		public void write(String key, SnapshotOutput out) throws IOException {
+			out.writeString(key);
+		}
+
+		@Override
+		public String read(SnapshotInput in) throws IOException {
+			return in.readString();
+		}
+	};
+}
@@ -0,0 +1,363 @@
+package ule.edi.tree;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.function.ToLongFunction;
+
+/**
+ * arbol binario de busqueda de solo lectura guardado en un fichero y
+ * consultado directamente sobre el fichero proyectado en memoria
+ * ({@link MappedByteBuffer}), sin crear ningun nodo en el heap.
+ *
+ * Varias JVM que abran el mismo fichero comparten sus paginas a traves de
+ * la cache del sistema operativo, y abrirlo no cuesta nada aunque el arbol
+ * sea enorme: solo se leen las paginas que tocan las consultas.
+ *
+ * Los elementos se guardan como long, asi que hace falta una funcion que
+ * pase cada elemento a un long respetando el orden (para Integer o Long
+ * basta con Integer::longValue o Long::longValue). Las consultas se hacen
+ * con esos long.
+ *
+ * Cada nodo ocupa {@value #NODE} bytes, en preorden a partir del registro
+ * 1 (el 0 es la cabecera):
+ *
+ * elemento (long), count (int), hijo izquierdo (int, -1 si no hay), hijo
+ * derecho (int), nodos del subarbol (int) e instancias del subarbol (long).
+ */
+public final class MappedTreeSnapshot {
+
+	static final int NODE = 32;
+
+	private static final long MAGIC = 0x4253544d41505031L; // "BSTMAPP1"
+
+	//	Un MappedByteBuffer no pasa de 2 GB: el fichero se proyecta en
+	//	trozos de 1 GB, que contienen siempre nodos enteros
+	private static final int SEGMENT_SHIFT = 30;
+	private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+	private static final int KEY = 0;
+	private static final int COUNT = 8;
+	private static final int LEFT = 12;
+	private static final int RIGHT = 16;
+	private static final int SIZE = 20;
+	private static final int INSTANCES = 24;
+
+	private final ByteBuffer[] segments;
+	private final int size;
+
+	private MappedTreeSnapshot(ByteBuffer[] segments, int size) {
+		this.segments = segments;
+		this.size = size;
+	}
+
+	/**
+	 * Escribe el arbol en el formato que lee {@link #open(Path)}.
+	 *
+	 * @param tree arbol a guardar
+	 * @param file fichero (se sobrescribe)
+	 * @param key pasa cada elemento a un long, respetando el orden
+	 * @throws IOException si falla la escritura
+	 * @throws IllegalArgumentException si key no respeta el orden (por
+	 *         ejemplo String::hashCode) y algun long queda fuera de los
+	 *         limites que le ponen sus antecesores
+	 */
+	public static <T extends Comparable<? super T>> void write(BinarySearchTreeImpl<T> tree, Path file, ToLongFunction<? super T> key) throws IOException {
+		if (tree == null || file == null || key == null) {
+			throw new IllegalArgumentException();
+		}
+		int n = tree.isEmpty() ? 0 : tree.size();
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			SnapshotOutput out = new SnapshotOutput(channel, 0, 1 << 20);
+			out.writeLong(MAGIC);
+			out.writeLong(n);
+			out.writeLong(0);
+			out.writeLong(0);
+			//	El hijo izquierdo va justo detras del nodo y el derecho
+			//	detras de todo el subarbol izquierdo. Con cada nodo se
+			//	apilan los limites [lo, hi] que le ponen sus antecesores
+			Deque<BinarySearchTreeImpl<T>> stack = new ArrayDeque<BinarySearchTreeImpl<T>>();
+			long[] bounds = new long[64];
+			int top = 0;
+			if (n > 0) {
+				stack.push(tree);
+				bounds[0] = Long.MIN_VALUE;
+				bounds[1] = Long.MAX_VALUE;
+				top = 2;
+			}
+			int index = 0;
+			while (!stack.isEmpty()) {
+				BinarySearchTreeImpl<T> node = stack.pop();
+				long hi = bounds[--top];
+				long lo = bounds[--top];
+				BinarySearchTreeImpl<T> left = node.getLeftBST();
+				BinarySearchTreeImpl<T> right = node.getRightBST();
+				long k = key.applyAsLong(node.content);
+				if (k < lo || k > hi || (left != null && k == Long.MIN_VALUE) || (right != null && k == Long.MAX_VALUE)) {
+					throw new IllegalArgumentException("key " + k + " of " + node.content + " breaks the order");
+				}
+				out.writeLong(k);
+				out.writeInt(node.count);
+				out.writeInt(left == null ? -1 : index + 1);
+				out.writeInt(right == null ? -1 : index + 1 + BinarySearchTreeImpl.sizeOf(left));
+				out.writeInt(node.size);
+				out.writeLong(node.instances);
+				index++;
+				if (top + 4 > bounds.length) {
+					bounds = Arrays.copyOf(bounds, bounds.length * 2);
+				}
+				if (right != null) {
+					stack.push(right);
+					bounds[top++] = k + 1;
+					bounds[top++] = hi;
+				}
+				if (left != null) {
+					stack.push(left);
+					bounds[top++] = lo;
+					bounds[top++] = k - 1;
+				}
+			}
+			out.flush();
+		}
+	}
+
+	/**
+	 * Proyecta en memoria, de solo lectura, un fichero escrito con
+	 * {@link #write(BinarySearchTreeImpl, Path, ToLongFunction)}.
+	 *
+	 * Los indices de los hijos se comprueban al leerlos: si el fichero esta
+	 * corrupto las consultas lanzan UncheckedIOException con una
+	 * StreamCorruptedException dentro.
+	 *
+	 * @param file fichero
+	 * @return el arbol proyectado
+	 * @throws IOException si falla la lectura o el fichero no es valido
+	 */
+	public static MappedTreeSnapshot open(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long length = channel.size();
+			if (length < NODE) {
+				throw new StreamCorruptedException("not a mapped tree snapshot");
+			}
+			int count = (int) ((length + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+			ByteBuffer[] segments = new ByteBuffer[count];
+			for (int s = 0; s < count; s++) {
+				long from = (long) s << SEGMENT_SHIFT;
+				segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, from, Math.min(length - from, 1L << SEGMENT_SHIFT));
+			}
+			if (segments[0].getLong(0) != MAGIC) {
+				throw new StreamCorruptedException("not a mapped tree snapshot");
+			}
+			long n = segments[0].getLong(8);
+			if (n < 0 || n > Integer.MAX_VALUE || length != (n + 1) * NODE) {
+				throw new StreamCorruptedException("bad node count " + n);
+			}
+			//	La proyeccion sigue valida al cerrar el canal
+			return new MappedTreeSnapshot(segments, (int) n);
+		}
+	}
+
+	private long position(int node, int field) {
+		return (node + 1L) * NODE + field;
+	}
+
+	private long getLong(int node, int field) {
+		long p = position(node, field);
+		return segments[(int) (p >>> SEGMENT_SHIFT)].getLong((int) (p & SEGMENT_MASK));
+	}
+
+	private int getInt(int node, int field) {
+		long p = position(node, field);
+		return segments[(int) (p >>> SEGMENT_SHIFT)].getInt((int) (p & SEGMENT_MASK));
+	}
+
+	private long key(int node) {
+		return getLong(node, KEY);
+	}
+
+	private int left(int node) {
+		return child(node, getInt(node, LEFT));
+	}
+
+	private int right(int node) {
+		return child(node, getInt(node, RIGHT));
+	}
+
+	/**
+	 * En preorden un hijo va siempre detras de su padre: con un fichero
+	 * corrupto las bajadas siguen acabando, porque el indice crece.
+	 */
+	private int child(int node, int child) {
+		if (child != -1 && (child <= node || child >= size)) {
+			throw new UncheckedIOException(new StreamCorruptedException("bad child " + child + " in node " + node));
+		}
+		return child;
+	}
+
+	private int sizeOf(int node) {
+		return node < 0 ? 0 : getInt(node, SIZE);
+	}
+
+	private long instancesOf(int node) {
+		return node < 0 ? 0 : getLong(node, INSTANCES);
+	}
+
+	/**
+	 * @return numero de elementos diferentes
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return numero total de instancias
+	 */
+	public long instancesCount() {
+		return instancesOf(size == 0 ? -1 : 0);
+	}
+
+	private int find(long key) {
+		int node = size == 0 ? -1 : 0;
+		while (node >= 0) {
+			long k = key(node);
+			if (key == k) {
+				return node;
+			}
+			node = key < k ? left(node) : right(node);
+		}
+		return -1;
+	}
+
+	public boolean contains(long key) {
+		return find(key) >= 0;
+	}
+
+	/**
+	 * @return instancias del elemento, 0 si no esta
+	 */
+	public int count(long key) {
+		int node = find(key);
+		return node < 0 ? 0 : getInt(node, COUNT);
+	}
+
+	/**
+	 * Numero de instancias menores que key, como
+	 * {@link BinarySearchTreeImpl#rank(Comparable)}.
+	 */
+	public long rank(long key) {
+		return countBelow(key, false, false);
+	}
+
+	/**
+	 * Elementos diferentes en [lo, hi], como
+	 * {@link BinarySearchTreeImpl#rangeCount(Comparable, Comparable)}.
+	 */
+	public int rangeCount(long lo, long hi) {
+		if (lo > hi) {
+			return 0;
+		}
+		return (int) (countBelow(hi, true, true) - countBelow(lo, false, true));
+	}
+
+	/**
+	 * Instancias en [lo, hi], como
+	 * {@link BinarySearchTreeImpl#rangeInstances(Comparable, Comparable)}.
+	 */
+	public long rangeInstances(long lo, long hi) {
+		if (lo > hi) {
+			return 0;
+		}
+		return countBelow(hi, true, false) - countBelow(lo, false, false);
+	}
+
+	private long countBelow(long x, boolean inclusive, boolean distinct) {
+		long below = 0;
+		int node = size == 0 ? -1 : 0;
+		while (node >= 0) {
+			long k = key(node);
+			if (x < k) {
+				node = left(node);
+			} else {
+				int l = left(node);
+				long here = distinct ? 1 : getInt(node, COUNT);
+				long leftPart = distinct ? sizeOf(l) : instancesOf(l);
+				if (x == k) {
+					return below + leftPart + (inclusive ? here : 0);
+				}
+				below += leftPart + here;
+				node = right(node);
+			}
+		}
+		return below;
+	}
+
+	/**
+	 * Recorre los elementos diferentes en orden creciente.
+	 */
+	public PrimitiveIterator.OfLong iterator() {
+		return new RangeIterator(Long.MIN_VALUE, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Recorre en orden creciente los elementos diferentes en [lo, hi],
+	 * guardando solo el camino hasta el siguiente.
+	 */
+	public PrimitiveIterator.OfLong rangeIterator(long lo, long hi) {
+		return new RangeIterator(lo, hi);
+	}
+
+	private final class RangeIterator implements PrimitiveIterator.OfLong {
+
+		private final long hi;
+		private int[] stack = new int[32];
+		private int depth;
+
+		RangeIterator(long lo, long hi) {
+			this.hi = hi;
+			//	Camino hasta el primer elemento >= lo
+			int node = lo > hi || size == 0 ? -1 : 0;
+			while (node >= 0) {
+				if (key(node) >= lo) {
+					push(node);
+					node = left(node);
+				} else {
+					node = right(node);
+				}
+			}
+		}
+
+		private void push(int node) {
+			if (depth == stack.length) {
+				stack = Arrays.copyOf(stack, depth * 2);
+			}
+			stack[depth++] = node;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return depth > 0 && key(stack[depth - 1]) <= hi;
+		}
+
+		@Override
+		public long nextLong() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			int node = stack[--depth];
+			for (int n = right(node); n >= 0; n = left(n)) {
+				push(n);
+			}
+			return key(node);
+		}
+	}
+}
@@ -0,0 +1,580 @@
+package ule.edi.tree;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.ConcurrentModificationException;
+import java.util.NoSuchElementException;
+import java.util.function.IntToLongFunction;
+
+/**
+ * Parte comun de {@link IntBinarySearchTree} y {@link LongBinarySearchTree}:
+ * arbol binario de busqueda con repeticiones cuyos nodos son posiciones en
+ * arrays paralelos (count, hijo izquierdo, hijo derecho y padre) en vez de
+ * objetos. Las subclases solo guardan los elementos en otro array de tipo
+ * primitivo y dan acceso a ellos como long (un int se amplia sin cambiar
+ * el orden); la busqueda, la insercion, la eliminacion y toString estan
+ * aqui, y ellas ponen los metodos publicos con su tipo.
+ *
+ * Los huecos de los nodos eliminados se encadenan en una lista libre (por
+ * el array del hijo derecho) y se reutilizan antes de hacer crecer los
+ * arrays.
+ *
+ * Los criterios son los de {@link BinarySearchTreeImpl}: un nodo por
+ * elemento diferente con su count, y al eliminar un nodo con dos hijos se
+ * sustituye por el menor de sus mayores.
+ */
+abstract class PrimitiveBinarySearchTree {
+
+	static final int NIL = -1;
+	private static final int CLOSE = -2;
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	int[] count;
+	int[] left;
+	int[] right;
+	int[] father;
+
+	int root = NIL;
+	int modCount;
+
+	private int size;       // nodos en el arbol
+	private long instances;
+	private int used;       // posiciones usadas alguna vez
+	private int free = NIL; // primera posicion de la lista libre
+
+	PrimitiveBinarySearchTree() {
+		count = new int[INITIAL_CAPACITY];
+		left = new int[INITIAL_CAPACITY];
+		right = new int[INITIAL_CAPACITY];
+		father = new int[INITIAL_CAPACITY];
+	}
+
+	/**
+	 * Hace crecer el array de elementos hasta capacity.
+	 */
+	abstract void growKeys(int capacity);
+
+	/**
+	 * Elemento del nodo.
+	 */
+	abstract long keyAt(int node);
+
+	/**
+	 * Pone el elemento del nodo. key siempre cabe en el tipo de la
+	 * subclase: viene de sus metodos publicos o de otro nodo.
+	 */
+	abstract void setKey(int node, long key);
+
+	/**
+	 * @return numero de elementos diferentes
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return numero total de instancias
+	 */
+	public long instancesCount() {
+		return instances;
+	}
+
+	public boolean isEmpty() {
+		return root == NIL;
+	}
+
+	/**
+	 * Vacia el arbol, conservando la capacidad de los arrays.
+	 */
+	public void clear() {
+		root = NIL;
+		size = 0;
+		instances = 0;
+		used = 0;
+		free = NIL;
+		modCount++;
+	}
+
+	/**
+	 * @return nodo del elemento, o NIL si no esta
+	 */
+	int find(long element) {
+		int node = root;
+		while (node != NIL) {
+			long key = keyAt(node);
+			if (key == element) {
+				break;
+			}
+			node = element < key ? left[node] : right[node];
+		}
+		return node;
+	}
+
+	/**
+	 * Ver {@link BinarySearchTreeImpl#insert(Comparable)}.
+	 *
+	 * @return true si se inserto en un nodo nuevo, false si ya estaba y se
+	 *         incremento su count
+	 */
+	boolean insertKey(long element) {
+		int parent = NIL;
+		int node = root;
+		while (node != NIL) {
+			long key = keyAt(node);
+			if (element == key) {
+				addInstance(node);
+				return false;
+			}
+			parent = node;
+			node = element < key ? left[node] : right[node];
+		}
+		node = newNode(parent);
+		setKey(node, element);
+		if (parent != NIL) {
+			if (element < keyAt(parent)) {
+				left[parent] = node;
+			} else {
+				right[parent] = node;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Si los length elementos que da element estan ordenados, construye con
+	 * ellos este arbol, que tiene que estar vacio, agrupando los repetidos
+	 * en count, como {@link BinarySearchTreeImpl#insert(Comparable...)}.
+	 * El nodo i es el i-esimo elemento diferente.
+	 *
+	 * @return false si no estaban ordenados (y el arbol sigue vacio)
+	 */
+	boolean buildIfSorted(int length, IntToLongFunction element) {
+		int distinct = 0;
+		for (int i = 0; i < length; i++) {
+			if (i > 0) {
+				long previous = element.applyAsLong(i - 1);
+				long current = element.applyAsLong(i);
+				if (current < previous) {
+					return false;
+				}
+				if (current == previous) {
+					continue;
+				}
+			}
+			distinct++;
+		}
+		if (distinct == 0) {
+			return true;
+		}
+		clear();
+		if (count.length < distinct) {
+			grow(distinct);
+		}
+		int d = -1;
+		for (int i = 0; i < length; i++) {
+			long key = element.applyAsLong(i);
+			if (d >= 0 && key == keyAt(d)) {
+				count[d]++;
+			} else {
+				setKey(++d, key);
+				count[d] = 1;
+			}
+		}
+		root = build(0, distinct - 1, NIL);
+		used = distinct;
+		size = distinct;
+		instances = length;
+		return true;
+	}
+
+	/**
+	 * Enlaza los nodos lo..hi en un subarbol equilibrado con raiz en el
+	 * central.
+	 *
+	 * @return raiz del subarbol
+	 */
+	private int build(int lo, int hi, int parent) {
+		int mid = (lo + hi) >>> 1;
+		father[mid] = parent;
+		left[mid] = lo < mid ? build(lo, mid - 1, mid) : NIL;
+		right[mid] = mid < hi ? build(mid + 1, hi, mid) : NIL;
+		return mid;
+	}
+
+	/**
+	 * @return instancias del elemento, 0 si no esta
+	 */
+	int countOf(long element) {
+		int node = find(element);
+		return node == NIL ? 0 : count[node];
+	}
+
+	/**
+	 * Reserva un nodo con count 1 y sin hijos. El elemento lo pone quien
+	 * lo llama.
+	 */
+	private int newNode(int parent) {
+		int node;
+		if (free != NIL) {
+			node = free;
+			free = right[node];
+		} else {
+			if (used == count.length) {
+				grow(count.length + (count.length >> 1));
+			}
+			node = used++;
+		}
+		count[node] = 1;
+		left[node] = NIL;
+		right[node] = NIL;
+		father[node] = parent;
+		if (parent == NIL) {
+			root = node;
+		}
+		size++;
+		instances++;
+		modCount++;
+		return node;
+	}
+
+	private void grow(int capacity) {
+		count = Arrays.copyOf(count, capacity);
+		left = Arrays.copyOf(left, capacity);
+		right = Arrays.copyOf(right, capacity);
+		father = Arrays.copyOf(father, capacity);
+		growKeys(capacity);
+	}
+
+	/**
+	 * Suma una instancia a un nodo que ya existe.
+	 */
+	private void addInstance(int node) {
+		count[node]++;
+		instances++;
+		modCount++;
+	}
+
+	/**
+	 * Quita num instancias al nodo (o todas si tiene menos) y lo elimina si
+	 * no le quedan.
+	 *
+	 * @return numero de instancias eliminadas
+	 * @throws NoSuchElementException si node es NIL
+	 * @throws IllegalArgumentException si num es negativo
+	 */
+	int removeInstances(int node, int num) {
+		if (num < 0) {
+			throw new IllegalArgumentException();
+		}
+		if (node == NIL) {
+			throw new NoSuchElementException();
+		}
+		num = Math.min(count[node], num);
+		instances -= num;
+		modCount++;
+		if (num == count[node]) {
+			removeNode(node);
+		} else {
+			count[node] -= num;
+		}
+		return num;
+	}
+
+	private void removeNode(int node) {
+		if (left[node] != NIL && right[node] != NIL) {
+			int next = right[node];
+			while (left[next] != NIL) {
+				next = left[next];
+			}
+			setKey(node, keyAt(next));
+			count[node] = count[next];
+			node = next;
+		}
+		int child = left[node] != NIL ? left[node] : right[node];
+		int parent = father[node];
+		if (child != NIL) {
+			father[child] = parent;
+		}
+		if (parent == NIL) {
+			root = child;
+		} else if (left[parent] == node) {
+			left[parent] = child;
+		} else {
+			right[parent] = child;
+		}
+		count[node] = 0;
+		father[node] = NIL;
+		right[node] = free;
+		free = node;
+		size--;
+	}
+
+	/**
+	 * Nodo alcanzado desde la raiz con el camino, como en
+	 * {@link BinarySearchTreeImpl#getSubtreeWithPath(String)}.
+	 */
+	int nodeWithPath(String path) {
+		if (path == null) {
+			throw new IllegalArgumentException();
+		}
+		int node = root;
+		for (int i = 0; i < path.length(); i++) {
+			char c = path.charAt(i);
+			if (c != '0' && c != '1') {
+				throw new IllegalArgumentException();
+			}
+			node = step(node, c == '1');
+		}
+		return reached(node);
+	}
+
+	/**
+	 * Ver {@link BinarySearchTreeImpl#getSubtreeWithPath(long, int)}.
+	 */
+	int nodeWithPath(long bits, int length) {
+		if (length < 0 || length > Long.SIZE || (length < Long.SIZE && bits >>> length != 0)) {
+			throw new IllegalArgumentException();
+		}
+		int node = root;
+		for (int i = length - 1; i >= 0; i--) {
+			node = step(node, (bits >>> i & 1) != 0);
+		}
+		return reached(node);
+	}
+
+	/**
+	 * Ver {@link BinarySearchTreeImpl#getSubtreeWithPath(BitSet, int)}.
+	 */
+	int nodeWithPath(BitSet path, int length) {
+		if (path == null || length < 0 || path.length() > length) {
+			throw new IllegalArgumentException();
+		}
+		int node = root;
+		for (int i = 0; i < length; i++) {
+			node = step(node, path.get(i));
+		}
+		return reached(node);
+	}
+
+	private int step(int node, boolean toRight) {
+		if (node == NIL) {
+			throw new NoSuchElementException();
+		}
+		return toRight ? right[node] : left[node];
+	}
+
+	private static int reached(int node) {
+		if (node == NIL) {
+			throw new NoSuchElementException();
+		}
+		return node;
+	}
+
+	/**
+	 * Mismo formato que {@link BinarySearchTreeImpl#toString()}, sin
+	 * etiquetas.
+	 */
+	@Override
+	public String toString() {
+		if (root == NIL) {
+			return AbstractTreeADT.EMPTY_TREE_MARK;
+		}
+		StringBuilder out = new StringBuilder();
+		//	Nodos pendientes (NIL para un hijo vacio) y CLOSE - nodo para
+		//	cerrar su llave
+		int[] stack = new int[32];
+		int depth = 0;
+		stack[depth++] = root;
+		while (depth > 0) {
+			int top = stack[--depth];
+			if (top <= CLOSE) {
+				out.append('}');
+				continue;
+			}
+			if (top == NIL) {
+				out.append(", ").append(AbstractTreeADT.EMPTY_TREE_MARK);
+				continue;
+			}
+			if (top != root) {
+				out.append(", ");
+			}
+			out.append('{');
+			out.append(keyAt(top));
+			if (count[top] > 1) {
+				out.append('(').append(count[top]).append(')');
+			}
+			if (depth + 3 > stack.length) {
+				stack = Arrays.copyOf(stack, stack.length * 2);
+			}
+			stack[depth++] = CLOSE - top;
+			stack[depth++] = right[top];
+			stack[depth++] = left[top];
+		}
+		return out.toString();
+	}
+
+	/**
+	 * Recorridos sobre las posiciones de los nodos. Si el arbol cambia
+	 * mientras se recorre, nextNode() lanza ConcurrentModificationException.
+	 */
+	abstract class NodeIterator {
+
+		private final int expectedModCount = modCount;
+		int[] nodes = new int[32];
+		int top;
+
+		abstract boolean hasNext();
+
+		/**
+		 * Siguiente nodo, ya comprobado que hay.
+		 */
+		abstract int advance();
+
+		final int nextNode() {
+			if (modCount != expectedModCount) {
+				throw new ConcurrentModificationException();
+			}
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			return advance();
+		}
+
+		final void push(int node) {
+			if (top == nodes.length) {
+				nodes = Arrays.copyOf(nodes, top * 2);
+			}
+			nodes[top++] = node;
+		}
+	}
+
+	final class InorderNodes extends NodeIterator {
+
+		InorderNodes() {
+			pushLeft(root);
+		}
+
+		private void pushLeft(int node) {
+			for (; node != NIL; node = left[node]) {
+				push(node);
+			}
+		}
+
+		@Override
+		boolean hasNext() {
+			return top > 0;
+		}
+
+		@Override
+		int advance() {
+			int node = nodes[--top];
+			pushLeft(right[node]);
+			return node;
+		}
+	}
+
+	final class PreorderNodes extends NodeIterator {
+
+		PreorderNodes() {
+			if (root != NIL) {
+				push(root);
+			}
+		}
+
+		@Override
+		boolean hasNext() {
+			return top > 0;
+		}
+
+		@Override
+		int advance() {
+			int node = nodes[--top];
+			if (right[node] != NIL) {
+				push(right[node]);
+			}
+			if (left[node] != NIL) {
+				push(left[node]);
+			}
+			return node;
+		}
+	}
+
+	final class PostorderNodes extends NodeIterator {
+
+		PostorderNodes() {
+			pushFirst(root);
+		}
+
+		/**
+		 * Apila el camino hasta el primer nodo en postorden del subarbol.
+		 */
+		private void pushFirst(int node) {
+			while (node != NIL) {
+				push(node);
+				node = left[node] != NIL ? left[node] : right[node];
+			}
+		}
+
+		@Override
+		boolean hasNext() {
+			return top > 0;
+		}
+
+		@Override
+		int advance() {
+			int node = nodes[--top];
+			if (top > 0) {
+				int parent = nodes[top - 1];
+				if (left[parent] == node) {
+					pushFirst(right[parent]);
+				}
+			}
+			return node;
+		}
+	}
+
+	/**
+	 * En anchura, con nodes como cola circular.
+	 */
+	final class WidthNodes extends NodeIterator {
+
+		private int head;
+
+		WidthNodes() {
+			if (root != NIL) {
+				push(root);
+			}
+		}
+
+		private void enqueue(int node) {
+			if (top - head == nodes.length) {
+				int[] bigger = new int[nodes.length * 2];
+				for (int i = 0; i < top - head; i++) {
+					bigger[i] = nodes[(head + i) % nodes.length];
+				}
+				top -= head;
+				head = 0;
+				nodes = bigger;
+			}
+			nodes[top++ % nodes.length] = node;
+		}
+
+		@Override
+		boolean hasNext() {
+			return top > head;
+		}
+
+		@Override
+		int advance() {
+			int node = nodes[head++ % nodes.length];
+			if (left[node] != NIL) {
+				enqueue(left[node]);
+			}
+			if (right[node] != NIL) {
+				enqueue(right[node]);
+			}
+			return node;
+		}
+	}
+}
@@ -0,0 +1,202 @@
+package ule.edi.tree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PrimitiveTreeTests {
+
+	private IntBinarySearchTree ejemplo = null;
+
+	@Before
+	public void setupTrees() {
+		ejemplo = new IntBinarySearchTree();
+		ejemplo.insert(10, 20, 5, 2, 15, 30);
+		Assert.assertEquals("{10, {5, {2, ∅, ∅}, ∅}, {20, {15, ∅, ∅}, {30, ∅, ∅}}}", ejemplo.toString());
+	}
+
+	private static List<Long> toList(Iterator<? extends Number> it) {
+		List<Long> rx = new ArrayList<Long>();
+		while (it.hasNext()) {
+			rx.add(it.next().longValue());
+		}
+		return rx;
+	}
+
+	@Test
+	public void insertRemove_test() {
+		Assert.assertFalse(ejemplo.insert(5));
+		Assert.assertTrue(ejemplo.insert(12));
+		Assert.assertEquals("{10, {5(2), {2, ∅, ∅}, ∅}, {20, {15, {12, ∅, ∅}, ∅}, {30, ∅, ∅}}}", ejemplo.toString());
+		Assert.assertEquals(7, ejemplo.size());
+		Assert.assertEquals(8, ejemplo.instancesCount());
+		Assert.assertEquals(2, ejemplo.count(5));
+		Assert.assertEquals(0, ejemplo.count(7));
+		Assert.assertTrue(ejemplo.contains(12));
+		Assert.assertFalse(ejemplo.contains(13));
+
+		ejemplo.remove(5);
+		Assert.assertEquals(1, ejemplo.count(5));
+		//	Con dos hijos se sustituye por el menor de sus mayores
+		ejemplo.remove(10);
+		Assert.assertEquals("{12, {5, {2, ∅, ∅}, ∅}, {20, {15, ∅, ∅}, {30, ∅, ∅}}}", ejemplo.toString());
+		Assert.assertEquals(1, ejemplo.remove(30, 4));
+		ejemplo.insert(20, 20);
+		Assert.assertEquals(3, ejemplo.removeAll(20));
+		Assert.assertEquals("{12, {5, {2, ∅, ∅}, ∅}, {15, ∅, ∅}}", ejemplo.toString());
+		Assert.assertEquals(4, ejemplo.size());
+		Assert.assertEquals(4, ejemplo.instancesCount());
+
+		//	Los huecos libres se reutilizan
+		ejemplo.insert(40, 50, 60);
+		Assert.assertEquals("{12, {5, {2, ∅, ∅}, ∅}, {15, ∅, {40, ∅, {50, ∅, {60, ∅, ∅}}}}}", ejemplo.toString());
+
+		ejemplo.clear();
+		Assert.assertTrue(ejemplo.isEmpty());
+		Assert.assertEquals("∅", ejemplo.toString());
+		ejemplo.insert(1);
+		ejemplo.remove(1);
+		Assert.assertEquals("∅", ejemplo.toString());
+	}
+
+	@Test(expected = NoSuchElementException.class)
+	public void remove_exception_test() {
+		ejemplo.remove(7);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void removeNegativo_exception_test() {
+		ejemplo.remove(5, -1);
+	}
+
+	@Test
+	public void iteradores_test() {
+		ejemplo.insert(5);
+		Assert.assertEquals(toList(Arrays.asList(2, 5, 10, 15, 20, 30).iterator()), toList(ejemplo.iteratorInorder()));
+		Assert.assertEquals(toList(Arrays.asList(10, 5, 2, 20, 15, 30).iterator()), toList(ejemplo.iteratorPreorder()));
+		Assert.assertEquals(toList(Arrays.asList(2, 5, 15, 30, 20, 10).iterator()), toList(ejemplo.iteratorPostorder()));
+		Assert.assertEquals(toList(Arrays.asList(10, 5, 20, 2, 15, 30).iterator()), toList(ejemplo.iteratorWidth()));
+		Assert.assertFalse(new LongBinarySearchTree().iteratorInorder().hasNext());
+
+		PrimitiveIterator.OfInt it = ejemplo.iteratorInorder();
+		it.nextInt();
+		ejemplo.insert(3);
+		try {
+			it.nextInt();
+			Assert.fail();
+		} catch (ConcurrentModificationException e) {
+		}
+	}
+
+	@Test
+	public void caminos_test() {
+		Assert.assertEquals(10, ejemplo.getContentWithPath(""));
+		Assert.assertEquals(2, ejemplo.getContentWithPath("00"));
+		Assert.assertEquals(30, ejemplo.getContentWithPath(0b11, 2));
+		BitSet path = new BitSet();
+		path.set(0);
+		Assert.assertEquals(15, ejemplo.getContentWithPath(path, 2));
+		try {
+			ejemplo.getContentWithPath("01");
+			Assert.fail();
+		} catch (NoSuchElementException e) {
+		}
+		try {
+			ejemplo.getContentWithPath("0x");
+			Assert.fail();
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			new IntBinarySearchTree().getContentWithPath("");
+			Assert.fail();
+		} catch (NoSuchElementException e) {
+		}
+	}
+
+	private static void assertRejects(Runnable op) {
+		try {
+			op.run();
+			Assert.fail();
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	@Test
+	public void comoElGenerico_test() {
+		Random rnd = new Random(25);
+		LongBinarySearchTree longs = new LongBinarySearchTree();
+		IntBinarySearchTree ints = new IntBinarySearchTree();
+		BinarySearchTreeImpl<Long> generic = new BinarySearchTreeImpl<Long>();
+		for (int i = 0; i < 20000; i++) {
+			int x = rnd.nextInt(2000) - 1000;
+			int op = rnd.nextInt(4);
+			if (op < 2) {
+				Assert.assertEquals(generic.insert((long) x), longs.insert(x));
+				ints.insert(x);
+			} else if (generic.contains((long) x)) {
+				int num = rnd.nextInt(4) - 1;
+				if (num < 0) {
+					//	Los dos rechazan num negativo sin cambiar nada
+					assertRejects(() -> generic.remove((long) x, num));
+					assertRejects(() -> longs.remove(x, num));
+					assertRejects(() -> ints.remove(x, num));
+				} else {
+					Assert.assertEquals(generic.remove((long) x, num), longs.remove(x, num));
+					ints.remove(x, num);
+				}
+			} else {
+				Assert.assertFalse(longs.contains(x));
+			}
+		}
+		Assert.assertEquals(generic.toString(), longs.toString());
+		Assert.assertEquals(generic.toString(), ints.toString());
+		Assert.assertEquals(generic.size(), longs.size());
+		Assert.assertEquals(generic.instancesCount(), longs.instancesCount());
+		Assert.assertEquals(toList(generic.iteratorPostorder()), toList(longs.iteratorPostorder()));
+		Assert.assertEquals(toList(generic.iteratorWidth()), toList(ints.iteratorWidth()));
+
+		longs.insert(Long.MAX_VALUE, Long.MIN_VALUE);
+		Assert.assertEquals(Long.MIN_VALUE, (long) longs.iteratorInorder().next());
+
+		//	Varios a la vez: ordenados en un arbol vacio se construye
+		//	equilibrado, y si no uno a uno, igual que el generico
+		long[][] cases = { { 1, 2, 3, 4, 5 }, { 1, 1, 2, 5, 5, 5, 7, 9 }, { 3, 1, 2 }, { 4 }, {} };
+		for (long[] elements : cases) {
+			BinarySearchTreeImpl<Long> g = new BinarySearchTreeImpl<Long>();
+			LongBinarySearchTree l = new LongBinarySearchTree();
+			IntBinarySearchTree n = new IntBinarySearchTree();
+			int[] asInts = new int[elements.length];
+			Long[] boxed = new Long[elements.length];
+			for (int i = 0; i < elements.length; i++) {
+				asInts[i] = (int) elements[i];
+				boxed[i] = elements[i];
+			}
+			Assert.assertEquals(g.insert(boxed), l.insert(elements));
+			n.insert(asInts);
+			Assert.assertEquals(g.toString(), l.toString());
+			Assert.assertEquals(g.toString(), n.toString());
+			Assert.assertEquals(g.instancesCount(), l.instancesCount());
+			Assert.assertEquals(g.size(), n.size());
+			//	Con el arbol ya lleno se insertan uno a uno
+			g.insert(boxed);
+			l.insert(elements);
+			Assert.assertEquals(g.toString(), l.toString());
+		}
+		IntBinarySearchTree sorted = new IntBinarySearchTree();
+		sorted.insert(1, 2, 3, 4, 5);
+		Assert.assertEquals("{3, {1, ∅, {2, ∅, ∅}}, {4, ∅, {5, ∅, ∅}}}", sorted.toString());
+		sorted.remove(3);
+		sorted.insert(3);
+		Assert.assertEquals("{4, {1, ∅, {2, ∅, {3, ∅, ∅}}}, {5, ∅, ∅}}", sorted.toString());
+	}
+}
@@ -0,0 +1,293 @@
+package ule.edi.tree;
+
+/**
+ * arbol binario de busqueda rojinegro.
+ *
+ * Tiene la misma interfaz que {@link BinarySearchTreeImpl}, de modo que el
+ * tipo de arbol se elige al construirlo sin cambiar el codigo que lo usa:
+ *
+ * BinarySearchTreeImpl<Integer> t = new RedBlackTreeImpl<Integer>();
+ *
+ * Cada nodo tiene un color; los hijos vacios cuentan como negros. Se
+ * mantiene que un nodo rojo no tiene hijos rojos y que todos los caminos
+ * hasta un vacio tienen el mismo numero de nodos negros, con lo que la
+ * altura queda acotada por 2·log2(n+1).
+ *
+ * Frente al AVL, cada insercion hace como mucho 2 rotaciones y cada
+ * eliminacion como mucho 3; el resto de los arreglos son cambios de color.
+ * Incrementar o decrementar count no cambia la forma del arbol.
+ *
+ * @param <T> tipo de la informacion en cada nodo, comparable.
+ */
+public class RedBlackTreeImpl<T extends Comparable<? super T>> extends BinarySearchTreeImpl<T> {
+
+	boolean red; // color del nodo
+
+	/**
+	 * arbol rojinegro vacio
+	 */
+	public RedBlackTreeImpl() {
+		super();
+	}
+
+	public RedBlackTreeImpl(BinarySearchTreeImpl<T> father) {
+		super(father);
+	}
+
+	@Override
+	protected BinarySearchTreeImpl<T> emptyBST(BinarySearchTreeImpl<T> father) {
+		return new RedBlackTreeImpl<T>(father);
+	}
+
+	private static boolean isRed(BinarySearchTreeImpl<?> node) {
+		return node != null && ((RedBlackTreeImpl<?>) node).red;
+	}
+
+	private static void setRed(BinarySearchTreeImpl<?> node, boolean red) {
+		((RedBlackTreeImpl<?>) node).red = red;
+	}
+
+	@Override
+	protected boolean isSelfBalancing() {
+		return true;
+	}
+
+	@Override
+	protected void swapNodeData(BinarySearchTreeImpl<T> other) {
+		super.swapNodeData(other);
+		RedBlackTreeImpl<T> o = (RedBlackTreeImpl<T>) other;
+		boolean r = red;
+		red = o.red;
+		o.red = r;
+	}
+
+	/**
+	 * El nodo nuevo se colorea de rojo y se arreglan los dos rojos
+	 * seguidos subiendo hacia la raiz.
+	 */
+	@Override
+	protected void afterInsert(BinarySearchTreeImpl<T> node) {
+		BinarySearchTreeImpl<T> z = node;
+		setRed(z, true);
+		while (z.father != null && isRed(z.father)) {
+			BinarySearchTreeImpl<T> p = z.father;
+			//	p es rojo, luego no es la raiz
+			BinarySearchTreeImpl<T> g = p.father;
+			if (p == g.getLeftBST()) {
+				BinarySearchTreeImpl<T> u = g.getRightBST();
+				if (isRed(u)) {
+					setRed(p, false);
+					setRed(u, false);
+					setRed(g, true);
+					z = g;
+				} else {
+					if (z == p.getRightBST()) {
+						//	Tras rotar, el antiguo padre queda a la izquierda
+						p.rotateLeft();
+						z = p.getLeftBST();
+					}
+					setRed(z.father, false);
+					setRed(g, true);
+					g.rotateRight();
+				}
+			} else {
+				BinarySearchTreeImpl<T> u = g.getLeftBST();
+				if (isRed(u)) {
+					setRed(p, false);
+					setRed(u, false);
+					setRed(g, true);
+					z = g;
+				} else {
+					if (z == p.getLeftBST()) {
+						p.rotateRight();
+						z = p.getRightBST();
+					}
+					setRed(z.father, false);
+					setRed(g, true);
+					g.rotateLeft();
+				}
+			}
+		}
+		if (z.father == null) {
+			setRed(z, false);
+		}
+	}
+
+	/**
+	 * En un arbol construido ya equilibrado, basta con poner en rojo el
+	 * ultimo nivel (si no es la raiz) para que todos los caminos tengan los
+	 * mismos negros.
+	 */
+	@Override
+	protected void afterBuild(int depth, int maxDepth) {
+		red = depth == maxDepth && depth > 0;
+	}
+
+	/**
+	 * Numero de nodos negros en cualquier camino desde node hasta un vacio.
+	 */
+	private static int blackHeight(BinarySearchTreeImpl<?> node) {
+		int h = 0;
+		for (; node != null; node = node.getLeftBST()) {
+			if (!isRed(node)) {
+				h++;
+			}
+		}
+		return h;
+	}
+
+	/**
+	 * Union por alturas negras. Con las raices de less y greater en negro,
+	 * si sus alturas negras coinciden mid queda como raiz negra; si no, se
+	 * baja por el borde del mas alto hasta un nodo negro (o vacio) con la
+	 * altura negra del otro, se pone alli mid en rojo con ese subarbol y el
+	 * otro arbol como hijos, y se arreglan los dos rojos seguidos como en
+	 * una insercion. O(log n).
+	 */
+	@Override
+	protected BinarySearchTreeImpl<T> link(BinarySearchTreeImpl<T> less, BinarySearchTreeImpl<T> mid, BinarySearchTreeImpl<T> greater) {
+		if (less != null) {
+			setRed(less, false);
+		}
+		if (greater != null) {
+			setRed(greater, false);
+		}
+		int bl = blackHeight(less);
+		int bg = blackHeight(greater);
+		if (bl == bg) {
+			setRed(mid, false);
+			return super.link(less, mid, greater);
+		}
+		BinarySearchTreeImpl<T> root;
+		BinarySearchTreeImpl<T> p = null;
+		if (bl > bg) {
+			root = less;
+			BinarySearchTreeImpl<T> c = less;
+			for (int b = bl; isRed(c) || b > bg; c = c.getRightBST()) {
+				if (!isRed(c)) {
+					b--;
+				}
+				p = c;
+			}
+			p.setRightBST(super.link(c, mid, greater));
+		} else {
+			root = greater;
+			BinarySearchTreeImpl<T> c = greater;
+			for (int b = bg; isRed(c) || b > bl; c = c.getLeftBST()) {
+				if (!isRed(c)) {
+					b--;
+				}
+				p = c;
+			}
+			p.setLeftBST(super.link(less, mid, c));
+		}
+		mid.father = p;
+		updateUp(p);
+		afterInsert(mid);
+		return root;
+	}
+
+	/**
+	 * Elimina fisicamente este nodo. Si tiene dos hijos se sustituye por el
+	 * menor de sus mayores, que es el nodo que realmente se quita. Si el
+	 * nodo quitado era negro se arregla la altura negra desde su hijo.
+	 */
+	@Override
+	protected BinarySearchTreeImpl<T> removeNode() {
+		BinarySearchTreeImpl<T> y = this;
+		if (getLeftBST() != null && getRightBST() != null) {
+			y = getRightBST().mM();
+			this.content = y.content;
+			this.count = y.count;
+		}
+		//	y tiene como mucho un hijo (x, que puede ser null)
+		BinarySearchTreeImpl<T> x = y.getLeftBST() == null ? y.getRightBST() : y.getLeftBST();
+		BinarySearchTreeImpl<T> p = y.father;
+
+		if (p == null) {
+			//	Raiz con como mucho un hijo, que sera una hoja roja
+			if (x == null) {
+				y.content = null;
+				y.count = 0;
+			} else {
+				y.copySubtree(x);
+			}
+			setRed(y, false);
+			return y;
+		}
+
+		p.replaceChild(y, x);
+		y.releaseOrdinal();
+		//	Las rotaciones del arreglo mantienen los contadores si ya
+		//	estan al dia por debajo
+		updateUp(p);
+		if (!isRed(y)) {
+			removeFixup(x, p);
+		}
+		return p;
+	}
+
+	/**
+	 * Arregla la falta de un negro en x, hijo de p. Como los vacios no son
+	 * nodos, x puede ser null y se lleva aparte su padre.
+	 */
+	private void removeFixup(BinarySearchTreeImpl<T> x, BinarySearchTreeImpl<T> p) {
+		while (p != null && !isRed(x)) {
+			if (x == p.getLeftBST()) {
+				BinarySearchTreeImpl<T> w = p.getRightBST();
+				if (isRed(w)) {
+					setRed(w, false);
+					setRed(p, true);
+					//	El antiguo padre queda a la izquierda del nodo p
+					p.rotateLeft();
+					p = p.getLeftBST();
+					w = p.getRightBST();
+				}
+				if (!isRed(w.getLeftBST()) && !isRed(w.getRightBST())) {
+					setRed(w, true);
+					x = p;
+					p = p.father;
+				} else {
+					if (!isRed(w.getRightBST())) {
+						setRed(w.getLeftBST(), false);
+						setRed(w, true);
+						w.rotateRight();
+					}
+					setRed(w, isRed(p));
+					setRed(p, false);
+					setRed(w.getRightBST(), false);
+					p.rotateLeft();
+					return;
+				}
+			} else {
+				BinarySearchTreeImpl<T> w = p.getLeftBST();
+				if (isRed(w)) {
+					setRed(w, false);
+					setRed(p, true);
+					p.rotateRight();
+					p = p.getRightBST();
+					w = p.getLeftBST();
+				}
+				if (!isRed(w.getRightBST()) && !isRed(w.getLeftBST())) {
+					setRed(w, true);
+					x = p;
+					p = p.father;
+				} else {
+					if (!isRed(w.getLeftBST())) {
+						setRed(w.getRightBST(), false);
+						setRed(w, true);
+						w.rotateLeft();
+					}
+					setRed(w, isRed(p));
+					setRed(p, false);
+					setRed(w.getLeftBST(), false);
+					p.rotateRight();
+					return;
+				}
+			}
+		}
+		if (x != null) {
+			setRed(x, false);
+		}
+	}
+}
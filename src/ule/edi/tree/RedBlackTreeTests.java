@@ -0,0 +1,317 @@
+package ule.edi.tree;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RedBlackTreeTests {
+
+	private BinarySearchTreeImpl<Integer> ejemplo = null;
+
+	@Before
+	public void setupRB() {
+		ejemplo = new RedBlackTreeImpl<Integer>();
+		ejemplo.insert(10, 20, 5, 2, 15, 30);
+		Assert.assertEquals("{10, {5, {2, ∅, ∅}, ∅}, {20, {15, ∅, ∅}, {30, ∅, ∅}}}", ejemplo.toString());
+	}
+
+	/*
+	 * Comprueba las propiedades rojinegras y los padres.
+	 * Devuelve la altura negra.
+	 */
+	private int checkRB(BinarySearchTreeImpl<Integer> node, BinarySearchTreeImpl<Integer> father) {
+		if (node == null || node.isEmpty()) {
+			return 1;
+		}
+		Assert.assertSame(father, node.father);
+		Assert.assertEquals(node.count + BinarySearchTreeImpl.instancesOf(node.getLeftBST()) + BinarySearchTreeImpl.instancesOf(node.getRightBST()), node.instances);
+		Assert.assertEquals(1 + BinarySearchTreeImpl.sizeOf(node.getLeftBST()) + BinarySearchTreeImpl.sizeOf(node.getRightBST()), node.size);
+		RedBlackTreeImpl<Integer> rb = (RedBlackTreeImpl<Integer>) node;
+		if (father == null) {
+			Assert.assertFalse(rb.red);
+		}
+		if (rb.red) {
+			Assert.assertFalse(isRed(node.getLeftBST()));
+			Assert.assertFalse(isRed(node.getRightBST()));
+		}
+		int bl = checkRB(node.getLeftBST(), node);
+		int br = checkRB(node.getRightBST(), node);
+		Assert.assertEquals(bl, br);
+		return bl + (rb.red ? 0 : 1);
+	}
+
+	private boolean isRed(BinarySearchTreeImpl<Integer> node) {
+		return node != null && ((RedBlackTreeImpl<Integer>) node).red;
+	}
+
+	@Test
+	public void insertOrdenado_test() {
+		BinarySearchTreeImpl<Integer> tree = new RedBlackTreeImpl<Integer>();
+		for (int i = 1; i <= 5; i++) {
+			tree.insert(i);
+		}
+		Assert.assertEquals("{2, {1, ∅, ∅}, {4, {3, ∅, ∅}, {5, ∅, ∅}}}", tree.toString());
+		checkRB(tree, null);
+	}
+
+	@Test
+	public void aleatorio_test() {
+		RedBlackTreeImpl<Integer> tree = new RedBlackTreeImpl<Integer>();
+		Random rnd = new Random(7);
+		int[] counts = new int[500];
+		for (int i = 0; i < 20000; i++) {
+			int k = rnd.nextInt(counts.length);
+			if (rnd.nextInt(3) == 0 && counts[k] > 0) {
+				tree.remove(k);
+				counts[k]--;
+			} else {
+				tree.insert(k);
+				counts[k]++;
+			}
+		}
+		checkRB(tree, null);
+		int distinct = 0;
+		int instances = 0;
+		for (int k = 0; k < counts.length; k++) {
+			Assert.assertEquals(counts[k] > 0, tree.contains(k));
+			if (counts[k] > 0) {
+				distinct++;
+				instances += counts[k];
+			}
+		}
+		Assert.assertEquals(distinct, tree.size());
+		Assert.assertEquals(instances, tree.instancesCount());
+		for (int k = 0; k < counts.length; k++) {
+			if (counts[k] > 0) {
+				Assert.assertEquals(counts[k], tree.removeAll(k));
+			}
+		}
+		Assert.assertTrue(tree.isEmpty());
+	}
+
+	@Test
+	public void alturaAcotada_test() {
+		BinarySearchTreeImpl<Integer> tree = new RedBlackTreeImpl<Integer>();
+		int n = 100000;
+		for (int i = 0; i < n; i++) {
+			tree.insert(i);
+		}
+		int bh = checkRB(tree, null);
+		Assert.assertTrue(bh <= 1 + Math.log(n + 1) / Math.log(2));
+	}
+
+	@Test
+	public void cargaOrdenada_test() {
+		for (int n = 1; n <= 40; n++) {
+			BinarySearchTreeImpl<Integer> tree = new RedBlackTreeImpl<Integer>();
+			List<Integer> elements = new ArrayList<Integer>();
+			for (int i = 0; i < n; i++) {
+				elements.add(i / 2);
+			}
+			Assert.assertEquals(n, tree.insert(elements));
+			checkRB(tree, null);
+			Assert.assertEquals((n + 1) / 2, tree.size());
+			Assert.assertEquals(n, tree.instancesCount());
+			tree.insert(n, -1);
+			tree.removeAll(0);
+			checkRB(tree, null);
+		}
+	}
+
+	@Test
+	public void insertParallel_test() {
+		BinarySearchTreeImpl<Integer> tree = new RedBlackTreeImpl<Integer>();
+		Random rnd = new Random(5);
+		List<Integer> elements = new ArrayList<Integer>();
+		for (int i = 0; i < 100000; i++) {
+			elements.add(rnd.nextInt(60000));
+		}
+		Assert.assertEquals(100000, tree.insertParallel(elements));
+		checkRB(tree, null);
+		for (int i = 0; i < 1000; i++) {
+			tree.insert(rnd.nextInt());
+		}
+		checkRB(tree, null);
+	}
+
+	@Test
+	public void insertBatch_test() {
+		Random rnd = new Random(4);
+		List<Integer> batch = new ArrayList<Integer>();
+		for (int i = 0; i < 3000; i++) {
+			batch.add(rnd.nextInt(1000));
+		}
+		Assert.assertEquals(3000, ejemplo.insertBatch(batch));
+		Assert.assertEquals(3006, ejemplo.instancesCount());
+		checkRB(ejemplo, null);
+	}
+
+	@Test
+	public void splitJoin_test() {
+		BinarySearchTreeImpl<Integer> tree = new RedBlackTreeImpl<Integer>();
+		for (int i = 0; i < 500; i++) {
+			tree.insert(i % 250);
+		}
+		BinarySearchTreeImpl<Integer> greater = tree.split(100);
+		Assert.assertTrue(greater instanceof RedBlackTreeImpl);
+		checkRB(tree, null);
+		checkRB(greater, null);
+		Assert.assertEquals(100, tree.size());
+		Assert.assertEquals(300, greater.instancesCount());
+		BinarySearchTreeImpl.join(tree, greater);
+		checkRB(tree, null);
+		Assert.assertEquals(500, tree.instancesCount());
+		Assert.assertTrue(greater.isEmpty());
+	}
+
+	@Test
+	public void conjuntos_test() {
+		Random rnd = new Random(21);
+		//	Tamanos muy distintos y parecidos, y un BST normal como operando
+		int[][] sizes = { { 0, 500 }, { 1, 20000 }, { 30, 20000 }, { 3000, 4000 } };
+		for (int[] size : sizes) {
+			int[] ca = new int[5000];
+			int[] cb = new int[ca.length];
+			BinarySearchTreeImpl<Integer> a = new RedBlackTreeImpl<Integer>();
+			BinarySearchTreeImpl<Integer> b = size[0] == 30 ? new BinarySearchTreeImpl<Integer>() : new RedBlackTreeImpl<Integer>();
+			for (int i = 0; i < size[0]; i++) {
+				int x = rnd.nextInt(ca.length);
+				a.insert(x);
+				ca[x]++;
+			}
+			for (int i = 0; i < size[1]; i++) {
+				int x = rnd.nextInt(cb.length);
+				b.insert(x);
+				cb[x]++;
+			}
+			String sa = a.toString();
+			String sb = b.toString();
+			List<BinarySearchTreeImpl<Integer>> results = Arrays.asList(a.union(b), b.union(a), a.intersection(b),
+					b.intersection(a), a.difference(b), b.difference(a), a.sumCounts(b));
+			for (int r = 0; r < results.size(); r++) {
+				//	Del tipo del arbol sobre el que se llama
+				BinarySearchTreeImpl<Integer> receiver = r % 2 == 1 && r < 6 ? b : a;
+				Assert.assertSame(receiver.getClass(), results.get(r).getClass());
+				if (receiver instanceof RedBlackTreeImpl) {
+					checkRB(results.get(r), null);
+				}
+			}
+			for (int k = 0; k < ca.length; k++) {
+				int[] expected = { Math.max(ca[k], cb[k]), Math.max(ca[k], cb[k]), Math.min(ca[k], cb[k]), Math.min(ca[k], cb[k]),
+						Math.max(0, ca[k] - cb[k]), Math.max(0, cb[k] - ca[k]), ca[k] + cb[k] };
+				for (int r = 0; r < expected.length; r++) {
+					Assert.assertEquals(expected[r], results.get(r).rangeInstances(k, k));
+				}
+			}
+			Assert.assertEquals(sa, a.toString());
+			Assert.assertEquals(sb, b.toString());
+		}
+	}
+
+	@Test
+	public void splitJoinSinCopiar_test() {
+		Random rnd = new Random(9);
+		BinarySearchTreeImpl<Integer> tree = new RedBlackTreeImpl<Integer>();
+		for (int i = 0; i < 3000; i++) {
+			tree.insert(rnd.nextInt(5000));
+		}
+		long instances = tree.instancesCount();
+		//	Cortes en cualquier punto, tambien casi en los extremos, para
+		//	unir arboles de alturas muy distintas
+		for (int i = 0; i < 200; i++) {
+			int key = i % 4 == 0 ? rnd.nextInt(40) : i % 4 == 1 ? 4960 + rnd.nextInt(40) : rnd.nextInt(5000);
+			BinarySearchTreeImpl<Integer> greater = tree.split(key);
+			checkRB(tree, null);
+			checkRB(greater, null);
+			Assert.assertTrue(tree.isEmpty() || tree.iteratorInorder().next() < key);
+			Assert.assertEquals(instances, tree.instancesCount() + greater.instancesCount());
+			BinarySearchTreeImpl.join(tree, greater);
+			checkRB(tree, null);
+			Assert.assertTrue(greater.isEmpty());
+		}
+		BinarySearchTreeImpl<Integer> range = tree.extractRange(1000, 1100);
+		checkRB(tree, null);
+		checkRB(range, null);
+		BinarySearchTreeImpl.join(range, tree.split(1101));
+		BinarySearchTreeImpl.join(tree, range);
+		checkRB(tree, null);
+		Assert.assertEquals(instances, tree.instancesCount());
+
+		//	Se reutilizan los nodos: solo cambian de nodo los elementos de
+		//	los caminos que se recorren, unos pocos de los miles que hay
+		List<Integer> keys = new ArrayList<Integer>();
+		List<BinarySearchTreeImpl<Integer>> nodes = new ArrayList<BinarySearchTreeImpl<Integer>>();
+		for (Iterator<Integer> it = tree.iteratorInorder(); it.hasNext(); ) {
+			Integer k = it.next();
+			keys.add(k);
+			nodes.add(tree.find(k));
+		}
+		BinarySearchTreeImpl.join(tree, tree.split(2500));
+		int moved = 0;
+		for (int i = 0; i < keys.size(); i++) {
+			if (tree.find(keys.get(i)) != nodes.get(i)) {
+				moved++;
+			}
+		}
+		Assert.assertTrue(moved < 40);
+	}
+
+	@Test
+	public void count_test() {
+		ejemplo.insert(20, 20, 5);
+		Assert.assertEquals(9, ejemplo.instancesCount());
+		Assert.assertEquals(2, ejemplo.remove(20, 2));
+		Assert.assertEquals(2, ejemplo.removeAll(5));
+		Assert.assertEquals("{10, {2, ∅, ∅}, {20, {15, ∅, ∅}, {30, ∅, ∅}}}", ejemplo.toString());
+		checkRB(ejemplo, null);
+	}
+
+	@Test
+	public void removeRaiz_test() {
+		ejemplo.remove(10);
+		Assert.assertEquals("{15, {5, {2, ∅, ∅}, ∅}, {20, ∅, {30, ∅, ∅}}}", ejemplo.toString());
+		checkRB(ejemplo, null);
+	}
+
+	@Test
+	public void snapshot_test() throws IOException {
+		//	Guardado desde un BST degenerado, se carga equilibrado
+		BinarySearchTreeImpl<Integer> chain = new BinarySearchTreeImpl<Integer>();
+		for (int i = 1; i <= 100; i++) {
+			chain.insert(i);
+		}
+		chain.insert(7);
+		chain.getSubtreeWithPath("").setTag("primero", 1);
+		Path file = Files.createTempFile("bst", ".snap");
+		try {
+			chain.save(file, KeyCodec.INTEGER, true);
+			RedBlackTreeImpl<Integer> tree = BinarySearchTreeImpl.load(file, KeyCodec.INTEGER, RedBlackTreeImpl<Integer>::new);
+			checkRB(tree, null);
+			Assert.assertEquals(100, tree.size());
+			Assert.assertEquals(101, tree.instancesCount());
+			Assert.assertEquals(2, tree.find(7).count);
+			Assert.assertEquals(1, tree.find(1).getTag("primero"));
+			Assert.assertTrue(tree.getSubtreeWithPath("0") instanceof RedBlackTreeImpl);
+			tree.insert(101);
+			tree.remove(50);
+			checkRB(tree, null);
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test(expected = NoSuchElementException.class)
+	public void remove_NoSuch_test() {
+		ejemplo.remove(11);
+	}
+}
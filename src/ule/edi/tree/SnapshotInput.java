@@ -0,0 +1,150 @@
+package ule.edi.tree;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Lectura secuencial de un {@link FileChannel} a partir de una posicion,
+ * con un buffer directo grande. Es la contraria de {@link SnapshotOutput}.
+ *
+ * Varias lecturas pueden ir a la vez sobre el mismo canal en posiciones
+ * distintas (se usan lecturas con posicion, que no mueven la del canal).
+ * Sin canal lee solo del buffer que recibe.
+ */
+public final class SnapshotInput {
+
+	private final FileChannel channel;
+	private final ByteBuffer buffer;
+	private long position; // posicion en el fichero del final del buffer
+
+	SnapshotInput(FileChannel channel, long position, int capacity) {
+		this.channel = channel;
+		this.position = position;
+		this.buffer = ByteBuffer.allocateDirect(capacity);
+		this.buffer.limit(0);
+	}
+
+	/**
+	 * En memoria, sin canal.
+	 */
+	SnapshotInput(ByteBuffer buffer) {
+		this.channel = null;
+		this.buffer = buffer;
+	}
+
+	/**
+	 * Se asegura de que haya al menos n bytes en el buffer (n no mayor que
+	 * su capacidad).
+	 */
+	private void fill(int n) throws IOException {
+		if (buffer.remaining() >= n) {
+			return;
+		}
+		if (channel == null) {
+			throw new EOFException();
+		}
+		buffer.compact();
+		while (buffer.position() < n) {
+			int read = channel.read(buffer, position);
+			if (read < 0) {
+				buffer.flip();
+				throw new EOFException();
+			}
+			position += read;
+		}
+		buffer.flip();
+	}
+
+	/**
+	 * @return bytes que quedan por leer, hasta el final del fichero
+	 */
+	private long available() throws IOException {
+		if (channel == null) {
+			return buffer.remaining();
+		}
+		return buffer.remaining() + Math.max(0, channel.size() - position);
+	}
+
+	/**
+	 * Ver {@link SnapshotOutput#writeSignedVarLong(long)}, para un valor
+	 * que se escribio desde un int.
+	 *
+	 * @throws StreamCorruptedException si no cabe en un int
+	 */
+	public int readSignedVarInt() throws IOException {
+		long v = readSignedVarLong();
+		if (v != (int) v) {
+			throw new StreamCorruptedException("int out of range " + v);
+		}
+		return (int) v;
+	}
+
+	public int readByte() throws IOException {
+		fill(1);
+		return buffer.get() & 0xFF;
+	}
+
+	public int readInt() throws IOException {
+		fill(4);
+		return buffer.getInt();
+	}
+
+	public long readLong() throws IOException {
+		fill(8);
+		return buffer.getLong();
+	}
+
+	/**
+	 * Ver {@link SnapshotOutput#writeVarLong(long)}.
+	 */
+	public long readVarLong() throws IOException {
+		long v = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = readByte();
+			v |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return v;
+			}
+		}
+		throw new StreamCorruptedException("varint too long");
+	}
+
+	/**
+	 * Ver {@link SnapshotOutput#writeSignedVarLong(long)}.
+	 */
+	public long readSignedVarLong() throws IOException {
+		long v = readVarLong();
+		return (v >>> 1) ^ -(v & 1);
+	}
+
+	public void readBytes(byte[] b) throws IOException {
+		int off = 0;
+		while (off < b.length) {
+			if (!buffer.hasRemaining()) {
+				fill(1);
+			}
+			int n = Math.min(buffer.remaining(), b.length - off);
+			buffer.get(b, off, n);
+			off += n;
+		}
+	}
+
+	/**
+	 * Ver {@link SnapshotOutput#writeString(String)}.
+	 */
+	public String readString() throws IOException {
+		long length = readVarLong();
+		//	Un fichero corrupto puede dar una longitud negativa (mas de 63
+		//	bits) o mayor que lo que queda: se comprueba antes de reservar
+		if (length < 0 || length > Integer.MAX_VALUE || length > available()) {
+			throw new StreamCorruptedException("bad string length " + length);
+		}
+		byte[] b = new byte[(int) length];
+		readBytes(b);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,133 @@
+package ule.edi.tree;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Escritura secuencial en un {@link FileChannel} a partir de una posicion,
+ * con un buffer directo grande para hacer pocas llamadas al sistema.
+ *
+ * Los enteros se escriben como varint (7 bits por byte, el bit alto indica
+ * que sigue otro byte); los que pueden ser negativos, en zigzag.
+ *
+ * Es lo que recibe un {@link KeyCodec} para escribir cada clave.
+ *
+ * Sin canal escribe solo en memoria y el buffer crece lo que haga falta
+ * (lo usa {@link TreeJournal} para preparar cada lote).
+ */
+public final class SnapshotOutput {
+
+	private final FileChannel channel;
+	private ByteBuffer buffer;
+	private long position; // posicion en el fichero del principio del buffer
+
+	SnapshotOutput(FileChannel channel, long position, int capacity) {
+		this.channel = channel;
+		this.position = position;
+		this.buffer = ByteBuffer.allocateDirect(capacity);
+	}
+
+	/**
+	 * En memoria, sin canal.
+	 */
+	SnapshotOutput(int capacity) {
+		this.channel = null;
+		this.buffer = ByteBuffer.allocate(capacity);
+	}
+
+	private void ensure(int n) throws IOException {
+		if (buffer.remaining() >= n) {
+			return;
+		}
+		if (channel != null) {
+			flush();
+		} else {
+			ByteBuffer bigger = ByteBuffer.allocate(Math.max(2 * buffer.capacity(), buffer.position() + n));
+			buffer.flip();
+			buffer = bigger.put(buffer);
+		}
+	}
+
+	/**
+	 * En memoria: lo escrito hasta ahora, sin copiarlo.
+	 */
+	ByteBuffer bytes() {
+		ByteBuffer b = buffer.duplicate();
+		b.flip();
+		return b;
+	}
+
+	/**
+	 * En memoria: descarta lo escrito.
+	 */
+	void clear() {
+		buffer.clear();
+	}
+
+	/**
+	 * Escribe en el fichero lo que quede en el buffer.
+	 */
+	void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+		buffer.clear();
+	}
+
+	public void writeByte(int b) throws IOException {
+		ensure(1);
+		buffer.put((byte) b);
+	}
+
+	public void writeInt(int v) throws IOException {
+		ensure(4);
+		buffer.putInt(v);
+	}
+
+	public void writeLong(long v) throws IOException {
+		ensure(8);
+		buffer.putLong(v);
+	}
+
+	/**
+	 * Entero no negativo en varint.
+	 */
+	public void writeVarLong(long v) throws IOException {
+		ensure(10);
+		while ((v & ~0x7FL) != 0) {
+			buffer.put((byte) ((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		buffer.put((byte) v);
+	}
+
+	/**
+	 * Entero con signo en zigzag y varint: los valores pequenos en valor
+	 * absoluto ocupan poco.
+	 */
+	public void writeSignedVarLong(long v) throws IOException {
+		writeVarLong((v << 1) ^ (v >> 63));
+	}
+
+	public void writeBytes(byte[] b) throws IOException {
+		int off = 0;
+		while (off < b.length) {
+			ensure(1);
+			int n = Math.min(buffer.remaining(), b.length - off);
+			buffer.put(b, off, n);
+			off += n;
+		}
+	}
+
+	/**
+	 * Cadena en UTF-8, precedida de su longitud en bytes.
+	 */
+	public void writeString(String s) throws IOException {
+		byte[] b = s.getBytes(StandardCharsets.UTF_8);
+		writeVarLong(b.length);
+		writeBytes(b);
+	}
+}
@@ -0,0 +1,251 @@
+package ule.edi.tree;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Mapa de etiquetas de un nodo.
+ *
+ * Casi todos los nodos etiquetados tienen una o dos etiquetas, asi que las
+ * dos primeras se guardan en campos del propio mapa y solo al llegar a la
+ * tercera se pasa a un {@link HashMap}.
+ *
+ * Se comporta como cualquier {@link Map} (admite claves y valores null).
+ */
+final class TagMap extends AbstractMap<String, Object> {
+
+	private static final int SLOTS = 2;
+
+	private int size; // entradas en los campos, si more es null
+	private String k0, k1;
+	private Object v0, v1;
+
+	private HashMap<String, Object> more; // todas las entradas, si hay mas de SLOTS
+
+	private int modCount;
+
+	private int slotOf(Object key) {
+		if (size > 0 && Objects.equals(key, k0)) {
+			return 0;
+		}
+		if (size > 1 && Objects.equals(key, k1)) {
+			return 1;
+		}
+		return -1;
+	}
+
+	private String key(int i) {
+		return i == 0 ? k0 : k1;
+	}
+
+	private Object value(int i) {
+		return i == 0 ? v0 : v1;
+	}
+
+	private void setValue(int i, Object v) {
+		if (i == 0) {
+			v0 = v;
+		} else {
+			v1 = v;
+		}
+	}
+
+	@Override
+	public int size() {
+		return more != null ? more.size() : size;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return more != null ? more.containsKey(key) : slotOf(key) >= 0;
+	}
+
+	@Override
+	public Object get(Object key) {
+		if (more != null) {
+			return more.get(key);
+		}
+		int i = slotOf(key);
+		return i < 0 ? null : value(i);
+	}
+
+	@Override
+	public Object put(String key, Object value) {
+		if (more != null) {
+			if (!more.containsKey(key)) {
+				modCount++;
+			}
+			return more.put(key, value);
+		}
+		int i = slotOf(key);
+		if (i >= 0) {
+			Object old = value(i);
+			setValue(i, value);
+			return old;
+		}
+		modCount++;
+		if (size < SLOTS) {
+			if (size == 0) {
+				k0 = key;
+				v0 = value;
+			} else {
+				k1 = key;
+				v1 = value;
+			}
+			size++;
+			return null;
+		}
+		more = new HashMap<String, Object>();
+		more.put(k0, v0);
+		more.put(k1, v1);
+		more.put(key, value);
+		k0 = k1 = null;
+		v0 = v1 = null;
+		size = 0;
+		return null;
+	}
+
+	@Override
+	public Object remove(Object key) {
+		if (more != null) {
+			if (more.containsKey(key)) {
+				modCount++;
+			}
+			return more.remove(key);
+		}
+		int i = slotOf(key);
+		if (i < 0) {
+			return null;
+		}
+		modCount++;
+		Object old = value(i);
+		if (i == 0) {
+			k0 = k1;
+			v0 = v1;
+		}
+		k1 = null;
+		v1 = null;
+		size--;
+		return old;
+	}
+
+	@Override
+	public void clear() {
+		modCount++;
+		more = null;
+		k0 = k1 = null;
+		v0 = v1 = null;
+		size = 0;
+	}
+
+	@Override
+	public Set<Map.Entry<String, Object>> entrySet() {
+		return new AbstractSet<Map.Entry<String, Object>>() {
+			@Override
+			public int size() {
+				return TagMap.this.size();
+			}
+
+			@Override
+			public Iterator<Map.Entry<String, Object>> iterator() {
+				if (more != null) {
+					return more.entrySet().iterator();
+				}
+				return new SlotIterator();
+			}
+		};
+	}
+
+	/**
+	 * Recorre las entradas guardadas en los campos.
+	 */
+	private final class SlotIterator implements Iterator<Map.Entry<String, Object>> {
+
+		private int next = 0;
+		private int last = -1;
+		private int expectedModCount = modCount;
+
+		@Override
+		public boolean hasNext() {
+			return next < size;
+		}
+
+		@Override
+		public Map.Entry<String, Object> next() {
+			if (modCount != expectedModCount) {
+				throw new ConcurrentModificationException();
+			}
+			if (next >= size) {
+				throw new NoSuchElementException();
+			}
+			last = next++;
+			return new SlotEntry(last);
+		}
+
+		@Override
+		public void remove() {
+			if (last < 0) {
+				throw new IllegalStateException();
+			}
+			if (modCount != expectedModCount) {
+				throw new ConcurrentModificationException();
+			}
+			TagMap.this.remove(key(last));
+			expectedModCount = modCount;
+			next = last;
+			last = -1;
+		}
+	}
+
+	private final class SlotEntry implements Map.Entry<String, Object> {
+
+		private final int slot;
+
+		SlotEntry(int slot) {
+			this.slot = slot;
+		}
+
+		@Override
+		public String getKey() {
+			return key(slot);
+		}
+
+		@Override
+		public Object getValue() {
+			return value(slot);
+		}
+
+		@Override
+		public Object setValue(Object value) {
+			Object old = value(slot);
+			TagMap.this.setValue(slot, value);
+			return old;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Map.Entry)) {
+				return false;
+			}
+			Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+			return Objects.equals(getKey(), e.getKey()) && Objects.equals(getValue(), e.getValue());
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hashCode(getKey()) ^ Objects.hashCode(getValue());
+		}
+
+		@Override
+		public String toString() {
+			return getKey() + "=" + getValue();
+		}
+	}
+}
@@ -0,0 +1,172 @@
+package ule.edi.tree;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Almacen de etiquetas enteras de un arbol completo, por columnas.
+ *
+ * Cada clave de etiqueta ("descend", "preorder"...) se guarda una sola vez y
+ * tiene una columna int[] indexada por el ordinal del nodo, mas un BitSet
+ * que indica en que nodos esta puesta. El ordinal se asigna al poner la
+ * primera etiqueta entera en el nodo, asi que los nodos sin etiquetas no
+ * ocupan sitio en las columnas.
+ *
+ * Quitar una etiqueta de todo el arbol es limpiar su BitSet, sin recorrer
+ * los nodos.
+ *
+ * Cuando un nodo con ordinal sale del arbol se limpian sus bits y el
+ * ordinal se reutiliza, asi que las columnas crecen con los nodos
+ * etiquetados que hay a la vez y no con todos los que ha habido.
+ *
+ * Las etiquetas que no son Integer siguen en el mapa de cada nodo.
+ *
+ * Despues de un split o un join los nodos de un arbol pueden estar en
+ * almacenes distintos (cada nodo lleva el suyo) y un almacen puede tener
+ * nodos de dos arboles; entonces filterTags deja de vaciar columnas y
+ * recorre los nodos.
+ */
+final class TagStore {
+
+	private final AbstractTreeADT<?> owner; // raiz del arbol que lo usa
+
+	private final Map<String, Integer> columnOf = new HashMap<String, Integer>();
+	private String[] keys = new String[4];
+	private int[][] values = new int[4][];
+	private BitSet[] present = new BitSet[4];
+	private int columns;
+
+	private int nextOrdinal;
+	private int[] freeOrdinals = new int[4];
+	private int free;
+
+	//	Cierto si algun nodo tiene etiquetas no enteras en su propio mapa
+	boolean spilled;
+
+	//	Cierto si hay nodos con este almacen en otro arbol (tras split o
+	//	join): entonces vaciar una columna entera tocaria tambien ese arbol
+	boolean shared;
+
+	TagStore(AbstractTreeADT<?> owner) {
+		this.owner = owner;
+	}
+
+	boolean isOwner(AbstractTreeADT<?> node) {
+		return node == owner;
+	}
+
+	int newOrdinal() {
+		return free > 0 ? freeOrdinals[--free] : nextOrdinal++;
+	}
+
+	/**
+	 * Quita todas las etiquetas del ordinal y lo deja libre para otro nodo.
+	 */
+	void release(int ordinal) {
+		for (int c = 0; c < columns; c++) {
+			present[c].clear(ordinal);
+		}
+		if (free == freeOrdinals.length) {
+			freeOrdinals = Arrays.copyOf(freeOrdinals, free * 2);
+		}
+		freeOrdinals[free++] = ordinal;
+	}
+
+	private int column(String key) {
+		Integer c = columnOf.get(key);
+		return c == null ? -1 : c;
+	}
+
+	private int addColumn(String key) {
+		if (columns == keys.length) {
+			keys = Arrays.copyOf(keys, columns * 2);
+			values = Arrays.copyOf(values, columns * 2);
+			present = Arrays.copyOf(present, columns * 2);
+		}
+		keys[columns] = key;
+		values[columns] = new int[Math.max(16, nextOrdinal)];
+		present[columns] = new BitSet();
+		columnOf.put(key, columns);
+		return columns++;
+	}
+
+	boolean contains(int ordinal, String key) {
+		int c = column(key);
+		return c >= 0 && present[c].get(ordinal);
+	}
+
+	Integer get(int ordinal, String key) {
+		int c = column(key);
+		if (c < 0 || !present[c].get(ordinal)) {
+			return null;
+		}
+		return values[c][ordinal];
+	}
+
+	Integer set(int ordinal, String key, int value) {
+		int c = column(key);
+		if (c < 0) {
+			c = addColumn(key);
+		}
+		Integer old = present[c].get(ordinal) ? values[c][ordinal] : null;
+		if (ordinal >= values[c].length) {
+			values[c] = Arrays.copyOf(values[c], Math.max(ordinal + 1, values[c].length * 2));
+		}
+		values[c][ordinal] = value;
+		present[c].set(ordinal);
+		return old;
+	}
+
+	Integer remove(int ordinal, String key) {
+		Integer old = get(ordinal, key);
+		if (old != null) {
+			present[column(key)].clear(ordinal);
+		}
+		return old;
+	}
+
+	boolean hasAny(int ordinal) {
+		for (int c = 0; c < columns; c++) {
+			if (present[c].get(ordinal)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Copia en el mapa dado las etiquetas del nodo.
+	 */
+	void copyTo(int ordinal, Map<String, Object> rx) {
+		for (int c = 0; c < columns; c++) {
+			if (present[c].get(ordinal)) {
+				rx.put(keys[c], values[c][ordinal]);
+			}
+		}
+	}
+
+	/**
+	 * Quita del nodo las etiquetas que no esten en keep.
+	 */
+	void retain(int ordinal, String... keep) {
+		for (int c = 0; c < columns; c++) {
+			if (!Arrays.asList(keep).contains(keys[c])) {
+				present[c].clear(ordinal);
+			}
+		}
+	}
+
+	/**
+	 * Quita de todos los nodos las etiquetas que no esten en keep: se
+	 * vacia la columna entera.
+	 */
+	void retainAll(String... keep) {
+		for (int c = 0; c < columns; c++) {
+			if (!Arrays.asList(keep).contains(keys[c])) {
+				present[c].clear();
+			}
+		}
+	}
+}
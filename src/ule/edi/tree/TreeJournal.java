@@ -0,0 +1,470 @@
+package ule.edi.tree;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+/**
+ * Diario de operaciones (write-ahead log) para un
+ * {@link BinarySearchTreeImpl} usado como multiconjunto: cada insert,
+ * remove y removeAll se anota en un fichero binario que solo crece, y al
+ * volver a abrirlo se carga la ultima instantanea y se repiten encima las
+ * operaciones anotadas despues de ella.
+ *
+ * Cada operacion se comprueba (que el elemento no sea null y, al eliminar,
+ * que este en el arbol), se anota en el lote en curso y, si con ella el
+ * lote llega a batchSize, se escribe el lote; solo despues se aplica al
+ * arbol. Los lotes van al fichero con una sola escritura y, segun
+ * {@link Sync}, un solo force (group commit), tambien al llamar a
+ * {@link #commit()}. Con batchSize 1 y {@link Sync#COMMIT} cada operacion
+ * es duradera antes de cambiar el arbol; con lotes mayores, las
+ * operaciones de un lote que aun no se ha escrito ya estan en el arbol y
+ * se pierden si se cae el proceso.
+ *
+ * Si falla la escritura de un lote, el lote se descarta, la operacion que
+ * lo provoco no se aplica y el diario queda inservible: las operaciones y
+ * los commit siguientes lanzan IllegalStateException, porque el arbol puede
+ * tener operaciones anteriores del lote que ya no estaran en el fichero.
+ * Hay que cerrarlo y volver a abrirlo.
+ *
+ * {@link #checkpoint()} guarda una instantanea nueva y vacia el diario, para
+ * que la recuperacion no tenga que repetir demasiadas operaciones.
+ *
+ * Formato del diario:
+ *
+ * - cabecera: "BSTJ" y la generacion (long) de la instantanea sobre la que
+ *   se aplica.
+ * - lotes: longitud en bytes, numero de operaciones y CRC32 de las
+ *   operaciones (tres int), y despues las operaciones: un byte con el tipo,
+ *   el elemento con el {@link KeyCodec} y, en remove(T, int), num en
+ *   varint.
+ *
+ * Un lote incompleto o con el CRC mal al final del fichero (una escritura
+ * cortada por una caida) se descarta al abrir.
+ *
+ * No es seguro usarlo desde varios hilos a la vez.
+ *
+ * @param <T> tipo de los elementos
+ */
+public final class TreeJournal<T extends Comparable<? super T>> implements Closeable {
+
+	/**
+	 * Cuando se fuerza el diario al disco.
+	 */
+	public enum Sync {
+		/** nunca: los lotes quedan en la cache del sistema operativo */
+		NONE,
+		/** al escribir cada lote */
+		COMMIT
+	}
+
+	private static final byte[] MAGIC = { 'B', 'S', 'T', 'J' };
+	private static final int HEADER = MAGIC.length + 8;
+	private static final int FRAME = 12;
+
+	private static final int BUFFER = 1 << 20;
+
+	private static final int INSERT = 1;
+	private static final int REMOVE = 2;
+	private static final int REMOVE_SOME = 3;
+	private static final int REMOVE_ALL = 4;
+
+	private final BinarySearchTreeImpl<T> tree;
+	private final Path snapshot;
+	private final KeyCodec<T> codec;
+	private final int batchSize;
+	private final Sync sync;
+	private final FileChannel channel;
+	private final SnapshotOutput batch = new SnapshotOutput(1 << 16);
+
+	private long generation;
+	private long end;      // final del ultimo lote escrito
+	private int pending;   // operaciones en batch
+	private long replayed;
+	private boolean failed;  // fallo la escritura de un lote
+
+	private TreeJournal(BinarySearchTreeImpl<T> tree, Path snapshot, KeyCodec<T> codec, int batchSize, Sync sync, FileChannel channel, long generation) throws IOException {
+		this.tree = tree;
+		this.snapshot = snapshot;
+		this.codec = codec;
+		this.batchSize = batchSize;
+		this.sync = sync;
+		this.channel = channel;
+		this.generation = generation;
+		startBatch();
+	}
+
+	/**
+	 * Abre (o crea) el diario: carga la instantanea, si existe, y repite
+	 * las operaciones del diario que sean posteriores a ella.
+	 *
+	 * @param snapshot fichero de la instantanea (puede no existir)
+	 * @param journal fichero del diario (puede no existir)
+	 * @param codec forma de escribir los elementos
+	 * @param batchSize numero de operaciones de cada lote, al menos 1
+	 * @param sync cuando se fuerza el diario al disco
+	 * @return el diario, con el arbol ya recuperado en {@link #getTree()}
+	 * @throws IOException si falla la lectura, o la instantanea o el diario
+	 *         no son validos
+	 * @throws IllegalArgumentException si algun parametro es null o
+	 *         batchSize es menor que 1
+	 */
+	public static <T extends Comparable<? super T>> TreeJournal<T> open(Path snapshot, Path journal, KeyCodec<T> codec, int batchSize, Sync sync) throws IOException {
+		return open(snapshot, journal, codec, batchSize, sync, BinarySearchTreeImpl<T>::new);
+	}
+
+	/**
+	 * Como {@link #open(Path, Path, KeyCodec, int, Sync)}, con el arbol
+	 * del tipo que de factory (por ejemplo AVLTreeImpl::new): la
+	 * instantanea se carga con
+	 * {@link BinarySearchTreeImpl#load(Path, KeyCodec, Supplier)} y las
+	 * operaciones se repiten sobre ese arbol. Hay que abrirlo siempre con
+	 * el mismo tipo de arbol.
+	 *
+	 * @param factory da el arbol vacio en el que se recupera
+	 * @throws IllegalArgumentException si algun parametro es null,
+	 *         batchSize es menor que 1 o el arbol de factory no esta vacio
+	 */
+	public static <T extends Comparable<? super T>> TreeJournal<T> open(Path snapshot, Path journal, KeyCodec<T> codec, int batchSize, Sync sync, Supplier<? extends BinarySearchTreeImpl<T>> factory) throws IOException {
+		if (snapshot == null || journal == null || codec == null || sync == null || batchSize < 1 || factory == null) {
+			throw new IllegalArgumentException();
+		}
+		BinarySearchTreeImpl<T> tree;
+		long generation;
+		if (Files.exists(snapshot)) {
+			tree = TreeSnapshot.load(snapshot, codec, factory);
+			generation = Math.max(TreeSnapshot.sequence(snapshot), 0);
+		} else {
+			tree = factory.get();
+			if (tree == null || !tree.isEmpty() || tree.father != null) {
+				throw new IllegalArgumentException("factory must give an empty tree");
+			}
+			generation = 0;
+		}
+		boolean created = !Files.exists(journal);
+		FileChannel channel = FileChannel.open(journal, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			if (created) {
+				forceDirectory(journal);
+			}
+			TreeJournal<T> log = new TreeJournal<T>(tree, snapshot, codec, batchSize, sync, channel, generation);
+			log.recover();
+			return log;
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	private void recover() throws IOException {
+		long size = channel.size();
+		if (size < HEADER) {
+			reset();
+			return;
+		}
+		SnapshotInput in = new SnapshotInput(channel, 0, BUFFER);
+		byte[] magic = new byte[MAGIC.length];
+		in.readBytes(magic);
+		if (!Arrays.equals(magic, MAGIC)) {
+			throw new StreamCorruptedException("not a tree journal");
+		}
+		long base = in.readLong();
+		if (base > generation) {
+			throw new StreamCorruptedException("journal generation " + base + " is newer than snapshot " + generation);
+		}
+		if (base < generation) {
+			//	Caida en un checkpoint despues de guardar la instantanea:
+			//	todo lo del diario ya esta en ella
+			reset();
+			return;
+		}
+		end = HEADER;
+		CRC32 crc = new CRC32();
+		while (size - end >= FRAME) {
+			int length = in.readInt();
+			int records = in.readInt();
+			int checksum = in.readInt();
+			if (length < 0 || records < 0 || length > size - end - FRAME) {
+				break;
+			}
+			byte[] payload = new byte[length];
+			in.readBytes(payload);
+			crc.reset();
+			crc.update(payload, 0, length);
+			if ((int) crc.getValue() != checksum) {
+				break;
+			}
+			replay(new SnapshotInput(ByteBuffer.wrap(payload)), records);
+			end += FRAME + length;
+		}
+		if (end < size) {
+			channel.truncate(end);
+			channel.force(false);
+		}
+	}
+
+	private void replay(SnapshotInput in, int records) throws IOException {
+		try {
+			for (int i = 0; i < records; i++) {
+				int op = in.readByte();
+				T element = codec.read(in);
+				switch (op) {
+				case INSERT:
+					tree.insert(element);
+					break;
+				case REMOVE:
+					tree.remove(element);
+					break;
+				case REMOVE_SOME:
+					long num = in.readVarLong();
+					if (num < 0 || num > Integer.MAX_VALUE) {
+						throw new StreamCorruptedException("bad journal count " + num);
+					}
+					tree.remove(element, (int) num);
+					break;
+				case REMOVE_ALL:
+					tree.removeAll(element);
+					break;
+				default:
+					throw new StreamCorruptedException("bad journal record " + op);
+				}
+				replayed++;
+			}
+		} catch (NoSuchElementException e) {
+			throw new StreamCorruptedException("journal does not match snapshot");
+		}
+	}
+
+	/**
+	 * Deja el diario vacio, para la generacion actual. Primero se corta y
+	 * luego se cambia la cabecera: si se cae en medio, el diario queda de
+	 * una generacion anterior y se vuelve a vaciar al abrirlo.
+	 */
+	private void reset() throws IOException {
+		channel.truncate(0);
+		ByteBuffer header = ByteBuffer.allocate(HEADER);
+		header.put(MAGIC).putLong(generation).flip();
+		while (header.hasRemaining()) {
+			channel.write(header, header.position());
+		}
+		channel.force(true);
+		end = HEADER;
+	}
+
+	private void startBatch() throws IOException {
+		batch.clear();
+		batch.writeInt(0);
+		batch.writeInt(0);
+		batch.writeInt(0);
+		pending = 0;
+	}
+
+	/**
+	 * Anota la operacion, ya comprobada, en el lote y lo escribe si esta
+	 * lleno. Hay que llamarlo antes de aplicarla al arbol: si lanza
+	 * excepcion, la operacion no se aplica.
+	 */
+	private void log(int op, T element, int num) throws IOException {
+		checkUsable();
+		batch.writeByte(op);
+		codec.write(element, batch);
+		if (op == REMOVE_SOME) {
+			batch.writeVarLong(num);
+		}
+		pending++;
+		if (pending >= batchSize) {
+			commit();
+		}
+	}
+
+	private void checkUsable() {
+		if (failed) {
+			throw new IllegalStateException("journal write failed; reopen it");
+		}
+	}
+
+	private void checkPresent(T element) {
+		if (element == null) {
+			throw new IllegalArgumentException();
+		}
+		if (!tree.contains(element)) {
+			throw new NoSuchElementException();
+		}
+	}
+
+	/**
+	 * @return el arbol; sus cambios directos no se anotan en el diario
+	 */
+	public BinarySearchTreeImpl<T> getTree() {
+		return tree;
+	}
+
+	/**
+	 * @return operaciones repetidas al abrir el diario
+	 */
+	public long getReplayed() {
+		return replayed;
+	}
+
+	/**
+	 * Ver {@link BinarySearchTreeImpl#insert(Comparable)}. Si lanza una
+	 * excepcion, el arbol no cambia.
+	 *
+	 * @throws IOException si falla la escritura del lote
+	 * @throws IllegalStateException si antes fallo una escritura
+	 */
+	public boolean insert(T element) throws IOException {
+		if (element == null) {
+			throw new IllegalArgumentException();
+		}
+		log(INSERT, element, 0);
+		return tree.insert(element);
+	}
+
+	/**
+	 * Ver {@link BinarySearchTreeImpl#remove(Comparable)}. Si lanza una
+	 * excepcion no se anota nada y el arbol no cambia.
+	 *
+	 * @throws IOException si falla la escritura del lote
+	 * @throws IllegalStateException si antes fallo una escritura
+	 */
+	public void remove(T element) throws IOException {
+		checkPresent(element);
+		log(REMOVE, element, 0);
+		tree.remove(element);
+	}
+
+	/**
+	 * Ver {@link BinarySearchTreeImpl#remove(Comparable, int)}. Si lanza
+	 * una excepcion no se anota nada y el arbol no cambia.
+	 *
+	 * @throws IllegalArgumentException si num es negativo
+	 * @throws IOException si falla la escritura del lote
+	 * @throws IllegalStateException si antes fallo una escritura
+	 */
+	public int remove(T element, int num) throws IOException {
+		if (num < 0) {
+			throw new IllegalArgumentException();
+		}
+		checkPresent(element);
+		log(REMOVE_SOME, element, num);
+		return tree.remove(element, num);
+	}
+
+	/**
+	 * Ver {@link BinarySearchTreeImpl#removeAll(Comparable)}. Si lanza una
+	 * excepcion no se anota nada y el arbol no cambia.
+	 *
+	 * @throws IOException si falla la escritura del lote
+	 * @throws IllegalStateException si antes fallo una escritura
+	 */
+	public int removeAll(T element) throws IOException {
+		checkPresent(element);
+		log(REMOVE_ALL, element, 0);
+		return tree.removeAll(element);
+	}
+
+	/**
+	 * Escribe el lote en curso con una sola escritura y, con
+	 * {@link Sync#COMMIT}, lo fuerza al disco.
+	 *
+	 * @throws IOException si falla la escritura; el lote se descarta y el
+	 *         diario deja de admitir operaciones
+	 * @throws IllegalStateException si antes fallo una escritura
+	 */
+	public void commit() throws IOException {
+		checkUsable();
+		if (pending == 0) {
+			return;
+		}
+		ByteBuffer bytes = batch.bytes();
+		int length = bytes.remaining() - FRAME;
+		CRC32 crc = new CRC32();
+		bytes.position(FRAME);
+		crc.update(bytes);
+		bytes.position(0);
+		bytes.putInt(0, length).putInt(4, pending).putInt(8, (int) crc.getValue());
+		long position = end;
+		try {
+			while (bytes.hasRemaining()) {
+				position += channel.write(bytes, position);
+			}
+			if (sync == Sync.COMMIT) {
+				channel.force(false);
+			}
+		} catch (IOException | RuntimeException e) {
+			//	Lo que haya llegado al fichero es un lote cortado, que se
+			//	descarta al abrir
+			failed = true;
+			startBatch();
+			throw e;
+		}
+		end = position;
+		startBatch();
+	}
+
+	/**
+	 * Guarda una instantanea nueva del arbol y vacia el diario.
+	 *
+	 * La instantanea se escribe en un fichero aparte, se fuerza al disco y
+	 * se cambia por la anterior de una vez; lleva la generacion siguiente,
+	 * asi que si se cae antes de vaciar el diario, este se descarta al
+	 * abrirlo en vez de repetirse dos veces. El cambio de nombre solo es
+	 * duradero cuando se fuerza el directorio, y hay que hacerlo antes de
+	 * vaciar el diario: si no, una caida podria dejar la instantanea
+	 * anterior con el diario ya vacio.
+	 *
+	 * @throws IOException si falla la escritura
+	 */
+	public void checkpoint() throws IOException {
+		commit();
+		Path tmp = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+		TreeSnapshot.save(tree, tmp, codec, false, generation + 1);
+		try (FileChannel written = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+			written.force(true);
+		}
+		Files.move(tmp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		forceDirectory(snapshot);
+		generation++;
+		reset();
+	}
+
+	/**
+	 * Fuerza al disco el directorio de file, con sus entradas (ficheros
+	 * creados o cambiados de nombre). En Windows no se puede abrir un
+	 * directorio y se deja en manos del sistema de ficheros.
+	 */
+	private static void forceDirectory(Path file) throws IOException {
+		if (System.getProperty("os.name", "").startsWith("Windows")) {
+			return;
+		}
+		Path dir = file.toAbsolutePath().getParent();
+		try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+			channel.force(true);
+		}
+	}
+
+	/**
+	 * Escribe el lote en curso y cierra el fichero.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			if (!failed) {
+				commit();
+			}
+		} finally {
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,273 @@
+package ule.edi.tree;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Instantanea binaria de un {@link BinarySearchTreeImpl}.
+ *
+ * Formato:
+ *
+ * - cabecera: "BST1", un byte de opciones (bit 0: hay etiquetas, bit 1:
+ *   hay secuencia), el numero de nodos n como long y, si hay secuencia,
+ *   otro long (la generacion del {@link TreeJournal} que la escribio).
+ * - forma: 2 bits por nodo en preorden (tiene hijo izquierdo, tiene hijo
+ *   derecho), empaquetados en (2n+7)/8 bytes.
+ * - nodos en preorden: el elemento con el {@link KeyCodec}, count en
+ *   varint y, si hay etiquetas, su numero y cada una como clave y valor
+ *   (entero en zigzag o cadena).
+ *
+ * La forma y los nodos se escriben y se leen a la vez, cada uno con su
+ * buffer directo y su posicion en el mismo fichero, en un solo recorrido.
+ * No se compara ningun elemento al cargar.
+ *
+ * Se carga en un arbol vacio del tipo que se pida (los nodos se crean con
+ * su emptyBST). Los arboles que se equilibran solos no guardan su estado
+ * (por ejemplo el color), y el fichero puede venir de un BST sin
+ * equilibrar, asi que despues de leerlos se reconstruyen equilibrados.
+ */
+final class TreeSnapshot {
+
+	private static final byte[] MAGIC = { 'B', 'S', 'T', '1' };
+	private static final int HEADER = MAGIC.length + 1 + 8;
+	private static final int TAGS = 1;
+	private static final int SEQUENCE = 2;
+
+	private static final int BUFFER = 1 << 20;
+
+	private static final int TAG_INTEGER = 0;
+	private static final int TAG_STRING = 1;
+
+	private TreeSnapshot() {
+	}
+
+	static <T extends Comparable<? super T>> void save(BinarySearchTreeImpl<T> tree, Path file, KeyCodec<T> codec, boolean withTags) throws IOException {
+		save(tree, file, codec, withTags, -1);
+	}
+
+	/**
+	 * Como {@link #save(BinarySearchTreeImpl, Path, KeyCodec, boolean)},
+	 * guardando ademas sequence en la cabecera si no es negativa.
+	 */
+	static <T extends Comparable<? super T>> void save(BinarySearchTreeImpl<T> tree, Path file, KeyCodec<T> codec, boolean withTags, long sequence) throws IOException {
+		long n = tree.isEmpty() ? 0 : tree.size();
+		long shapeBytes = (2 * n + 7) / 8;
+		int headerBytes = HEADER + (sequence >= 0 ? 8 : 0);
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			SnapshotOutput header = new SnapshotOutput(channel, 0, headerBytes);
+			header.writeBytes(MAGIC);
+			header.writeByte((withTags ? TAGS : 0) | (sequence >= 0 ? SEQUENCE : 0));
+			header.writeLong(n);
+			if (sequence >= 0) {
+				header.writeLong(sequence);
+			}
+			header.flush();
+			if (n == 0) {
+				return;
+			}
+			SnapshotOutput shape = new SnapshotOutput(channel, headerBytes, BUFFER);
+			SnapshotOutput nodes = new SnapshotOutput(channel, headerBytes + shapeBytes, BUFFER);
+			int bits = 0;
+			int nbits = 0;
+			Deque<BinarySearchTreeImpl<T>> stack = new ArrayDeque<BinarySearchTreeImpl<T>>();
+			stack.push(tree);
+			while (!stack.isEmpty()) {
+				BinarySearchTreeImpl<T> node = stack.pop();
+				codec.write(node.content, nodes);
+				nodes.writeVarLong(node.count);
+				if (withTags) {
+					writeTags(node, nodes);
+				}
+				BinarySearchTreeImpl<T> left = node.getLeftBST();
+				BinarySearchTreeImpl<T> right = node.getRightBST();
+				bits = bits << 2 | (left != null ? 2 : 0) | (right != null ? 1 : 0);
+				nbits += 2;
+				if (nbits == 8) {
+					shape.writeByte(bits);
+					bits = 0;
+					nbits = 0;
+				}
+				if (right != null) {
+					stack.push(right);
+				}
+				if (left != null) {
+					stack.push(left);
+				}
+			}
+			if (nbits > 0) {
+				shape.writeByte(bits << (8 - nbits));
+			}
+			shape.flush();
+			nodes.flush();
+		}
+	}
+
+	private static void writeTags(BinarySearchTreeImpl<?> node, SnapshotOutput out) throws IOException {
+		if (!node.hasTags()) {
+			out.writeVarLong(0);
+			return;
+		}
+		Map<String, Object> tags = node.getTags();
+		String[] keys = tags.keySet().toArray(new String[tags.size()]);
+		Arrays.sort(keys);
+		out.writeVarLong(keys.length);
+		for (String k : keys) {
+			out.writeString(k);
+			Object v = tags.get(k);
+			if (v instanceof Integer) {
+				out.writeByte(TAG_INTEGER);
+				out.writeSignedVarLong((Integer) v);
+			} else {
+				out.writeByte(TAG_STRING);
+				out.writeString(String.valueOf(v));
+			}
+		}
+	}
+
+	/**
+	 * @param factory da el arbol vacio (sin padre) en el que se carga
+	 * @throws IllegalArgumentException si el arbol de factory es null, no
+	 *         esta vacio o es subarbol de otro
+	 */
+	static <T extends Comparable<? super T>, B extends BinarySearchTreeImpl<T>> B load(Path file, KeyCodec<T> codec, Supplier<B> factory) throws IOException {
+		B root = factory.get();
+		if (root == null || !root.isEmpty() || root.father != null) {
+			throw new IllegalArgumentException("factory must give an empty tree");
+		}
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			SnapshotInput header = new SnapshotInput(channel, 0, HEADER + 8);
+			int options = readFlags(header);
+			boolean withTags = (options & TAGS) != 0;
+			long n = header.readLong();
+			int headerBytes = HEADER;
+			if ((options & SEQUENCE) != 0) {
+				header.readLong();
+				headerBytes += 8;
+			}
+			if (n == 0) {
+				return root;
+			}
+			if (n < 0 || n > Integer.MAX_VALUE) {
+				throw new StreamCorruptedException("bad node count " + n);
+			}
+			long shapeBytes = (2 * n + 7) / 8;
+			SnapshotInput shape = new SnapshotInput(channel, headerBytes, BUFFER);
+			SnapshotInput nodes = new SnapshotInput(channel, headerBytes + shapeBytes, BUFFER);
+
+			//	Nodos a los que todavia les falta leer el hijo derecho
+			Deque<BinarySearchTreeImpl<T>> needRight = new ArrayDeque<BinarySearchTreeImpl<T>>();
+			BinarySearchTreeImpl<T> node = root;
+			int bits = 0;
+			for (long i = 0; i < n; i++) {
+				if (node == null) {
+					throw new StreamCorruptedException("shape ends before node " + i);
+				}
+				node.content = codec.read(nodes);
+				long count = nodes.readVarLong();
+				if (count < 1 || count > Integer.MAX_VALUE) {
+					throw new StreamCorruptedException("bad count " + count + " in node " + i);
+				}
+				node.count = (int) count;
+				if (withTags) {
+					readTags(node, nodes);
+				}
+				if ((i & 3) == 0) {
+					bits = shape.readByte();
+				}
+				int flags = bits >>> (6 - 2 * (int) (i & 3)) & 3;
+				if ((flags & 1) != 0) {
+					needRight.push(node);
+				}
+				if ((flags & 2) != 0) {
+					BinarySearchTreeImpl<T> child = node.emptyBST(node);
+					node.setLeftBST(child);
+					node = child;
+				} else if (!needRight.isEmpty()) {
+					BinarySearchTreeImpl<T> father = needRight.pop();
+					BinarySearchTreeImpl<T> child = father.emptyBST(father);
+					father.setRightBST(child);
+					node = child;
+				} else {
+					node = null;
+				}
+			}
+			if (node != null) {
+				throw new StreamCorruptedException("shape has more than " + n + " nodes");
+			}
+			updateTotals(root);
+			if (root.isSelfBalancing()) {
+				root.rebuildBalanced();
+			}
+			return root;
+		}
+	}
+
+	private static int readFlags(SnapshotInput header) throws IOException {
+		byte[] magic = new byte[MAGIC.length];
+		header.readBytes(magic);
+		if (!Arrays.equals(magic, MAGIC)) {
+			throw new StreamCorruptedException("not a tree snapshot");
+		}
+		return header.readByte();
+	}
+
+	/**
+	 * Lee solo la cabecera.
+	 *
+	 * @return la secuencia guardada, o -1 si no tiene
+	 */
+	static long sequence(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			SnapshotInput header = new SnapshotInput(channel, 0, HEADER + 8);
+			int flags = readFlags(header);
+			header.readLong();
+			return (flags & SEQUENCE) != 0 ? header.readLong() : -1;
+		}
+	}
+
+	private static void readTags(BinarySearchTreeImpl<?> node, SnapshotInput in) throws IOException {
+		long k = in.readVarLong();
+		for (long i = 0; i < k; i++) {
+			String key = in.readString();
+			int type = in.readByte();
+			if (type == TAG_INTEGER) {
+				node.setTag(key, in.readSignedVarInt());
+			} else if (type == TAG_STRING) {
+				node.setTag(key, in.readString());
+			} else {
+				throw new StreamCorruptedException("bad tag type " + type);
+			}
+		}
+	}
+
+	/**
+	 * Calcula size e instances de todos los nodos, en postorden.
+	 */
+	private static <T extends Comparable<? super T>> void updateTotals(BinarySearchTreeImpl<T> root) {
+		Deque<BinarySearchTreeImpl<T>> stack = new ArrayDeque<BinarySearchTreeImpl<T>>();
+		BinarySearchTreeImpl<T> node = root;
+		BinarySearchTreeImpl<T> last = null;
+		while (node != null || !stack.isEmpty()) {
+			if (node != null) {
+				stack.push(node);
+				node = node.getLeftBST();
+			} else {
+				BinarySearchTreeImpl<T> top = stack.peek();
+				if (top.getRightBST() != null && last != top.getRightBST()) {
+					node = top.getRightBST();
+				} else {
+					top.update();
+					last = stack.pop();
+				}
+			}
+		}
+	}
+}